@@ -0,0 +1,163 @@
+package lofimodding.opensiege.formats.gas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compact gas entries against the hash maps they replaced. {@link #main} reports how much heap each keeps alive for
+ * region-sized files, the benchmarks check that looking values up by binary search hasn't become slower than hashing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GasEntryHeapBenchmark {
+  @Param({"nodes", "objects"})
+  private String shape;
+
+  @Param({"2000"})
+  private int count;
+
+  private GasEntry compact;
+  private MapGasEntry maps;
+  private String[] path;
+  private String[] keys;
+  private String[] valueKeys;
+
+  @Setup
+  public void setup() {
+    this.compact = GasLoader.load(gas(this.shape, this.count));
+    this.maps = MapGasEntry.copyOf(this.compact);
+
+    // Look keys up with fresh strings, as they come from annotations and other files
+    final GasEntry parent;
+    if("nodes".equals(this.shape)) {
+      this.path = new String[] {new String("t:snode_list,n:siege_node_list")};
+      parent = this.compact.getChild(this.path[0]);
+      this.valueKeys = new String[] {new String("guid"), new String("mesh_guid"), new String("nodesection"), new String("texsetabbr")};
+    } else {
+      this.path = new String[0];
+      parent = this.compact;
+      this.valueKeys = new String[] {new String("screen_name"), new String("is_pcontent"), new String("flags"), new String("model")};
+    }
+
+    final List<String> keys = new ArrayList<>();
+    for(final Map.Entry<String, GasEntry> child : parent.children()) {
+      keys.add(new String(child.getKey()));
+    }
+
+    this.keys = keys.toArray(String[]::new);
+  }
+
+  @Benchmark
+  public void compact(final Blackhole blackhole) {
+    GasEntry parent = this.compact;
+    for(final String key : this.path) {
+      parent = parent.getChild(key);
+    }
+
+    for(final String key : this.keys) {
+      GasEntry child = parent.getChild(key);
+      if(child.getChild("common") != null) {
+        child = child.getChild("common");
+      }
+
+      for(final String valueKey : this.valueKeys) {
+        blackhole.consume(child.get(valueKey));
+      }
+
+      blackhole.consume(child.getArrayChildren("door"));
+    }
+  }
+
+  @Benchmark
+  public void maps(final Blackhole blackhole) {
+    MapGasEntry parent = this.maps;
+    for(final String key : this.path) {
+      parent = parent.getChild(key);
+    }
+
+    for(final String key : this.keys) {
+      MapGasEntry child = parent.getChild(key);
+      if(child.getChild("common") != null) {
+        child = child.getChild("common");
+      }
+
+      for(final String valueKey : this.valueKeys) {
+        blackhole.consume(child.get(valueKey));
+      }
+
+      blackhole.consume(child.getArrayChildren("door"));
+    }
+  }
+
+  private static String gas(final String shape, final int count) {
+    return "nodes".equals(shape) ? SyntheticGas.nodes(count) : SyntheticGas.objects(count);
+  }
+
+  /**
+   * Reports the heap kept alive by each representation of the same files, args[0] copies of each shape
+   */
+  public static void main(final String[] args) {
+    final int copies = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+    for(final String shape : new String[] {"nodes", "objects"}) {
+      final String gas = gas(shape, 2000);
+
+      final long text = retained(copies, () -> new String(gas.toCharArray()));
+      final long compact = retained(copies, () -> GasLoader.load(gas));
+      final long maps = retained(copies, () -> MapGasEntry.copyOf(GasLoader.load(gas)));
+
+      System.out.printf("%s: text %d KiB, compact %d KiB, maps %d KiB per file (%.1fx smaller)%n", shape, text / 1024, compact / 1024, maps / 1024, (double)maps / compact);
+    }
+  }
+
+  /**
+   * @return the average bytes each object keeps alive
+   */
+  private static long retained(final int copies, final Supplier<Object> supplier) {
+    final Object[] objects = new Object[copies];
+
+    final long before = usedHeap();
+    for(int i = 0; i < copies; i++) {
+      objects[i] = supplier.get();
+    }
+
+    final long after = usedHeap();
+
+    // Keep them reachable until measured
+    if(objects[copies - 1] == null) {
+      throw new IllegalStateException();
+    }
+
+    return (after - before) / copies;
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+
+    for(int i = 0; i < 3; i++) {
+      System.gc();
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,137 @@
+package lofimodding.opensiege.formats.gas;
+
+import lofimodding.opensiege.formats.tank.TankManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single pass parser against the state machine it replaced, on region-sized files. {@link #main} checks that
+ * both give the same trees for every gas file in an install, GasParserTest covers the edge cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GasLoaderBenchmark {
+  @Param({"nodes", "objects"})
+  private String shape;
+
+  @Param({"2000"})
+  private int count;
+
+  private String gas;
+
+  @Setup
+  public void setup() {
+    this.gas = "nodes".equals(this.shape) ? SyntheticGas.nodes(this.count) : SyntheticGas.objects(this.count);
+  }
+
+  @Benchmark
+  public GasEntry parser() {
+    return GasLoader.load(this.gas);
+  }
+
+  @Benchmark
+  public GasEntry stateMachine() {
+    return BacktrackingGasLoader.load(this.gas);
+  }
+
+  /**
+   * Parses every gas file in the install at args[0] with both parsers and reports any whose trees differ
+   */
+  public static void main(final String[] args) throws IOException {
+    final TankManager tankManager = new TankManager(Path.of(args[0]));
+
+    int count = 0;
+    int mismatches = 0;
+    long parserNanos = 0;
+    long stateMachineNanos = 0;
+
+    for(final String filename : tankManager.getFiles()) {
+      if(!filename.endsWith(".gas")) {
+        continue;
+      }
+
+      final String gas = Charset.defaultCharset().decode(tankManager.slice(filename)).toString();
+
+      final long start = System.nanoTime();
+      final GasEntry parsed = GasLoader.load(gas);
+      final long middle = System.nanoTime();
+      final GasEntry expected = BacktrackingGasLoader.load(gas);
+      final long end = System.nanoTime();
+
+      parserNanos += middle - start;
+      stateMachineNanos += end - middle;
+      count++;
+
+      if(!same(expected, parsed)) {
+        System.out.println("Mismatch: " + filename);
+        mismatches++;
+      }
+    }
+
+    System.out.println(count + " gas files, " + mismatches + " mismatches");
+    System.out.println("Parser: " + parserNanos / 1_000_000 + " ms, state machine: " + stateMachineNanos / 1_000_000 + " ms");
+  }
+
+  private static boolean same(final GasEntry expected, final GasEntry actual) {
+    if(expected.children().size() != actual.children().size() || expected.arrayChildren().size() != actual.arrayChildren().size() || expected.values().size() != actual.values().size()) {
+      return false;
+    }
+
+    for(final Map.Entry<String, GasEntry> child : expected.children()) {
+      final GasEntry other = actual.getChild(child.getKey());
+
+      if(other == null || !same(child.getValue(), other)) {
+        return false;
+      }
+    }
+
+    for(final Map.Entry<String, List<GasEntry>> children : expected.arrayChildren()) {
+      final List<GasEntry> others = actual.getArrayChildren(children.getKey());
+
+      if(others == null || others.size() != children.getValue().size()) {
+        return false;
+      }
+
+      for(int i = 0; i < others.size(); i++) {
+        if(!same(children.getValue().get(i), others.get(i))) {
+          return false;
+        }
+      }
+    }
+
+    final Map<String, Object> values = new HashMap<>();
+    for(final Map.Entry<String, Object> value : actual.values()) {
+      values.put(value.getKey(), value.getValue());
+    }
+
+    for(final Map.Entry<String, Object> value : expected.values()) {
+      if(!values.containsKey(value.getKey()) || !Objects.equals(value.getValue(), values.get(value.getKey()))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
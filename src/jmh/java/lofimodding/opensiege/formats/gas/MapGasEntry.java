@@ -0,0 +1,54 @@
+package lofimodding.opensiege.formats.gas;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The three hash map representation {@link GasEntry} used to have, with boxed values and array lists, kept to compare
+ * against
+ */
+final class MapGasEntry {
+  private final Map<String, MapGasEntry> children = new HashMap<>();
+  private final Map<String, List<MapGasEntry>> arrayChildren = new HashMap<>();
+  private final Map<String, Object> values = new HashMap<>();
+
+  /**
+   * Copies an entry the way the parser used to build it, one fresh copy of every key and value
+   */
+  static MapGasEntry copyOf(final GasEntry entry) {
+    final MapGasEntry copy = new MapGasEntry();
+
+    for(final Map.Entry<String, GasEntry> child : entry.children()) {
+      copy.children.put(new String(child.getKey()), copyOf(child.getValue()));
+    }
+
+    for(final Map.Entry<String, List<GasEntry>> children : entry.arrayChildren()) {
+      final List<MapGasEntry> list = new ArrayList<>();
+      for(final GasEntry child : children.getValue()) {
+        list.add(copyOf(child));
+      }
+
+      copy.arrayChildren.put(new String(children.getKey()), list);
+    }
+
+    for(final Map.Entry<String, Object> value : entry.values()) {
+      copy.values.put(new String(value.getKey()), value.getValue() instanceof final List<?> list ? new ArrayList<>(list) : value.getValue());
+    }
+
+    return copy;
+  }
+
+  MapGasEntry getChild(final String key) {
+    return this.children.get(key);
+  }
+
+  List<MapGasEntry> getArrayChildren(final String key) {
+    return this.arrayChildren.get(key);
+  }
+
+  Object get(final String key) {
+    return this.values.get(key);
+  }
+}
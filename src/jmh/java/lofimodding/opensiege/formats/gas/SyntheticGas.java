@@ -0,0 +1,84 @@
+package lofimodding.opensiege.formats.gas;
+
+import java.util.Random;
+
+/**
+ * Writes gas shaped like the files in a retail region
+ */
+final class SyntheticGas {
+  private SyntheticGas() { }
+
+  private static final String[] MESHES = {"t_grs01_floor-04x04", "t_grs01_cliff-08x04", "t_grs01_path-04x04", "t_cav01_wall-02x04"};
+  private static final String[] TEMPLATES = {"tree_grs_oak", "rock_grs_01", "chest_wood", "krug_scout", "gold_small"};
+
+  /**
+   * terrain_nodes/nodes.gas: one block per siege node, each with a list of doors
+   */
+  static String nodes(final int count) {
+    final Random random = new Random(1);
+    final StringBuilder sb = new StringBuilder();
+
+    sb.append("[t:snode_list,n:siege_node_list]\r\n{\r\n");
+    sb.append("\ttargetnode = 0x").append(Integer.toHexString(random.nextInt())).append(";\r\n");
+
+    for(int i = 0; i < count; i++) {
+      final String guid = "0x" + Integer.toHexString(random.nextInt());
+
+      sb.append("\t[t:snode,n:").append(guid).append("]\r\n\t{\r\n");
+      sb.append("\t\tbounds_camera = true;\r\n");
+      sb.append("\t\tcamera_fade = false;\r\n");
+      sb.append("\t\tguid = ").append(guid).append(";\r\n");
+      sb.append("\t\tmesh_guid = 0x").append(Integer.toHexString(random.nextInt(0x10000))).append(";\r\n");
+      sb.append("\t\tnodelevel = ").append(random.nextInt(4)).append(";\r\n");
+      sb.append("\t\tnodeobject = 0;\r\n");
+      sb.append("\t\tnodesection = ").append(random.nextInt(16)).append(";\r\n");
+      sb.append("\t\toccludes_camera = true;\r\n");
+      sb.append("\t\ttexsetabbr = grs01;\r\n");
+      sb.append("\t\t// ").append(MESHES[random.nextInt(MESHES.length)]).append("\r\n");
+
+      final int doors = 1 + random.nextInt(4);
+      for(int door = 0; door < doors; door++) {
+        sb.append("\t\t[door*]\r\n\t\t{\r\n");
+        sb.append("\t\t\tfardoor = ").append(1 + random.nextInt(4)).append(";\r\n");
+        sb.append("\t\t\tfarguid = 0x").append(Integer.toHexString(random.nextInt())).append(";\r\n");
+        sb.append("\t\t\tid = ").append(door + 1).append(";\r\n");
+        sb.append("\t\t}\r\n");
+      }
+
+      sb.append("\t}\r\n");
+    }
+
+    sb.append("}\r\n");
+    return sb.toString();
+  }
+
+  /**
+   * objects/regular/*.gas: one top level block per game object, with positions, typed values and strings
+   */
+  static String objects(final int count) {
+    final Random random = new Random(2);
+    final StringBuilder sb = new StringBuilder();
+
+    for(int i = 0; i < count; i++) {
+      sb.append("[t:").append(TEMPLATES[random.nextInt(TEMPLATES.length)]).append(",n:0x").append(Integer.toHexString(random.nextInt())).append("]\r\n{\r\n");
+      sb.append("\t[placement]\r\n\t{\r\n");
+      sb.append("\t\tf scale_multiplier = ").append(0.5f + random.nextFloat()).append(";\r\n");
+      sb.append("\t\torientation = ").append(random.nextFloat()).append(",0,").append(random.nextFloat()).append(",0;\r\n");
+      sb.append("\t\tposition = ").append(random.nextInt(16)).append('.').append(random.nextInt(1000)).append(",0,-").append(random.nextInt(16)).append('.').append(random.nextInt(1000)).append(",0x").append(Integer.toHexString(random.nextInt())).append(";\r\n");
+      sb.append("\t}\r\n");
+      sb.append("\t[common]\r\n\t{\r\n");
+      sb.append("\t\tscreen_name = \"Object ").append(i).append("\";\r\n");
+      sb.append("\t\tb is_pcontent = ").append(random.nextBoolean()).append(";\r\n");
+      sb.append("\t\ti forced_expiration = ").append(random.nextInt(100)).append(";\r\n");
+      sb.append("\t\tx flags = 0x").append(Integer.toHexString(random.nextInt())).append(";\r\n");
+      sb.append("\t\tspawn_time = ").append(random.nextInt(24)).append('h').append(random.nextInt(60)).append("m;\r\n");
+      sb.append("\t\tmodel = <").append(MESHES[random.nextInt(MESHES.length)]).append(">;\r\n");
+      sb.append("\t\t/* ").append(TEMPLATES[random.nextInt(TEMPLATES.length)]).append(" */\r\n");
+      sb.append("\t\tloot = none;\r\n");
+      sb.append("\t}\r\n");
+      sb.append("}\r\n");
+    }
+
+    return sb.toString();
+  }
+}
@@ -0,0 +1,112 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes uncompressed tanks shaped like the retail ones: a shallow tree of directories, each holding many small files
+ */
+final class SyntheticTank {
+  private SyntheticTank() { }
+
+  private static final int DIR_SET_OFFSET = 0x100;
+
+  /**
+   * @return the path of every file, in index order
+   */
+  static String[] write(final Path path, final int fileCount, final int dirCount) throws IOException {
+    final String[] dirNames = new String[dirCount];
+    for(int dirIndex = 0; dirIndex < dirCount; dirIndex++) {
+      dirNames[dirIndex] = "dir_" + dirIndex;
+    }
+
+    final String[] fileNames = new String[fileCount];
+    final String[] filePaths = new String[fileCount];
+    for(int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+      fileNames[fileIndex] = "file_" + fileIndex + ".gas";
+      filePaths[fileIndex] = '/' + dirNames[fileIndex % dirCount] + '/' + fileNames[fileIndex];
+    }
+
+    // Directory set: the root, then one directory per name under it
+    final int[] dirOffsets = new int[dirCount + 1];
+    int offset = 4 + dirOffsets.length * 4;
+    for(int dirIndex = 0; dirIndex <= dirCount; dirIndex++) {
+      dirOffsets[dirIndex] = offset;
+      offset += 16 + nStringSize(dirIndex == 0 ? "" : dirNames[dirIndex - 1]) + (dirIndex == 0 ? dirCount * 4 : 0);
+    }
+
+    final int dirSetSize = offset;
+    final int fileSetOffset = DIR_SET_OFFSET + dirSetSize;
+
+    final int[] fileOffsets = new int[fileCount];
+    offset = 4 + fileCount * 4;
+    for(int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+      fileOffsets[fileIndex] = offset;
+      offset += 28 + nStringSize(fileNames[fileIndex]);
+    }
+
+    final int dataSetOffset = fileSetOffset + offset;
+    final int dataSize = fileCount * 16;
+
+    final ByteBuffer out = ByteBuffer.allocate(dataSetOffset + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Header
+    out.put("DSig".getBytes(StandardCharsets.US_ASCII)).put("Tank".getBytes(StandardCharsets.US_ASCII));
+    out.putInt(0x10000).putInt(DIR_SET_OFFSET).putInt(fileSetOffset).putInt(dataSetOffset - DIR_SET_OFFSET).putInt(dataSetOffset);
+    out.position(out.position() + 24);
+    out.putShort((short)TankPriority.FACTORY.code);
+
+    out.position(DIR_SET_OFFSET);
+    out.putInt(dirOffsets.length);
+    for(final int dirOffset : dirOffsets) {
+      out.putInt(dirOffset);
+    }
+
+    for(int dirIndex = 0; dirIndex <= dirCount; dirIndex++) {
+      out.putInt(dirIndex == 0 ? 0 : dirOffsets[0]);
+      out.putInt(dirIndex == 0 ? dirCount : 0);
+      out.putLong(0x01c0000000000000L);
+      putNString(out, dirIndex == 0 ? "" : dirNames[dirIndex - 1]);
+
+      if(dirIndex == 0) {
+        for(int childIndex = 1; childIndex <= dirCount; childIndex++) {
+          out.putInt(dirOffsets[childIndex]);
+        }
+      }
+    }
+
+    out.putInt(fileCount);
+    for(final int fileOffset : fileOffsets) {
+      out.putInt(fileOffset);
+    }
+
+    for(int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+      out.putInt(dirOffsets[fileIndex % dirCount + 1]);
+      out.putInt(16);
+      out.putInt(fileIndex * 16);
+      out.putInt(0);
+      out.putLong(0x01d0000000000000L);
+      out.putShort((short)TankFormat.RAW.ordinal());
+      out.putShort((short)TankFlags.NONE.code);
+      putNString(out, fileNames[fileIndex]);
+    }
+
+    Files.write(path, out.array());
+    return filePaths;
+  }
+
+  private static int nStringSize(final String string) {
+    final int length = string.getBytes(StandardCharsets.US_ASCII).length;
+    return length + 2 + 4 - (length + 2) % 4;
+  }
+
+  private static void putNString(final ByteBuffer out, final String string) {
+    final byte[] bytes = string.getBytes(StandardCharsets.US_ASCII);
+    out.putShort((short)bytes.length).put(bytes);
+    out.position(out.position() + 4 - (bytes.length + 2) % 4);
+  }
+}
@@ -0,0 +1,134 @@
+package lofimodding.opensiege.formats.tank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TankDecompressorBenchmark {
+  private static final String[] WORDS = {"[t:snode,n:0x", "]", "{", "}", "guid", "=", "0x0badf00d;", "mesh_name", "t_grs01_", "floor", "nodal_flags", "\n", "\t"};
+
+  @Param({"4096", "65536", "4194304"})
+  private int entrySize;
+
+  @Param({"16384"})
+  private int chunkSize;
+
+  @Param({"ZLIB", "LZO"})
+  private TankFormat format;
+
+  private ByteBuffer source;
+  private TankFileCompressionHeader compression;
+
+  @Setup
+  public void setup() {
+    // Text-like data compresses about as well as real gas and sno content
+    final Random random = new Random(1);
+    final byte[] data = new byte[this.entrySize];
+    for(int i = 0; i < data.length; ) {
+      final byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes();
+      final int length = Math.min(word.length, data.length - i);
+      System.arraycopy(word, 0, data, i, length);
+      i += length;
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final int chunkCount = (this.entrySize + this.chunkSize - 1) / this.chunkSize;
+    final TankChunkHeader[] chunkHeaders = new TankChunkHeader[chunkCount];
+    final byte[] compressed = new byte[Lzo1x.maxCompressedLength(this.chunkSize)];
+
+    for(int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+      final int offset = chunkIndex * this.chunkSize;
+      final int length = Math.min(this.chunkSize, this.entrySize - offset);
+      final int compressedBytes;
+
+      if(this.format == TankFormat.LZO) {
+        compressedBytes = Lzo1x.compress(data, offset, length, compressed, 0);
+      } else {
+        final Deflater deflater = new Deflater();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        compressedBytes = deflater.deflate(compressed);
+        deflater.end();
+      }
+
+      chunkHeaders[chunkIndex] = new TankChunkHeader(length, compressedBytes, 0, out.size());
+      out.write(compressed, 0, compressedBytes);
+    }
+
+    // Direct, like the mapped archive
+    final byte[] bytes = out.toByteArray();
+    this.source = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    this.compression = new TankFileCompressionHeader(bytes.length, this.chunkSize, chunkHeaders);
+  }
+
+  /**
+   * The original extraction: one array per chunk, concatenated at the end. Only meaningful for zlib.
+   */
+  @Benchmark
+  public byte[] chunkCopy() throws DataFormatException, IOException {
+    if(this.format != TankFormat.ZLIB) {
+      return this.serial();
+    }
+
+    final TankChunkHeader[] chunkHeaders = this.compression.chunkHeaders();
+    final byte[][] allData = new byte[chunkHeaders.length][];
+    int totalSize = 0;
+
+    for(int chunkIndex = 0; chunkIndex < chunkHeaders.length; chunkIndex++) {
+      final TankChunkHeader chunkHeader = chunkHeaders[chunkIndex];
+      final byte[] compressedData = new byte[chunkHeader.compressedBytes()];
+      this.source.get(chunkHeader.offset(), compressedData);
+
+      final byte[] uncompressedData = new byte[chunkHeader.uncompressedBytes()];
+      final Inflater inflater = new Inflater();
+      inflater.setInput(compressedData);
+      inflater.inflate(uncompressedData, 0, uncompressedData.length);
+      inflater.end();
+
+      allData[chunkIndex] = uncompressedData;
+      totalSize += uncompressedData.length;
+    }
+
+    final byte[] data = new byte[totalSize];
+    int dataIndex = 0;
+    for(final byte[] chunk : allData) {
+      System.arraycopy(chunk, 0, data, dataIndex, chunk.length);
+      dataIndex += chunk.length;
+    }
+
+    return data;
+  }
+
+  @Benchmark
+  public byte[] serial() throws IOException {
+    return TankDecompressor.decompress("bench", this.format, this.source, this.compression, false);
+  }
+
+  @Benchmark
+  public byte[] parallel() throws IOException {
+    return TankDecompressor.decompress("bench", this.format, this.source, this.compression, true);
+  }
+}
@@ -0,0 +1,69 @@
+package lofimodding.opensiege.formats.tank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TankLoaderBenchmark {
+  @Param({"100000"})
+  private int fileCount;
+
+  @Param({"500"})
+  private int dirCount;
+
+  private Path dir;
+  private Path tank;
+  private Path indexCache;
+
+  @Setup
+  public void setup() throws IOException {
+    this.dir = Files.createTempDirectory("tank-loader-bench");
+    this.tank = this.dir.resolve("synthetic.dsres");
+    this.indexCache = this.dir.resolve("index");
+    SyntheticTank.write(this.tank, this.fileCount, this.dirCount);
+
+    // Prime the sidecar for the cached benchmark
+    TankLoader.load(this.tank, this.indexCache);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    try(final Stream<Path> files = Files.walk(this.dir)) {
+      for(final Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public Tank parse() throws IOException {
+    return TankLoader.load(this.tank);
+  }
+
+  @Benchmark
+  public Tank indexCache() throws IOException {
+    return TankLoader.load(this.tank, this.indexCache);
+  }
+}
@@ -0,0 +1,186 @@
+package lofimodding.opensiege.formats.tank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Path lookups should not allocate, run with the gc profiler. {@link #main} compares the heap held by the trie with
+ * the maps it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TankPathTrieBenchmark {
+  @Param({"100000"})
+  private int fileCount;
+
+  @Param({"500"})
+  private int dirCount;
+
+  private Path dir;
+  private TankManager tankManager;
+  private String[] paths;
+  private String[] names;
+  private String[] dirs;
+  private int index;
+
+  @Setup
+  public void setup() throws IOException {
+    this.dir = Files.createTempDirectory("tank-path-bench");
+    Files.createDirectories(this.dir.resolve("Resources"));
+    Files.createDirectories(this.dir.resolve("Maps"));
+    this.paths = SyntheticTank.write(this.dir.resolve("Resources").resolve("synthetic.dsres"), this.fileCount, this.dirCount);
+    this.tankManager = new TankManager(this.dir, 0, null);
+
+    // Mixed case, the way gas files tend to refer to each other
+    this.names = new String[this.paths.length];
+    this.dirs = new String[this.paths.length];
+    for(int i = 0; i < this.paths.length; i++) {
+      this.paths[i] = this.paths[i].toUpperCase();
+      this.names[i] = this.paths[i].substring(this.paths[i].lastIndexOf('/') + 1);
+      this.dirs[i] = this.paths[i].substring(0, this.paths[i].lastIndexOf('/'));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    try(final Stream<Path> files = Files.walk(this.dir)) {
+      for(final Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private int next() {
+    final int index = this.index;
+    this.index = index + 1 == this.paths.length ? 0 : index + 1;
+    return index;
+  }
+
+  @Benchmark
+  public boolean isFile() {
+    return this.tankManager.isFile(this.paths[this.next()]);
+  }
+
+  @Benchmark
+  public boolean isDir() {
+    return this.tankManager.isDir(this.dirs[this.next()]);
+  }
+
+  @Benchmark
+  public Set<String> getChildren() {
+    return this.tankManager.getChildren(this.dirs[this.next()]);
+  }
+
+  @Benchmark
+  public String lookupPath() {
+    return this.tankManager.lookupPath(this.names[this.next()]);
+  }
+
+  /**
+   * Retained heap of the trie against the four structures TankManager used to build, for one synthetic tank
+   */
+  public static void main(final String[] args) throws IOException {
+    final int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    final int dirCount = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+    final Path tankPath = Files.createTempFile("tank-path-footprint", ".dsres");
+    try {
+      SyntheticTank.write(tankPath, fileCount, dirCount);
+      final Tank tank = TankLoader.load(tankPath);
+      final List<Tank> tanks = List.of(tank);
+
+      final long base = usedHeap();
+      final Object maps = buildMaps(tanks);
+      final long mapsHeap = usedHeap() - base;
+
+      final long trieBase = usedHeap();
+      final Object trie = TankPathTrie.build(tanks);
+      final long trieHeap = usedHeap() - trieBase;
+
+      System.out.println(fileCount + " files in " + dirCount + " directories");
+      System.out.println("Maps: " + mapsHeap / 1024 + " KiB");
+      System.out.println("Trie: " + trieHeap / 1024 + " KiB");
+
+      // Keep both alive until they've been measured
+      System.out.println(maps.hashCode() != 0 && trie.hashCode() != 0 ? "" : " ");
+    } finally {
+      Files.delete(tankPath);
+    }
+  }
+
+  /**
+   * The paths, files, dirs and directory tree TankManager used to keep
+   */
+  private static Object buildMaps(final List<Tank> tanks) {
+    final Map<String, Tank> paths = new HashMap<>();
+    final Map<String, String> files = new HashMap<>();
+    final Set<String> dirs = new HashSet<>();
+    final Directory root = new Directory();
+
+    for(final Tank tank : tanks) {
+      for(final String path : tank.filePaths().keySet()) {
+        final String[] pathParts = path.substring(1).split("/");
+
+        Directory dir = root;
+        for(int i = 0; i < pathParts.length - 1; i++) {
+          dir = dir.directories.computeIfAbsent(pathParts[i], key -> new Directory());
+        }
+
+        dir.files.put(pathParts[pathParts.length - 1].toLowerCase(), tank);
+        files.put(pathParts[pathParts.length - 1].toLowerCase(), path);
+
+        paths.put(path.toLowerCase(), tank);
+      }
+
+      dirs.addAll(tank.directoryPaths().keySet());
+    }
+
+    final List<Object> all = new ArrayList<>();
+    all.add(paths);
+    all.add(files);
+    all.add(dirs);
+    all.add(root);
+    return all;
+  }
+
+  private static long usedHeap() {
+    for(int i = 0; i < 4; i++) {
+      System.gc();
+    }
+
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  private static final class Directory {
+    private final Map<String, Directory> directories = new HashMap<>();
+    private final Map<String, Tank> files = new HashMap<>();
+  }
+}
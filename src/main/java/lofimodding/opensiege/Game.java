@@ -1,6 +1,7 @@
 package lofimodding.opensiege;
 
 import lofimodding.opensiege.formats.gas.GasLoader;
+import lofimodding.opensiege.formats.tank.TankFileSystem;
 import lofimodding.opensiege.gfx.Context;
 import lofimodding.opensiege.gfx.MatrixStack;
 import lofimodding.opensiege.gfx.QuaternionCamera;
@@ -13,9 +14,10 @@ import org.lwjgl.BufferUtils;
 
 import java.io.IOException;
 import java.nio.FloatBuffer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Stream;
 
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_A;
@@ -88,17 +90,18 @@ public class Game {
     final Path mapPath = tankRoot.resolve("world").resolve("maps").resolve(map.getName());
     final Path regionPath = mapPath.resolve("regions").resolve(regionId);
 
-    goDb.addObject(GasLoader.load(regionPath.resolve("main.gas")));
-    goDb.addObject(GasLoader.load(regionPath.resolve("terrain_nodes").resolve("nodes.gas")));
+    // Parse the region and all siege nodes together, then add them in order
+    final List<Path> gasFiles = new ArrayList<>();
+    gasFiles.add(regionPath.resolve("main.gas"));
+    gasFiles.add(regionPath.resolve("terrain_nodes").resolve("nodes.gas"));
 
-    // Load all siege nodes
-    try(final Stream<Path> nodeStream = Files.walk(tankRoot.resolve("world").resolve("global").resolve("siege_nodes"))) {
-      nodeStream
-        .filter(path -> Files.isRegularFile(path) && path.toString().endsWith(".gas"))
-        .map(GasLoader::load)
-        .forEach(goDb::addObject);
+    final TankFileSystem tankFileSystem = (TankFileSystem)tankRoot.getFileSystem();
+    try(final Stream<Path> nodeStream = tankFileSystem.walk(tankRoot.resolve("world").resolve("global").resolve("siege_nodes"), "**/*.gas")) {
+      nodeStream.forEach(gasFiles::add);
     }
 
+    GasLoader.loadAll(gasFiles).values().forEach(goDb::addObject);
+
     final FloatBuffer identityBuffer = BufferUtils.createFloatBuffer(4 * 4);
     new Matrix4f().get(identityBuffer);
     this.transforms2 = new Shader.UniformBuffer((long)identityBuffer.capacity() * Float.BYTES, Shader.UniformBuffer.TRANSFORM2);
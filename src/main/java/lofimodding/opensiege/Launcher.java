@@ -15,6 +15,7 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -59,15 +60,21 @@ public final class Launcher {
 
     System.out.println("Searching for maps...");
 
+    final List<Path> mainFiles = new ArrayList<>();
     try(final DirectoryStream<Path> ds = Files.newDirectoryStream(p.resolve("world/maps"), Files::isDirectory)) {
       for(final Path child : ds) {
-        final GasEntry root = GasLoader.load(child.resolve("main.gas"));
-        final GasEntry data = root.getChild("t:map,n:map");
-        maps.put(child.getFileName().toString(), data.getString("screen_name") + " - " + data.getString("description"));
-        mapGas.put(child.getFileName().toString(), root);
+        mainFiles.add(child.resolve("main.gas"));
       }
     }
 
+    for(final Map.Entry<Path, GasEntry> entry : GasLoader.loadAll(mainFiles).entrySet()) {
+      final String mapName = entry.getKey().getParent().getFileName().toString();
+      final GasEntry root = entry.getValue();
+      final GasEntry data = root.getChild("t:map,n:map");
+      maps.put(mapName, data.getString("screen_name") + " - " + data.getString("description"));
+      mapGas.put(mapName, root);
+    }
+
     System.out.println();
     System.out.println("---------------------------------------------");
 
@@ -139,14 +146,17 @@ public final class Launcher {
     String regionId = null;
 
     // Find the starting region based on camera location
+    final List<Path> indexFiles = new ArrayList<>();
     try(final DirectoryStream<Path> nodeStream = Files.newDirectoryStream(mapPath.resolve("regions"), Files::isDirectory)) {
       for(final Path region : nodeStream) {
-        final GasEntry nodes = GasLoader.load(region.resolve("index").resolve("streamer_node_index.gas"));
+        indexFiles.add(region.resolve("index").resolve("streamer_node_index.gas"));
+      }
+    }
 
-        final List<Integer> nodeGuids = (List<Integer>)nodes.getChild("streamer_node_index").get("");
-        if(nodeGuids.contains(startPosition.getPosition().getNodeId())) {
-          regionId = region.getFileName().toString();
-        }
+    for(final Map.Entry<Path, GasEntry> entry : GasLoader.loadAll(indexFiles).entrySet()) {
+      final List<Integer> nodeGuids = (List<Integer>)entry.getValue().getChild("streamer_node_index").get("");
+      if(nodeGuids.contains(startPosition.getPosition().getNodeId())) {
+        regionId = entry.getKey().getParent().getParent().getFileName().toString();
       }
     }
 
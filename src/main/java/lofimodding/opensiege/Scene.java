@@ -6,6 +6,7 @@ import lofimodding.opensiege.formats.siegenode.Sno;
 import lofimodding.opensiege.formats.siegenode.SnoDoor;
 import lofimodding.opensiege.formats.siegenode.SnoLoader;
 import lofimodding.opensiege.formats.siegenode.SnoRenderer;
+import lofimodding.opensiege.formats.tank.TankFileSystem;
 import lofimodding.opensiege.gfx.MatrixStack;
 import lofimodding.opensiege.gfx.Shader;
 import lofimodding.opensiege.gfx.Texture;
@@ -17,6 +18,7 @@ import org.lwjgl.BufferUtils;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -68,7 +70,7 @@ public class Scene {
     final Path meshSno = this.root.resolveSibling(meshFile + ".sno");
     final Sno sno;
     try {
-      sno = SnoLoader.load(Files.newInputStream(meshSno), snode.getTexSetAbbr());
+      sno = SnoLoader.load(meshSno.getFileSystem() instanceof final TankFileSystem tanks ? tanks.slice(meshSno) : ByteBuffer.wrap(Files.readAllBytes(meshSno)), snode.getTexSetAbbr());
     } catch(final IOException e) {
       throw new RuntimeException(e);
     }
@@ -1,39 +1,47 @@
 package lofimodding.opensiege;
 
+import lofimodding.opensiege.formats.tank.TankGrep;
 import lofimodding.opensiege.formats.tank.TankManager;
+import lofimodding.opensiege.formats.tank.TankTrigramIndex;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Searches text files through a trigram index, or greps every file for each match's line when the first argument
+ * is <code>--all</code>
+ */
 public final class TankSearcher {
   private TankSearcher() { }
 
   public static void main(final String[] args) throws IOException {
     final TankManager tankManager = new TankManager(Paths.get("C:", "Program Files (x86)", "Steam", "steamapps", "common", "Dungeon Siege 1"));
 
-    final List<String> refs = new ArrayList<>();
+    final boolean all = args.length != 0 && "--all".equals(args[0]);
+    final String search = String.join(" ", all ? Arrays.copyOfRange(args, 1, args.length) : args);
 
-    final String search = String.join(" ", args).toLowerCase();
+    final long start = System.nanoTime();
+    final List<?> refs;
 
-    tankManager.getFiles().parallelStream().forEach(filename -> {
-      if(filename.endsWith(".lqd20")) {
-        return;
-      }
-
-      try {
-        final String data = new String(tankManager.getFileByPath(filename));
-
-        if(data.toLowerCase().contains(search)) {
-          refs.add(filename);
+    if(all) {
+      final List<String> files = new ArrayList<>();
+      for(final String filename : tankManager.getFiles()) {
+        if(!filename.endsWith(".lqd20")) {
+          files.add(filename);
         }
-      } catch(final IOException e) {
-        throw new RuntimeException(e);
       }
-    });
 
-    System.out.println("Search: " + search);
+      refs = new TankGrep(search).search(tankManager, files);
+    } else {
+      final Path indexDir = Paths.get(System.getProperty("java.io.tmpdir"), "opensiege", "search-index");
+      refs = TankTrigramIndex.open(tankManager, indexDir).search(search);
+    }
+
+    System.out.println("Search: " + search + " (" + (System.nanoTime() - start) / 1000000 + "ms)");
     System.out.println("Found:");
     refs.forEach(System.out::println);
   }
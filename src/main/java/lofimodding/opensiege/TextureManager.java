@@ -2,6 +2,7 @@ package lofimodding.opensiege;
 
 import lofimodding.opensiege.formats.raw.RawTexture;
 import lofimodding.opensiege.formats.raw.RawTextureLoader;
+import lofimodding.opensiege.formats.tank.TankFileSystem;
 import lofimodding.opensiege.gfx.Texture;
 import org.lwjgl.BufferUtils;
 
@@ -23,6 +24,8 @@ public class TextureManager {
 
   //TODO remove textures from cache after x seconds
   private final Map<String, Texture> cache = new HashMap<>();
+  /** Textures by content, so that identical files in different tanks or paths are only uploaded once */
+  private final Map<String, Texture> contentCache = new HashMap<>();
 
   public TextureManager(final Path root) {
     this.root = root;
@@ -35,15 +38,23 @@ public class TextureManager {
       return existing;
     }
 
+    final Path path = this.root.resolveSibling(name + ".raw");
+    final String contentKey = path.getFileSystem() instanceof final TankFileSystem tanks ? tanks.getContentKey(path) : null;
+
+    if(contentKey != null) {
+      final Texture shared = this.contentCache.get(contentKey);
+
+      if(shared != null) {
+        this.cache.put(name, shared);
+        return shared;
+      }
+    }
+
     try {
-      final RawTexture raw = RawTextureLoader.load(Files.newInputStream(this.root.resolveSibling(name + ".raw")));
+      final RawTexture raw = RawTextureLoader.load(path.getFileSystem() instanceof final TankFileSystem tanks ? tanks.slice(path) : ByteBuffer.wrap(Files.readAllBytes(path)));
 
       final Texture texture = Texture.create(builder -> {
-        final ByteBuffer buffer = BufferUtils.createByteBuffer(raw.data()[0].length);
-        buffer.put(raw.data()[0]);
-        buffer.flip();
-
-        builder.data(buffer, raw.header().width(), raw.header().height());
+        builder.data(direct(raw.data()[0]), raw.header().width(), raw.header().height());
         builder.dataFormat(GL_BGRA);
         builder.dataType(GL_UNSIGNED_BYTE);
         builder.minFilter(GL_LINEAR_MIPMAP_LINEAR);
@@ -51,12 +62,8 @@ public class TextureManager {
         for(int i = 1; i < raw.header().surfaceCount(); i++) {
           final int finalI = i;
           builder.mipmap(i, mipmap -> {
-            final ByteBuffer mipBuffer = BufferUtils.createByteBuffer(raw.data()[finalI].length);
-            mipBuffer.put(raw.data()[finalI]);
-            mipBuffer.flip();
-
             final int divisor = 1 << finalI;
-            mipmap.data(mipBuffer, raw.header().width() / divisor, raw.header().height() / divisor);
+            mipmap.data(direct(raw.data()[finalI]), raw.header().width() / divisor, raw.header().height() / divisor);
             mipmap.dataFormat(GL_BGRA);
             mipmap.dataType(GL_UNSIGNED_BYTE);
           });
@@ -64,6 +71,11 @@ public class TextureManager {
       });
 
       this.cache.put(name, texture);
+
+      if(contentKey != null) {
+        this.contentCache.put(contentKey, texture);
+      }
+
       return texture;
     } catch(final IOException e) {
       System.err.println("Failed to load texture " + name + " - " + e.getLocalizedMessage());
@@ -73,4 +85,15 @@ public class TextureManager {
       return texture;
     }
   }
+
+  /**
+   * Surfaces sliced from a stored entry are already direct and are uploaded in place, anything else is copied
+   */
+  private static ByteBuffer direct(final ByteBuffer data) {
+    if(data.isDirect()) {
+      return data;
+    }
+
+    return BufferUtils.createByteBuffer(data.remaining()).put(data.duplicate()).flip();
+  }
 }
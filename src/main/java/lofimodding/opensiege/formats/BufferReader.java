@@ -0,0 +1,237 @@
+package lofimodding.opensiege.formats;
+
+import org.joml.Matrix3f;
+import org.joml.Quaternionf;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.joml.Vector4f;
+import org.joml.Vector4i;
+
+import java.io.EOFException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Little-endian cursor over a buffer, the {@link ByteBuffer} counterpart of {@link StreamReader}. Reads come
+ * straight out of the buffer, so a file sliced from a tank is parsed without being copied, and runs of floats or
+ * ints are read in one bulk get.
+ *
+ * <p>Reading single values past the end throws {@link BufferUnderflowException}, bulk reads throw
+ * {@link EOFException}.</p>
+ */
+public final class BufferReader {
+  private final ByteBuffer data;
+
+  /**
+   * Reads from the buffer's position to its limit, the buffer itself is left untouched
+   */
+  public BufferReader(final ByteBuffer data) {
+    this.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public int position() {
+    return this.data.position();
+  }
+
+  public int remaining() {
+    return this.data.remaining();
+  }
+
+  public boolean hasRemaining() {
+    return this.data.hasRemaining();
+  }
+
+  public void skip(final int bytes) throws EOFException {
+    this.ensure(bytes);
+    this.data.position(this.data.position() + bytes);
+  }
+
+  /**
+   * Does not exception if there isn't enough data
+   */
+  public String read4cc() {
+    if(this.data.remaining() < 4) {
+      this.data.position(this.data.limit());
+      return "";
+    }
+
+    return this.readString(4);
+  }
+
+  public String readString(final int length) {
+    final byte[] raw = new byte[length];
+    this.data.get(raw);
+    return new String(raw);
+  }
+
+  public String readCString() throws EOFException {
+    final int start = this.data.position();
+    final int limit = this.data.limit();
+
+    int end = start;
+    while(end < limit && this.data.get(end) != 0) {
+      end++;
+    }
+
+    if(end == limit) {
+      throw new EOFException("Unterminated string");
+    }
+
+    // One byte per char, like StreamReader
+    final byte[] raw = new byte[end - start];
+    this.data.get(start, raw);
+    this.data.position(end + 1);
+    return new String(raw, StandardCharsets.ISO_8859_1);
+  }
+
+  public int readByte() {
+    return this.data.get() & 0xff;
+  }
+
+  public int readInt16() {
+    return this.data.getShort() & 0xffff;
+  }
+
+  public int readInt() {
+    return this.data.getInt();
+  }
+
+  public long readLong() {
+    return this.data.getLong();
+  }
+
+  public float readFloat() {
+    return this.data.getFloat();
+  }
+
+  /**
+   * @return a little-endian view of the next bytes, sharing the underlying data
+   */
+  public ByteBuffer readBytes(final int length) throws EOFException {
+    this.ensure(length);
+    final ByteBuffer slice = this.data.slice(this.data.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+    this.data.position(this.data.position() + length);
+    return slice;
+  }
+
+  /**
+   * Fills the array with the next floats in one bulk get
+   */
+  public void getFloats(final float[] dst) throws EOFException {
+    this.getFloats(dst, 0, dst.length);
+  }
+
+  public void getFloats(final float[] dst, final int offset, final int length) throws EOFException {
+    this.ensure((long)length * Float.BYTES);
+    this.data.asFloatBuffer().get(dst, offset, length);
+    this.data.position(this.data.position() + length * Float.BYTES);
+  }
+
+  /**
+   * Fills the array with the next ints in one bulk get
+   */
+  public void getInts(final int[] dst) throws EOFException {
+    this.ensure((long)dst.length * Integer.BYTES);
+    this.data.asIntBuffer().get(dst);
+    this.data.position(this.data.position() + dst.length * Integer.BYTES);
+  }
+
+  /**
+   * Fills the array with the next shorts in one bulk get
+   */
+  public void getShorts(final short[] dst) throws EOFException {
+    this.ensure((long)dst.length * Short.BYTES);
+    this.data.asShortBuffer().get(dst);
+    this.data.position(this.data.position() + dst.length * Short.BYTES);
+  }
+
+  /**
+   * Reads count groups of width floats in one bulk get. The count is checked against what's left before the array is
+   * allocated, so a corrupt count throws {@link EOFException} rather than wrapping around or running out of memory.
+   */
+  public float[] readFloats(final int count, final int width) throws EOFException {
+    this.ensureItems(count, width * Float.BYTES);
+    final float[] dst = new float[count * width];
+    this.getFloats(dst);
+    return dst;
+  }
+
+  /**
+   * Reads count ints, see {@link #readInts(int, int)}
+   */
+  public int[] readInts(final int count) throws EOFException {
+    return this.readInts(count, 1);
+  }
+
+  /**
+   * Reads count groups of width ints in one bulk get, with the count checked first like {@link #readFloats}
+   */
+  public int[] readInts(final int count, final int width) throws EOFException {
+    this.ensureItems(count, width * Integer.BYTES);
+    final int[] dst = new int[count * width];
+    this.getInts(dst);
+    return dst;
+  }
+
+  /**
+   * Reads count groups of width shorts in one bulk get, with the count checked first like {@link #readFloats}
+   */
+  public short[] readShorts(final int count, final int width) throws EOFException {
+    this.ensureItems(count, width * Short.BYTES);
+    final short[] dst = new short[count * width];
+    this.getShorts(dst);
+    return dst;
+  }
+
+  public Vector2f readVec2() {
+    return new Vector2f(this.readFloat(), this.readFloat());
+  }
+
+  public Vector3f readVec3() {
+    return new Vector3f(this.readFloat(), this.readFloat(), this.readFloat());
+  }
+
+  public Vector3i readVec3i() {
+    return new Vector3i(this.readInt(), this.readInt(), this.readInt());
+  }
+
+  public Vector3i readVec3s() {
+    return new Vector3i(this.readInt16(), this.readInt16(), this.readInt16());
+  }
+
+  public Vector4f readVec4() {
+    return new Vector4f(this.readFloat(), this.readFloat(), this.readFloat(), this.readFloat());
+  }
+
+  public Vector4i readVec4b() {
+    return new Vector4i(this.readByte(), this.readByte(), this.readByte(), this.readByte());
+  }
+
+  public Quaternionf readQuat() {
+    return new Quaternionf(this.readFloat(), this.readFloat(), this.readFloat(), this.readFloat());
+  }
+
+  public Matrix3f readMat3() throws EOFException {
+    final float[] values = new float[9];
+    this.getFloats(values);
+    return new Matrix3f().set(values);
+  }
+
+  private void ensure(final long bytes) throws EOFException {
+    if(bytes < 0 || bytes > this.data.remaining()) {
+      throw new EOFException("End of file reached");
+    }
+  }
+
+  /**
+   * Checks that count items of itemBytes each are left, without multiplying them out
+   */
+  private void ensureItems(final int count, final int itemBytes) throws EOFException {
+    if(count < 0 || count > this.data.remaining() / itemBytes) {
+      throw new EOFException("End of file reached");
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package lofimodding.opensiege.formats.aspect;
 
+import lofimodding.opensiege.formats.BufferReader;
 import lofimodding.opensiege.gfx.Mesh;
 import org.joml.Quaternionf;
 import org.joml.Vector2f;
@@ -8,29 +9,32 @@ import org.joml.Vector3i;
 import org.joml.Vector4f;
 import org.joml.Vector4i;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static lofimodding.opensiege.formats.StreamReader.read4cc;
-import static lofimodding.opensiege.formats.StreamReader.readInt;
-import static lofimodding.opensiege.formats.StreamReader.readQuat;
-import static lofimodding.opensiege.formats.StreamReader.readString;
-import static lofimodding.opensiege.formats.StreamReader.readVec2;
-import static lofimodding.opensiege.formats.StreamReader.readVec3;
-import static lofimodding.opensiege.formats.StreamReader.readVec3i;
-import static lofimodding.opensiege.formats.StreamReader.readVec4;
-import static lofimodding.opensiege.formats.StreamReader.readVec4b;
 import static org.lwjgl.opengl.GL11C.GL_TRIANGLES;
 
 public final class AspectLoader {
   private AspectLoader() { }
 
-  public static Aspect load(final InputStream file) throws IOException {
+  public static Aspect load(final ByteBuffer data) throws IOException {
+    final BufferReader file = new BufferReader(data);
+
+    try {
+      return load(file);
+    } catch(final BufferUnderflowException e) {
+      throw new EOFException("End of file reached");
+    }
+  }
+
+  private static Aspect load(final BufferReader file) throws IOException {
     AspectBmsh bmsh = null;
     AspectBsub currentBsub = null;
     final List<AspectBonh> bonhs = new ArrayList<>();
@@ -45,11 +49,11 @@ public final class AspectLoader {
     final List<AspectStch> stchs = new ArrayList<>();
     final List<AspectRpos> rposs = new ArrayList<>();
 
-    for(String chunkId = read4cc(file); !chunkId.isEmpty(); chunkId = read4cc(file)) {
+    for(String chunkId = file.read4cc(); !chunkId.isEmpty(); chunkId = file.read4cc()) {
       switch(chunkId) {
         case "BMSH" -> {
           if(bmsh != null) {
-            throw new IOException("Multiple bmsh definitions in " + file);
+            throw new IOException("Multiple bmsh definitions");
           }
 
           bmsh = readBmsh(file);
@@ -172,22 +176,22 @@ public final class AspectLoader {
     return new Aspect(Arrays.asList(bmsh.textures()), meshes);
   }
 
-  private static AspectBmsh readBmsh(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static AspectBmsh readBmsh(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
-    final int textFieldSize = readInt(file);
-    final int boneCount = readInt(file);
-    final int textureCount = readInt(file);
+    final int textFieldSize = file.readInt();
+    final int boneCount = file.readInt();
+    final int textureCount = file.readInt();
 
     if(textureCount > 16) {
       throw new IOException("Only 16 textures per mesh currently supported");
     }
 
-    final int vertexCount = readInt(file);
-    final int submeshCount = readInt(file);
-    final int renderFlags = readInt(file);
+    final int vertexCount = file.readInt();
+    final int submeshCount = file.readInt();
+    final int renderFlags = file.readInt();
 
-    final String[] rawText = readString(file, textFieldSize).split("\0+");
+    final String[] rawText = file.readString(textFieldSize).split("\0+");
 
     final String[] textures = new String[textureCount];
     System.arraycopy(rawText, 0, textures, 0, textureCount);
@@ -198,14 +202,14 @@ public final class AspectLoader {
     return new AspectBmsh(version, textures, bones, vertexCount, submeshCount, renderFlags);
   }
 
-  private static List<AspectBonh> readBonh(final InputStream file, final AspectBmsh bmsh) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectBonh> readBonh(final BufferReader file, final AspectBmsh bmsh) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectBonh> bones = new ArrayList<>();
     for(int boneIndex = 0; boneIndex < bmsh.bones().length; boneIndex++) {
-      final int index = readInt(file);
-      final int parent = readInt(file);
-      final int flags = readInt(file);
+      final int index = file.readInt();
+      final int parent = file.readInt();
+      final int flags = file.readInt();
 
       bones.add(new AspectBonh(version, index, parent, flags));
     }
@@ -213,77 +217,77 @@ public final class AspectLoader {
     return bones;
   }
 
-  private static AspectBsub readBsub(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static AspectBsub readBsub(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final int submeshIndex;
     if(version.normalized > 40) {
-      submeshIndex = readInt(file);
+      submeshIndex = file.readInt();
     } else {
-      submeshIndex = readInt(file) + 1;
+      submeshIndex = file.readInt() + 1;
     }
 
-    final int textureCount = readInt(file);
-    final int vertexCount = readInt(file);
-    final int cornerCount = readInt(file);
-    final int faceCount = readInt(file);
+    final int textureCount = file.readInt();
+    final int vertexCount = file.readInt();
+    final int cornerCount = file.readInt();
+    final int faceCount = file.readInt();
 
     return new AspectBsub(version, submeshIndex, textureCount, vertexCount, cornerCount, faceCount);
   }
 
-  private static List<AspectBsmm> readBsmm(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectBsmm> readBsmm(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectBsmm> bsmm = new ArrayList<>();
-    final int textureCount = readInt(file);
+    final int textureCount = file.readInt();
     for(int i = 0; i < textureCount; i++) {
-      final int textureIndex = readInt(file);
-      final int faceSpan = readInt(file);
+      final int textureIndex = file.readInt();
+      final int faceSpan = file.readInt();
       bsmm.add(new AspectBsmm(version, textureIndex, faceSpan));
     }
 
     return bsmm;
   }
 
-  private static List<AspectBvtx> readBvtx(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectBvtx> readBvtx(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
-    final List<AspectBvtx> bvtx = new ArrayList<>();
-    final int vertexCount = readInt(file);
-    for(int i = 0; i < vertexCount; i++) {
-      final Vector3f pos = readVec3(file);
-      bvtx.add(new AspectBvtx(version, pos));
+    final float[] positions = file.readFloats(file.readInt(), 3);
+
+    final List<AspectBvtx> bvtx = new ArrayList<>(positions.length / 3);
+    for(int i = 0; i < positions.length; i += 3) {
+      bvtx.add(new AspectBvtx(version, new Vector3f(positions[i], positions[i + 1], positions[i + 2])));
     }
 
     return bvtx;
   }
 
-  private static List<AspectBcrn> readBcrn(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectBcrn> readBcrn(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectBcrn> bcrn = new ArrayList<>();
-    final int cornerCount = readInt(file);
+    final int cornerCount = file.readInt();
     for(int i = 0; i < cornerCount; i++) {
-      final int vertexIndex = readInt(file);
-      final Vector3f normal = readVec3(file);
-      final int colour = readInt(file);
-      readInt(file); // unused
-      final Vector2f uv = readVec2(file);
+      final int vertexIndex = file.readInt();
+      final Vector3f normal = file.readVec3();
+      final int colour = file.readInt();
+      file.readInt(); // unused
+      final Vector2f uv = file.readVec2();
       bcrn.add(new AspectBcrn(version, vertexIndex, normal, colour, uv));
     }
 
     return bcrn;
   }
 
-  private static List<AspectWcrn> readWcrn(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectWcrn> readWcrn(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectWcrn> wcrn = new ArrayList<>();
-    final int cornerCount = readInt(file);
+    final int cornerCount = file.readInt();
     for(int i = 0; i < cornerCount; i++) {
-      final Vector3f pos = readVec3(file);
-      final Vector4f weight = readVec4(file);
-      final Vector4i bone = readVec4b(file);
+      final Vector3f pos = file.readVec3();
+      final Vector4f weight = file.readVec4();
+      final Vector4i bone = file.readVec4b();
 
       if(version.normalized > 40) {
         bone.x++;
@@ -292,9 +296,9 @@ public final class AspectLoader {
         bone.w++;
       }
 
-      final Vector3f normal = readVec3(file);
-      final Vector4i colour = readVec4b(file);
-      final Vector2f uv = readVec2(file);
+      final Vector3f normal = file.readVec3();
+      final Vector4i colour = file.readVec4b();
+      final Vector2f uv = file.readVec2();
 
       //TODO remove null bone/weights? See import script line#347
 
@@ -304,16 +308,15 @@ public final class AspectLoader {
     return wcrn;
   }
 
-  private static List<AspectBvmp> readBvmp(final InputStream file, final AspectBsub bsub) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectBvmp> readBvmp(final BufferReader file, final AspectBsub bsub) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectBvmp> bvmp = new ArrayList<>();
     for(int vertexIndex = 0; vertexIndex < bsub.vertexCount(); vertexIndex++) {
-      final int count = readInt(file);
-      final int[] indices = new int[count];
+      final int[] indices = file.readInts(file.readInt());
 
-      for(int cornerIndex = 0; cornerIndex < count; cornerIndex++) {
-        indices[cornerIndex] = readInt(file) + 1;
+      for(int cornerIndex = 0; cornerIndex < indices.length; cornerIndex++) {
+        indices[cornerIndex]++;
       }
 
       bvmp.add(new AspectBvmp(version, indices));
@@ -322,10 +325,10 @@ public final class AspectLoader {
     return bvmp;
   }
 
-  private static AspectBtri readBtri(final InputStream file, final AspectBsub bsub) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static AspectBtri readBtri(final BufferReader file, final AspectBsub bsub) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
-    final int faceCount = readInt(file);
+    final int faceCount = file.readInt();
 
     final int[] cornerStarts = new int[bsub.subTextures()];
     final int[] cornerSpans = new int[bsub.subTextures()];
@@ -333,11 +336,11 @@ public final class AspectLoader {
     if(version.normalized < 22) {
       for(int textureIndex = 0; textureIndex < bsub.subTextures(); textureIndex++) {
         cornerStarts[textureIndex] = 0;
-        cornerSpans[textureIndex] = readInt(file);
+        cornerSpans[textureIndex] = file.readInt();
       }
     } else if(version.normalized == 22) {
       for(int textureIndex = 0; textureIndex < bsub.subTextures(); textureIndex++) {
-        cornerSpans[textureIndex] = readInt(file);
+        cornerSpans[textureIndex] = file.readInt();
       }
 
       for(int textureIndex = 0; textureIndex < bsub.subTextures() - 1; textureIndex++) {
@@ -345,32 +348,35 @@ public final class AspectLoader {
       }
     } else {
       for(int textureIndex = 0; textureIndex < bsub.subTextures(); textureIndex++) {
-        cornerStarts[textureIndex] = readInt(file);
-        cornerSpans[textureIndex] = readInt(file);
+        cornerStarts[textureIndex] = file.readInt();
+        cornerSpans[textureIndex] = file.readInt();
       }
     }
 
+    final int[] faces = file.readInts(faceCount, 3);
+
     final Vector3i[] cornerIndices = new Vector3i[faceCount];
     for(int faceIndex = 0; faceIndex < faceCount; faceIndex++) {
-      cornerIndices[faceIndex] = readVec3i(file);
+      cornerIndices[faceIndex] = new Vector3i(faces[faceIndex * 3], faces[faceIndex * 3 + 1], faces[faceIndex * 3 + 2]);
     }
 
     return new AspectBtri(version, cornerStarts, cornerSpans, cornerIndices);
   }
 
-  private static List<AspectBvwl> readBvwl(final InputStream file, final AspectBmsh bmsh) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectBvwl> readBvwl(final BufferReader file, final AspectBmsh bmsh) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectBvwl> bvwl = new ArrayList<>();
     for(int boneIndex = 0; boneIndex < bmsh.bones().length; boneIndex++) {
-      final int count = readInt(file);
+      // Pairs of corner ID and weight
+      final int[] pairs = file.readInts(file.readInt(), 2);
 
-      final int[] cornerIds = new int[count];
-      final int[] cornerWeights = new int[count];
+      final int[] cornerIds = new int[pairs.length / 2];
+      final int[] cornerWeights = new int[pairs.length / 2];
 
-      for(int cornerIndex = 0; cornerIndex < count; cornerIndex++) {
-        cornerIds[cornerIndex] = readInt(file);
-        cornerWeights[cornerIndex] = readInt(file);
+      for(int cornerIndex = 0; cornerIndex < cornerIds.length; cornerIndex++) {
+        cornerIds[cornerIndex] = pairs[cornerIndex * 2];
+        cornerWeights[cornerIndex] = pairs[cornerIndex * 2 + 1];
       }
 
       bvwl.add(new AspectBvwl(version, cornerIds, cornerWeights));
@@ -379,19 +385,14 @@ public final class AspectLoader {
     return bvwl;
   }
 
-  private static List<AspectStch> readStch(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectStch> readStch(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectStch> stch = new ArrayList<>();
-    final int stitchCount = readInt(file);
+    final int stitchCount = file.readInt();
     for(int stitchIndex = 0; stitchIndex < stitchCount; stitchIndex++) {
-      final int token = readInt(file);
-      final int vertexCount = readInt(file);
-
-      final int[] vertexIndices = new int[vertexCount];
-      for(int vertexIndex = 0; vertexIndex < vertexCount; vertexIndex++) {
-        vertexIndices[vertexIndex] = readInt(file);
-      }
+      final int token = file.readInt();
+      final int[] vertexIndices = file.readInts(file.readInt());
 
       stch.add(new AspectStch(version, token, vertexIndices));
     }
@@ -399,18 +400,18 @@ public final class AspectLoader {
     return stch;
   }
 
-  private static List<AspectRpos> readRpos(final InputStream file) throws IOException {
-    final AspectVersion version = AspectVersion.fromNum(readInt(file));
+  private static List<AspectRpos> readRpos(final BufferReader file) throws IOException {
+    final AspectVersion version = AspectVersion.fromNum(file.readInt());
 
     final List<AspectRpos> rpos = new ArrayList<>();
-    final int boneCount = readInt(file);
+    final int boneCount = file.readInt();
     for(int boneIndex = 0; boneIndex < boneCount; boneIndex++) {
       final Quaternionf[] rotations = new Quaternionf[2];
       final Vector3f[] positions = new Vector3f[2];
 
       for(int i = 0; i < 2; i++) {
-        rotations[i] = readQuat(file);
-        positions[i] = readVec3(file);
+        rotations[i] = file.readQuat();
+        positions[i] = file.readVec3();
       }
 
       rpos.add(new AspectRpos(version, rotations, positions));
@@ -419,34 +420,24 @@ public final class AspectLoader {
     return rpos;
   }
 
-  private static void readBbox(final InputStream file) throws IOException {
-    AspectVersion.fromNum(readInt(file));
+  private static void readBbox(final BufferReader file) throws IOException {
+    AspectVersion.fromNum(file.readInt());
 
-    if(readInt(file) != 0) {
+    if(file.readInt() != 0) {
       throw new IOException("Invalid BBOX definition");
     }
   }
 
-  private static void readBend(final InputStream file) throws IOException {
-    if(!"INFO".equals(read4cc(file))) {
+  private static void readBend(final BufferReader file) throws IOException {
+    if(!"INFO".equals(file.read4cc())) {
       throw new IOException("Expected INFO header for BEND section");
     }
 
-    final int entryCount = readInt(file);
+    final int entryCount = file.readInt();
     for(int entryIndex = 0; entryIndex < entryCount; entryIndex++) {
-      final StringBuilder builder = new StringBuilder();
-
-      while(true) {
-        final char b = (char)file.read();
-
-        if(b == '\0') {
-          break;
-        }
-
-        builder.append(b);
-      }
+      final String entry = file.readCString();
 
-//      System.out.println(builder);
+//      System.out.println(entry);
     }
   }
 }
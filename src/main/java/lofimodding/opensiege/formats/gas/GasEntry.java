@@ -1,41 +1,399 @@
 package lofimodding.opensiege.formats.gas;
 
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.function.IntFunction;
 
-public class GasEntry {
-  private final Map<String, GasEntry> children;
-  private final Map<String, List<GasEntry>> arrayChildren;
-  private final Map<String, Object> values;
+/**
+ * An immutable block of gas. Child blocks, lists of child blocks and values each live in a pair of arrays ordered by
+ * the keys' hashes, and ints, floats and booleans are stored unboxed, so a block costs a handful of arrays rather than
+ * three hash maps. Values are boxed again when they're read. The parser hands every block in a file the same copy of
+ * each key.
+ */
+public final class GasEntry {
+  private static final String[] NO_KEYS = {};
+  private static final GasEntry[] NO_CHILDREN = {};
+  private static final GasEntry[][] NO_ARRAY_CHILDREN = {};
+  private static final Object[] NO_VALUES = {};
 
-  public GasEntry(final Map<String, GasEntry> children, final Map<String, List<GasEntry>> arrayChildren, final Map<String, Object> values) {
-    this.children = children;
-    this.arrayChildren = arrayChildren;
-    this.values = values;
+  static final GasEntry EMPTY = new GasEntry(NO_KEYS, NO_CHILDREN, NO_KEYS, NO_ARRAY_CHILDREN, NO_KEYS, NO_VALUES);
+
+  private static final byte OBJECT = 0;
+  private static final byte INT = 1;
+  private static final byte FLOAT = 2;
+  private static final byte BOOLEAN = 3;
+
+  private final String[] childKeys;
+  private final GasEntry[] children;
+  private final String[] arrayKeys;
+  private final GasEntry[][] arrayChildren;
+  private final String[] valueKeys;
+
+  /** Null if every value is an object */
+  @Nullable
+  private final byte[] types;
+  /** Ints, float bits and booleans by value index, null if there are none */
+  @Nullable
+  private final int[] primitives;
+  /** Everything else by value index, null if every value is primitive */
+  @Nullable
+  private final Object[] objects;
+
+  /**
+   * @param values taken over if none of them are primitive. Empty sections share one set of arrays.
+   */
+  private GasEntry(final String[] childKeys, final GasEntry[] children, final String[] arrayKeys, final GasEntry[][] arrayChildren, final String[] valueKeys, final Object[] values) {
+    this.childKeys = childKeys.length == 0 ? NO_KEYS : childKeys;
+    this.children = children.length == 0 ? NO_CHILDREN : children;
+    this.arrayKeys = arrayKeys.length == 0 ? NO_KEYS : arrayKeys;
+    this.arrayChildren = arrayChildren.length == 0 ? NO_ARRAY_CHILDREN : arrayChildren;
+    this.valueKeys = valueKeys.length == 0 ? NO_KEYS : valueKeys;
+
+    int primitiveCount = 0;
+    for(final Object value : values) {
+      if(value instanceof Integer || value instanceof Float || value instanceof Boolean) {
+        primitiveCount++;
+      }
+    }
+
+    if(primitiveCount == 0) {
+      this.types = null;
+      this.primitives = null;
+      this.objects = values.length == 0 ? NO_VALUES : values;
+      return;
+    }
+
+    this.types = new byte[values.length];
+    this.primitives = new int[values.length];
+    this.objects = primitiveCount == values.length ? null : new Object[values.length];
+
+    for(int i = 0; i < values.length; i++) {
+      if(values[i] instanceof final Integer value) {
+        this.types[i] = INT;
+        this.primitives[i] = value;
+      } else if(values[i] instanceof final Float value) {
+        this.types[i] = FLOAT;
+        this.primitives[i] = Float.floatToRawIntBits(value);
+      } else if(values[i] instanceof final Boolean value) {
+        this.types[i] = BOOLEAN;
+        this.primitives[i] = value ? 1 : 0;
+      } else {
+        this.objects[i] = values[i];
+      }
+    }
+  }
+
+  /**
+   * Copies the maps into a new entry, lists of values included
+   */
+  public static GasEntry of(final Map<String, GasEntry> children, final Map<String, List<GasEntry>> arrayChildren, final Map<String, Object> values) {
+    final String[] childKeys = new String[children.size()];
+    final GasEntry[] childValues = new GasEntry[childKeys.length];
+    int i = 0;
+    for(final Map.Entry<String, GasEntry> entry : children.entrySet()) {
+      childKeys[i] = entry.getKey();
+      childValues[i++] = entry.getValue();
+    }
+
+    final String[] arrayKeys = new String[arrayChildren.size()];
+    final GasEntry[][] arrayValues = new GasEntry[arrayKeys.length][];
+    i = 0;
+    for(final Map.Entry<String, List<GasEntry>> entry : arrayChildren.entrySet()) {
+      arrayKeys[i] = entry.getKey();
+      arrayValues[i++] = entry.getValue().toArray(GasEntry[]::new);
+    }
+
+    final String[] valueKeys = new String[values.size()];
+    final Object[] valueValues = new Object[valueKeys.length];
+    i = 0;
+    for(final Map.Entry<String, Object> entry : values.entrySet()) {
+      valueKeys[i] = entry.getKey();
+      valueValues[i++] = entry.getValue() instanceof final List<?> list ? GasLists.copyOf(list) : entry.getValue();
+    }
+
+    sort(childKeys, childValues);
+    sort(arrayKeys, arrayValues);
+    sort(valueKeys, valueValues);
+
+    return new GasEntry(childKeys, childValues, arrayKeys, arrayValues, valueKeys, valueValues);
+  }
+
+  /**
+   * Builds an entry straight from the parser's view of a block, where values and child blocks share one namespace.
+   * A key holding a list can have both blocks and values in it, they're split between the two.
+   */
+  static GasEntry of(final Map<String, Object> block) {
+    final String[] keys = new String[block.size()];
+    final Object[] blockValues = new Object[keys.length];
+
+    int count = 0;
+    for(final Map.Entry<String, Object> entry : block.entrySet()) {
+      keys[count] = entry.getKey();
+      blockValues[count++] = entry.getValue();
+    }
+
+    sort(keys, blockValues);
+
+    int childCount = 0;
+    int arrayCount = 0;
+    int valueCount = 0;
+    for(final Object value : blockValues) {
+      if(value instanceof GasEntry) {
+        childCount++;
+      } else if(value instanceof final List<?> list) {
+        int blocks = 0;
+        for(final Object o : list) {
+          if(o instanceof GasEntry) {
+            blocks++;
+          }
+        }
+
+        if(blocks != 0) {
+          arrayCount++;
+        }
+
+        if(blocks != list.size()) {
+          valueCount++;
+        }
+      } else {
+        valueCount++;
+      }
+    }
+
+    final String[] childKeys = new String[childCount];
+    final GasEntry[] children = new GasEntry[childCount];
+    final String[] arrayKeys = new String[arrayCount];
+    final GasEntry[][] arrayChildren = new GasEntry[arrayCount][];
+    final String[] valueKeys = new String[valueCount];
+    final Object[] values = new Object[valueCount];
+
+    childCount = 0;
+    arrayCount = 0;
+    valueCount = 0;
+    for(int i = 0; i < keys.length; i++) {
+      final String key = keys[i];
+      final Object value = blockValues[i];
+
+      if(value instanceof final GasEntry child) {
+        childKeys[childCount] = key;
+        children[childCount++] = child;
+      } else if(value instanceof final List<?> list) {
+        final GasEntry[] blocks = new GasEntry[list.size()];
+        final Object[] others = new Object[list.size()];
+        int blockCount = 0;
+        int otherCount = 0;
+
+        for(final Object o : list) {
+          if(o instanceof final GasEntry child) {
+            blocks[blockCount++] = child;
+          } else {
+            others[otherCount++] = o;
+          }
+        }
+
+        if(blockCount != 0) {
+          arrayKeys[arrayCount] = key;
+          arrayChildren[arrayCount++] = Arrays.copyOf(blocks, blockCount);
+        }
+
+        if(otherCount != 0) {
+          valueKeys[valueCount] = key;
+          values[valueCount++] = GasLists.of(Arrays.copyOf(others, otherCount));
+        }
+      } else {
+        valueKeys[valueCount] = key;
+        values[valueCount++] = value;
+      }
+    }
+
+    return new GasEntry(childKeys, children, arrayKeys, arrayChildren, valueKeys, values);
+  }
+
+  /**
+   * Puts the keys in hash order, and the values alongside them. Most blocks only have a few keys, so they're
+   * insertion sorted.
+   */
+  private static void sort(final String[] keys, final Object[] values) {
+    if(keys.length > 16) {
+      // Hashes in the top half, indices in the bottom
+      final long[] order = new long[keys.length];
+      for(int i = 0; i < order.length; i++) {
+        order[i] = (long)keys[i].hashCode() << 32 | i;
+      }
+
+      Arrays.sort(order);
+
+      final String[] unsortedKeys = keys.clone();
+      final Object[] unsortedValues = values.clone();
+      for(int i = 0; i < order.length; i++) {
+        keys[i] = unsortedKeys[(int)order[i]];
+        values[i] = unsortedValues[(int)order[i]];
+      }
+
+      return;
+    }
+
+    for(int i = 1; i < keys.length; i++) {
+      final String key = keys[i];
+      final Object value = values[i];
+      final int hash = key.hashCode();
+
+      int j = i - 1;
+      while(j >= 0 && keys[j].hashCode() > hash) {
+        keys[j + 1] = keys[j];
+        values[j + 1] = values[j];
+        j--;
+      }
+
+      keys[j + 1] = key;
+      values[j + 1] = value;
+    }
+  }
+
+  /**
+   * @return the key's index, or -1 if it isn't there
+   */
+  private static int indexOf(final String[] keys, final String key) {
+    final int hash = key.hashCode();
+
+    // Binary search for the first key with the hash, then check each with it
+    int low = 0;
+    int high = keys.length;
+    while(low < high) {
+      final int mid = low + high >>> 1;
+
+      if(keys[mid].hashCode() < hash) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    for(int i = low; i < keys.length && keys[i].hashCode() == hash; i++) {
+      if(keys[i].equals(key)) {
+        return i;
+      }
+    }
+
+    return -1;
   }
 
   public Set<Map.Entry<String, GasEntry>> children() {
-    return this.children.entrySet();
+    return new Entries<>(this.childKeys, i -> this.children[i]);
   }
 
   public Set<Map.Entry<String, List<GasEntry>>> arrayChildren() {
-    return this.arrayChildren.entrySet();
+    return new Entries<>(this.arrayKeys, i -> new Blocks(this.arrayChildren[i]));
   }
 
+  public Set<Map.Entry<String, Object>> values() {
+    return new Entries<>(this.valueKeys, this::value);
+  }
+
+  @Nullable
   public GasEntry getChild(final String key) {
-    return this.children.get(key);
+    final int index = indexOf(this.childKeys, key);
+    return index >= 0 ? this.children[index] : null;
   }
 
+  @Nullable
   public List<GasEntry> getArrayChildren(final String key) {
-    return this.arrayChildren.get(key);
+    final int index = indexOf(this.arrayKeys, key);
+    return index >= 0 ? new Blocks(this.arrayChildren[index]) : null;
   }
 
+  @Nullable
   public Object get(final String key) {
-    return this.values.get(key);
+    final int index = indexOf(this.valueKeys, key);
+    return index >= 0 ? this.value(index) : null;
   }
 
+  @Nullable
   public String getString(final String key) {
-    return (String)this.values.get(key);
+    return (String)this.get(key);
+  }
+
+  @Nullable
+  private Object value(final int index) {
+    if(this.types == null) {
+      return this.objects[index];
+    }
+
+    return switch(this.types[index]) {
+      case INT -> this.primitives[index];
+      case FLOAT -> Float.intBitsToFloat(this.primitives[index]);
+      case BOOLEAN -> this.primitives[index] != 0;
+      default -> this.objects[index];
+    };
+  }
+
+  /**
+   * A read-only view of one list of child blocks
+   */
+  private static final class Blocks extends AbstractList<GasEntry> implements RandomAccess {
+    private final GasEntry[] blocks;
+
+    private Blocks(final GasEntry[] blocks) {
+      this.blocks = blocks;
+    }
+
+    @Override
+    public GasEntry get(final int index) {
+      return this.blocks[index];
+    }
+
+    @Override
+    public int size() {
+      return this.blocks.length;
+    }
+  }
+
+  /**
+   * A read-only view of one of an entry's sections, in key order
+   */
+  private static final class Entries<V> extends AbstractSet<Map.Entry<String, V>> {
+    private final String[] keys;
+    private final IntFunction<V> values;
+
+    private Entries(final String[] keys, final IntFunction<V> values) {
+      this.keys = keys;
+      this.values = values;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, V>> iterator() {
+      return new Iterator<>() {
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+          return this.index < Entries.this.keys.length;
+        }
+
+        @Override
+        public Map.Entry<String, V> next() {
+          if(this.index >= Entries.this.keys.length) {
+            throw new NoSuchElementException();
+          }
+
+          final int i = this.index++;
+          return new AbstractMap.SimpleImmutableEntry<>(Entries.this.keys[i], Entries.this.values.apply(i));
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return this.keys.length;
+    }
   }
 }
@@ -0,0 +1,104 @@
+package lofimodding.opensiege.formats.gas;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable lists of values for {@link GasEntry}. Lists of only ints or only floats, such as the node guids in a
+ * streamer node index, are kept in a primitive array and boxed as they're read.
+ */
+final class GasLists {
+  private GasLists() { }
+
+  static List<Object> copyOf(final List<?> values) {
+    return of(values.toArray());
+  }
+
+  /**
+   * @param values taken over unless they're all ints or all floats
+   */
+  static List<Object> of(final Object[] values) {
+    boolean ints = true;
+    boolean floats = true;
+
+    for(final Object value : values) {
+      ints &= value instanceof Integer;
+      floats &= value instanceof Float;
+    }
+
+    if(ints) {
+      final int[] array = new int[values.length];
+      for(int i = 0; i < values.length; i++) {
+        array[i] = (Integer)values[i];
+      }
+
+      return new IntList(array);
+    }
+
+    if(floats) {
+      final float[] array = new float[values.length];
+      for(int i = 0; i < values.length; i++) {
+        array[i] = (Float)values[i];
+      }
+
+      return new FloatList(array);
+    }
+
+    return new ObjectList(values);
+  }
+
+  private static final class IntList extends AbstractList<Object> implements RandomAccess {
+    private final int[] values;
+
+    private IntList(final int[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public Object get(final int index) {
+      return this.values[index];
+    }
+
+    @Override
+    public int size() {
+      return this.values.length;
+    }
+  }
+
+  private static final class FloatList extends AbstractList<Object> implements RandomAccess {
+    private final float[] values;
+
+    private FloatList(final float[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public Object get(final int index) {
+      return this.values[index];
+    }
+
+    @Override
+    public int size() {
+      return this.values.length;
+    }
+  }
+
+  private static final class ObjectList extends AbstractList<Object> implements RandomAccess {
+    private final Object[] values;
+
+    private ObjectList(final Object[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public Object get(final int index) {
+      return this.values[index];
+    }
+
+    @Override
+    public int size() {
+      return this.values.length;
+    }
+  }
+}
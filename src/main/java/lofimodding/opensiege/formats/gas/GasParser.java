@@ -0,0 +1,466 @@
+package lofimodding.opensiege.formats.gas;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass recursive descent over gas text. The cursor only ever moves forward, each character is looked at a
+ * constant number of times, and text is only copied out once a key, header or value has been found.
+ *
+ * <p>Blocks are collected into maps with one namespace for values and child blocks, as they always have been, so
+ * repeated keys and headers turn into lists the same way. Each block is turned into a {@link GasEntry} as soon as it
+ * closes and takes the place of its map in the parent.</p>
+ */
+final class GasParser {
+  private final String gas;
+  private final int length;
+  private int index;
+
+  /** The header last read, and whether its block goes into a list */
+  private String header;
+  private boolean headerList;
+
+  /** Open addressed set of the keys and headers read so far */
+  private String[] keys = new String[256];
+  private int keyCount;
+
+  GasParser(final String gas) {
+    this.gas = gas;
+    this.length = gas.length();
+  }
+
+  GasEntry parse() {
+    final Map<String, List<GasEntry>> roots = new HashMap<>();
+
+    try {
+      this.skip();
+
+      while(this.index < this.length) {
+        final Map<String, Object> properties = new HashMap<>();
+        this.root(properties);
+        properties.forEach((key, entry) -> roots.computeIfAbsent(key, k -> new ArrayList<>()).add((GasEntry)entry));
+        this.skip();
+      }
+    } catch(final GasParserException e) {
+      System.err.println("Failed to load gas - line " + this.line() + ": " + e.getMessage());
+      e.printStackTrace();
+      return GasEntry.EMPTY;
+    }
+
+    final Map<String, GasEntry> children = new HashMap<>();
+    final Map<String, List<GasEntry>> arrayChildren = new HashMap<>();
+
+    for(final Map.Entry<String, List<GasEntry>> entry : roots.entrySet()) {
+      if(entry.getValue().size() > 1) {
+        arrayChildren.put(entry.getKey(), entry.getValue());
+      } else {
+        children.put(entry.getKey(), entry.getValue().get(0));
+      }
+    }
+
+    return GasEntry.of(children, arrayChildren, Map.of());
+  }
+
+  private void root(final Map<String, Object> properties) throws GasParserException {
+    if(this.peek() != '[' || !this.header(properties)) {
+      throw new GasParserException("Expected header");
+    }
+
+    this.skip();
+    this.expect('{');
+    this.child(properties, false);
+  }
+
+  /**
+   * Reads properties and child blocks up to and including the closing brace
+   */
+  private void block(final Map<String, Object> current) throws GasParserException {
+    while(true) {
+      this.skip();
+
+      // A property - an optional type, a key, then =
+      final String type = this.key(this.index, this.scanKey());
+      this.skip();
+
+      final char kind = type.length() == 1 ? type.charAt(0) : 0;
+      final String key;
+      if(kind == 'b' || kind == 'f' || kind == 'x' || kind == 'i') {
+        key = this.key(this.index, this.scanKey());
+      } else {
+        key = type;
+      }
+
+      if(!key.isEmpty()) {
+        this.skip();
+
+        if(this.peek() == '=') {
+          this.index++;
+          this.skip();
+          final Object value = this.value(kind);
+          this.skip();
+          this.expect(';');
+          this.setValue(current, key, value);
+          continue;
+        }
+      }
+
+      // A child block
+      if(this.peek() == '[') {
+        if(this.header(current)) {
+          this.skip();
+
+          if(this.peek() == '{') {
+            this.index++;
+            this.child(current, true);
+            continue;
+          }
+        }
+
+        this.skip();
+      }
+
+      if(this.peek() == '}') {
+        this.index++;
+        return;
+      }
+
+      throw new GasParserException("Expected a property, block or }");
+    }
+  }
+
+  /**
+   * Reads a header from the opening bracket. A header that's already in use, or ends with *, turns into a list.
+   *
+   * @return false if the header is empty or unterminated, having skipped the bracket
+   */
+  private boolean header(final Map<String, Object> current) {
+    this.index++;
+
+    final int close = this.gas.indexOf(']', this.index);
+    if(close == -1 || close == this.index) {
+      return false;
+    }
+
+    final boolean starred = this.gas.charAt(close - 1) == '*';
+    final String header = this.key(this.index, starred ? close - 1 : close);
+    this.index = close + 1;
+
+    if(starred) {
+      this.header = header;
+      this.headerList = true;
+    } else if(current.containsKey(header)) {
+      // Convert to a list
+      if(!(current.get(header) instanceof Items)) {
+        final Items list = new Items();
+        list.add(current.get(header));
+        current.put(header, list);
+      }
+
+      this.header = header;
+      this.headerList = true;
+    } else {
+      this.header = header;
+      this.headerList = false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Reads the block for the header last read. Its map holds the block's place in the parent until it closes.
+   */
+  private void child(final Map<String, Object> current, final boolean nested) throws GasParserException {
+    final String header = this.header;
+    final Map<String, Object> map = new HashMap<>();
+
+    if(this.headerList && nested) {
+      final Items list = (Items)current.computeIfAbsent(header, key -> new Items());
+      final int index = list.size();
+      list.add(map);
+      this.block(map);
+      list.set(index, GasEntry.of(map));
+    } else {
+      current.put(header, map);
+      this.block(map);
+      current.put(header, GasEntry.of(map));
+    }
+  }
+
+  private void setValue(final Map<String, Object> current, final String key, @Nullable final Object value) throws GasParserException {
+    if(key.endsWith("*") || current.containsKey(key)) {
+      final String name = key.endsWith("*") ? key.substring(0, key.length() - 1) : key;
+      final Object obj = current.computeIfAbsent(name, k -> new Items());
+
+      if(obj instanceof final Items list) {
+        list.add(value);
+      } else {
+        throw new GasParserException("List value and non-list value have the same key: " + name);
+      }
+    } else {
+      current.put(key, value);
+    }
+  }
+
+  /**
+   * @param kind the key's type, 0 if it doesn't have one
+   */
+  @Nullable
+  private Object value(final char kind) throws GasParserException {
+    if(kind == 'b') {
+      final int start = this.index;
+      this.index = this.scanValue();
+
+      if(GasValues.equals(this.gas, start, this.index, "true")) {
+        return true;
+      }
+
+      if(GasValues.equals(this.gas, start, this.index, "false")) {
+        return false;
+      }
+
+      throw new GasParserException("Expected boolean value");
+    }
+
+    if(kind == 'f') {
+      final int start = this.index;
+      this.index = this.scanValue();
+
+      final Float value = GasValues.parseFloat(this.gas, start, this.index);
+      if(value == null) {
+        throw new GasParserException("Expected float value");
+      }
+
+      return value;
+    }
+
+    if(kind == 'x' || kind == 'i') {
+      final int start = this.index;
+      this.index = this.scanValue();
+
+      // Hex values skip their 0x unchecked
+      final long value = kind == 'x' ? GasValues.parseHex(this.gas, Math.min(start + 2, this.index), this.index) : GasValues.parseInt(this.gas, start, this.index);
+      if(value == GasValues.NOT_AN_INT) {
+        throw new GasParserException(kind == 'x' ? "Expected hex value" : "Expected int value");
+      }
+
+      return (int)value;
+    }
+
+    final char c = this.peek();
+    if(c == '"' || c == '<') {
+      final int close = this.gas.indexOf(c == '"' ? '"' : '>', this.index + 1);
+      final String str;
+
+      // An unterminated string is empty and takes the next character with it
+      if(close == -1) {
+        str = "";
+        this.index += 2;
+      } else {
+        str = this.text(this.index + 1, close);
+        this.index = close + 1;
+      }
+
+      return c == '"' ? str : new GasBracketType(str);
+    }
+
+    // Everything up to the semicolon, trimmed
+    int start = this.index;
+    int end = this.gas.indexOf(';', start);
+    if(end == -1) {
+      end = start;
+    }
+
+    while(start < end && this.gas.charAt(start) <= ' ') {
+      start++;
+    }
+
+    while(end > start && this.gas.charAt(end - 1) <= ' ') {
+      end--;
+    }
+
+    this.index += end - start;
+    return GasValues.classify(this.gas, start, end);
+  }
+
+  /**
+   * Skips whitespace, line comments and block comments. An unterminated block comment is left for the caller to
+   * trip over.
+   */
+  private void skip() {
+    while(this.index < this.length) {
+      final char c = this.gas.charAt(this.index);
+
+      if(c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+        this.index++;
+      } else if(c == '/' && this.index + 1 < this.length && this.gas.charAt(this.index + 1) == '/') {
+        this.index += 2;
+
+        while(this.index < this.length && this.gas.charAt(this.index) != '\n' && this.gas.charAt(this.index) != '\r') {
+          this.index++;
+        }
+      } else if(c == '/' && this.index + 1 < this.length && this.gas.charAt(this.index + 1) == '*') {
+        // The closing */ can share the opening's star
+        final int end = this.gas.indexOf("*/", this.index + 1);
+        if(end == -1) {
+          return;
+        }
+
+        this.index = end + 2;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the end of the key at the cursor
+   */
+  private int scanKey() {
+    int end = this.index;
+
+    while(end < this.length) {
+      final char c = this.gas.charAt(end);
+
+      if((c < 'a' || c > 'z') && (c < 'A' || c > 'Z') && (c < '0' || c > '9') && c != '_' && c != '*') {
+        break;
+      }
+
+      end++;
+    }
+
+    return end;
+  }
+
+  /**
+   * @return the end of the typed value at the cursor
+   */
+  private int scanValue() {
+    int end = this.index;
+
+    while(end < this.length) {
+      final char c = this.gas.charAt(end);
+
+      if((c < 'a' || c > 'z') && (c < 'A' || c > 'Z') && (c < '0' || c > '9') && c != '_' && c != '-' && c != '.' && c != '\\') {
+        break;
+      }
+
+      end++;
+    }
+
+    return end;
+  }
+
+  /**
+   * Copies out the text and moves the cursor past it
+   */
+  private String text(final int start, final int end) {
+    this.index = end;
+    return normalise(this.gas.substring(start, end));
+  }
+
+  /**
+   * Copies out a key or header like {@link #text}, but only the first time it's seen. Every repeat in the file gets
+   * the same string back without being copied.
+   */
+  private String key(final int start, final int end) {
+    int hash = 0;
+    for(int i = start; i < end; i++) {
+      final char c = this.gas.charAt(i);
+
+      if(c == '\r') {
+        return this.text(start, end);
+      }
+
+      hash = 31 * hash + c;
+    }
+
+    this.index = end;
+
+    final int length = end - start;
+    final int mask = this.keys.length - 1;
+    int slot = (hash ^ hash >>> 16) & mask;
+
+    String key;
+    while((key = this.keys[slot]) != null) {
+      if(key.length() == length && this.gas.regionMatches(start, key, 0, length)) {
+        return key;
+      }
+
+      slot = slot + 1 & mask;
+    }
+
+    key = this.gas.substring(start, end);
+    this.keys[slot] = key;
+
+    if(++this.keyCount * 2 > this.keys.length) {
+      this.growKeys();
+    }
+
+    return key;
+  }
+
+  private void growKeys() {
+    final String[] keys = new String[this.keys.length * 2];
+    final int mask = keys.length - 1;
+
+    // The hashes match the ones key() works out
+    for(final String key : this.keys) {
+      if(key != null) {
+        final int hash = key.hashCode();
+        int slot = (hash ^ hash >>> 16) & mask;
+
+        while(keys[slot] != null) {
+          slot = slot + 1 & mask;
+        }
+
+        keys[slot] = key;
+      }
+    }
+
+    this.keys = keys;
+  }
+
+  /**
+   * Line breaks in strings are always \n, whatever the file uses
+   */
+  static String normalise(final String str) {
+    if(str.indexOf('\r') == -1) {
+      return str;
+    }
+
+    return str.replace("\r\n", "\n").replace('\r', '\n');
+  }
+
+  private char peek() {
+    return this.index < this.length ? this.gas.charAt(this.index) : 0;
+  }
+
+  private void expect(final char c) throws GasParserException {
+    if(this.peek() != c) {
+      throw new GasParserException("Expected " + c);
+    }
+
+    this.index++;
+  }
+
+  private int line() {
+    int line = 1;
+    for(int i = 0; i < this.index && i < this.length; i++) {
+      if(this.gas.charAt(i) == '\n') {
+        line++;
+      }
+    }
+
+    return line;
+  }
+
+  /**
+   * The list repeated keys and headers are collected into, its own type so it can be told apart from values safely
+   */
+  private static final class Items extends ArrayList<Object> {
+    private static final long serialVersionUID = 1L;
+  }
+}
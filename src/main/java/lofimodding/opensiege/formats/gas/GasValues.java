@@ -0,0 +1,480 @@
+package lofimodding.opensiege.formats.gas;
+
+import lofimodding.opensiege.world.WorldPos;
+
+import javax.annotation.Nullable;
+import java.time.LocalTime;
+
+/**
+ * Works out the type of a value straight from the gas text, in one pass over its characters. Each check accepts
+ * exactly what the {@link Integer#parseInt}, {@link Integer#parseUnsignedInt} and {@link Float#parseFloat} calls and
+ * regexes used before it did, but fails by returning rather than throwing.
+ */
+final class GasValues {
+  private GasValues() { }
+
+  /** Returned by the integer parsers when the text isn't one */
+  static final long NOT_AN_INT = Long.MIN_VALUE;
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+  };
+
+  /** The most digits that always fit exactly in a double */
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  /**
+   * An untyped value, tried as a world position, none, an int, hex, a float, a bool and a time in that order. Anything
+   * else is a string.
+   *
+   * @param start the first character, not whitespace
+   * @param end after the last character, not whitespace
+   */
+  @Nullable
+  static Object classify(final String gas, final int start, final int end) throws GasParserException {
+    final WorldPos pos = worldPos(gas, start, end);
+    if(pos != null) {
+      return pos;
+    }
+
+    if(equals(gas, start, end, "none")) {
+      return null;
+    }
+
+    final long i = parseInt(gas, start, end);
+    if(i != NOT_AN_INT) {
+      return (int)i;
+    }
+
+    if(end - start >= 2 && gas.charAt(start) == '0' && gas.charAt(start + 1) == 'x') {
+      final long hex = parseHex(gas, start + 2, end);
+      if(hex != NOT_AN_INT) {
+        return (int)hex;
+      }
+
+      System.err.println("Invalid hex " + gas.substring(start, end));
+      return 0;
+    }
+
+    final Float f = parseFloat(gas, start, end);
+    if(f != null) {
+      return f;
+    }
+
+    if(equals(gas, start, end, "true")) {
+      return Boolean.TRUE;
+    }
+
+    if(equals(gas, start, end, "false")) {
+      return Boolean.FALSE;
+    }
+
+    final LocalTime time = time(gas, start, end);
+    if(time != null) {
+      return time;
+    }
+
+    return GasParser.normalise(gas.substring(start, end));
+  }
+
+  /**
+   * Three decimals and a hex node ID, separated by commas, e.g. <code>1.5,0,-2,0x1a2b3c4d</code>
+   *
+   * @return null if the text isn't shaped like one
+   * @throws GasParserException if it is, but the node ID doesn't fit
+   */
+  @Nullable
+  private static WorldPos worldPos(final String gas, final int start, final int end) throws GasParserException {
+    final int xEnd = decimal(gas, start, end);
+    final int y = comma(gas, xEnd, end);
+    final int yEnd = decimal(gas, y, end);
+    final int z = comma(gas, yEnd, end);
+    final int zEnd = decimal(gas, z, end);
+    final int id = comma(gas, zEnd, end);
+
+    if(id == -1 || end - id < 3 || gas.charAt(id) != '0' || gas.charAt(id + 1) != 'x') {
+      return null;
+    }
+
+    int idEnd = id + 2;
+    while(idEnd < end && isLetterOrDigit(gas.charAt(idEnd))) {
+      idEnd++;
+    }
+
+    if(idEnd == id + 2 || skipWhitespace(gas, idEnd, end) != end) {
+      return null;
+    }
+
+    final long nodeId = parseHex(gas, id + 2, idEnd);
+    if(nodeId == NOT_AN_INT) {
+      throw new GasParserException("Invalid hex " + gas.substring(id, idEnd));
+    }
+
+    return new WorldPos((int)nodeId, parseFloat(gas, start, xEnd), parseFloat(gas, y, yEnd), parseFloat(gas, z, zEnd));
+  }
+
+  /**
+   * Matches <code>\s*,\s*</code>
+   *
+   * @return the index after it, or -1
+   */
+  private static int comma(final String gas, final int start, final int end) {
+    if(start == -1) {
+      return -1;
+    }
+
+    final int i = skipWhitespace(gas, start, end);
+    if(i == end || gas.charAt(i) != ',') {
+      return -1;
+    }
+
+    return skipWhitespace(gas, i + 1, end);
+  }
+
+  /**
+   * Matches <code>-?\d+(\.\d+)?</code>
+   *
+   * @return the end of the number, or -1
+   */
+  private static int decimal(final String gas, int i, final int end) {
+    if(i == -1) {
+      return -1;
+    }
+
+    if(i < end && gas.charAt(i) == '-') {
+      i++;
+    }
+
+    final int digits = i;
+    while(i < end && isDigit(gas.charAt(i))) {
+      i++;
+    }
+
+    if(i == digits) {
+      return -1;
+    }
+
+    if(i + 1 < end && gas.charAt(i) == '.' && isDigit(gas.charAt(i + 1))) {
+      i += 2;
+      while(i < end && isDigit(gas.charAt(i))) {
+        i++;
+      }
+    }
+
+    return i;
+  }
+
+  /**
+   * Matches <code>(\d+)h(\d+)m</code>
+   */
+  @Nullable
+  private static LocalTime time(final String gas, final int start, final int end) {
+    int i = start;
+    while(i < end && isDigit(gas.charAt(i))) {
+      i++;
+    }
+
+    final int h = i;
+    if(h == start || h == end || gas.charAt(h) != 'h') {
+      return null;
+    }
+
+    i++;
+    while(i < end && isDigit(gas.charAt(i))) {
+      i++;
+    }
+
+    if(i == h + 1 || i != end - 1 || gas.charAt(i) != 'm') {
+      return null;
+    }
+
+    // Out of range hours or minutes fail in LocalTime, as they always have
+    final long hours = parseInt(gas, start, h);
+    final long minutes = parseInt(gas, h + 1, i);
+    return LocalTime.of(hours == NOT_AN_INT ? Integer.MAX_VALUE : (int)hours, minutes == NOT_AN_INT ? Integer.MAX_VALUE : (int)minutes);
+  }
+
+  /**
+   * The same as {@link Integer#parseInt(String)}
+   *
+   * @return the value, or {@link #NOT_AN_INT}
+   */
+  static long parseInt(final String gas, final int start, final int end) {
+    if(start >= end) {
+      return NOT_AN_INT;
+    }
+
+    int i = start;
+    boolean negative = false;
+    long limit = -Integer.MAX_VALUE;
+
+    final char first = gas.charAt(i);
+    if(first < '0') {
+      if(first == '-') {
+        negative = true;
+        limit = Integer.MIN_VALUE;
+      } else if(first != '+') {
+        return NOT_AN_INT;
+      }
+
+      if(end - start == 1) {
+        return NOT_AN_INT;
+      }
+
+      i++;
+    }
+
+    // Accumulate negatively so that MIN_VALUE fits
+    long result = 0;
+    for(; i < end; i++) {
+      final int digit = Character.digit(gas.charAt(i), 10);
+      if(digit < 0) {
+        return NOT_AN_INT;
+      }
+
+      result = result * 10 - digit;
+      if(result < limit) {
+        return NOT_AN_INT;
+      }
+    }
+
+    return negative ? result : -result;
+  }
+
+  /**
+   * The same as {@link Integer#parseUnsignedInt(String, int)} in base 16, without the 0x
+   *
+   * @return the value from 0 to 0xffffffff, or {@link #NOT_AN_INT}
+   */
+  static long parseHex(final String gas, final int start, final int end) {
+    if(start >= end) {
+      return NOT_AN_INT;
+    }
+
+    int i = start;
+
+    final char first = gas.charAt(i);
+    if(first == '+') {
+      if(end - start == 1) {
+        return NOT_AN_INT;
+      }
+
+      i++;
+    } else if(first < '0') {
+      return NOT_AN_INT;
+    }
+
+    long result = 0;
+    for(; i < end; i++) {
+      final int digit = Character.digit(gas.charAt(i), 16);
+      if(digit < 0) {
+        return NOT_AN_INT;
+      }
+
+      result = result << 4 | digit;
+      if(result > 0xffff_ffffL) {
+        return NOT_AN_INT;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * The same as {@link Float#parseFloat}. Decimals of up to 15 significant digits with small exponents, which is
+   * nearly all of them, are worked out here. The rest are checked here and then handed to {@link Float#parseFloat},
+   * so that nothing throws.
+   *
+   * @return the value, or null if the text isn't a float
+   */
+  @Nullable
+  static Float parseFloat(final String gas, int start, int end) {
+    while(start < end && gas.charAt(start) <= ' ') {
+      start++;
+    }
+
+    while(end > start && gas.charAt(end - 1) <= ' ') {
+      end--;
+    }
+
+    if(start == end) {
+      return null;
+    }
+
+    int i = start;
+    boolean negative = false;
+    char c = gas.charAt(i);
+
+    if(c == '-' || c == '+') {
+      negative = c == '-';
+
+      if(++i == end) {
+        return null;
+      }
+
+      c = gas.charAt(i);
+    }
+
+    if(c == 'N') {
+      return equals(gas, i, end, "NaN") ? Float.NaN : null;
+    }
+
+    if(c == 'I') {
+      return equals(gas, i, end, "Infinity") ? negative ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY : null;
+    }
+
+    if(c == '0' && i + 1 < end && (gas.charAt(i + 1) == 'x' || gas.charAt(i + 1) == 'X')) {
+      return isHexFloat(gas, i + 2, end) ? Float.parseFloat(gas.substring(start, end)) : null;
+    }
+
+    long significand = 0;
+    int significantDigits = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean point = false;
+
+    for(; i < end; i++) {
+      c = gas.charAt(i);
+
+      if(isDigit(c)) {
+        digits++;
+
+        if(significand != 0 || c != '0') {
+          significantDigits++;
+        }
+
+        if(significantDigits <= MAX_EXACT_DIGITS) {
+          significand = significand * 10 + c - '0';
+
+          if(point) {
+            exponent--;
+          }
+        } else if(!point) {
+          exponent++;
+        }
+      } else if(c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+
+    if(digits == 0) {
+      return null;
+    }
+
+    if(i < end && (gas.charAt(i) == 'e' || gas.charAt(i) == 'E')) {
+      if(++i == end) {
+        return null;
+      }
+
+      final boolean negativeExponent = gas.charAt(i) == '-';
+      if(gas.charAt(i) == '-' || gas.charAt(i) == '+') {
+        i++;
+      }
+
+      final int exponentStart = i;
+      int value = 0;
+      while(i < end && isDigit(gas.charAt(i))) {
+        // Far beyond the range of a float either way
+        value = Math.min(value * 10 + gas.charAt(i) - '0', 100_000);
+        i++;
+      }
+
+      if(i == exponentStart) {
+        return null;
+      }
+
+      exponent += negativeExponent ? -value : value;
+    }
+
+    // One trailing type suffix is allowed
+    if(i < end && (i != end - 1 || "fFdD".indexOf(gas.charAt(i)) == -1)) {
+      return null;
+    }
+
+    if(significand == 0) {
+      return negative ? -0.0f : 0.0f;
+    }
+
+    if(significantDigits > MAX_EXACT_DIGITS || exponent < -22 || exponent > 22) {
+      return Float.parseFloat(gas.substring(start, end));
+    }
+
+    // Both operands are exact, so this is correctly rounded
+    final double value = exponent < 0 ? significand / POWERS_OF_TEN[-exponent] : significand * POWERS_OF_TEN[exponent];
+
+    // Rounding to double then to float only goes wrong when the double lands exactly halfway between two floats
+    if((Double.doubleToRawLongBits(value) & 0x1fff_ffffL) == 0x1000_0000L) {
+      return Float.parseFloat(gas.substring(start, end));
+    }
+
+    return negative ? -(float)value : (float)value;
+  }
+
+  /**
+   * Matches what's left of a hex float after the 0x, e.g. <code>1.8p3</code>
+   */
+  private static boolean isHexFloat(final String gas, int i, final int end) {
+    int digits = 0;
+    while(i < end && Character.digit(gas.charAt(i), 16) >= 0 && gas.charAt(i) < 0x80) {
+      i++;
+      digits++;
+    }
+
+    if(i < end && gas.charAt(i) == '.') {
+      i++;
+      while(i < end && Character.digit(gas.charAt(i), 16) >= 0 && gas.charAt(i) < 0x80) {
+        i++;
+        digits++;
+      }
+    }
+
+    if(digits == 0 || i == end || (gas.charAt(i) != 'p' && gas.charAt(i) != 'P')) {
+      return false;
+    }
+
+    if(++i < end && (gas.charAt(i) == '-' || gas.charAt(i) == '+')) {
+      i++;
+    }
+
+    final int exponentStart = i;
+    while(i < end && isDigit(gas.charAt(i))) {
+      i++;
+    }
+
+    if(i == exponentStart) {
+      return false;
+    }
+
+    return i == end || i == end - 1 && "fFdD".indexOf(gas.charAt(i)) != -1;
+  }
+
+  static boolean equals(final String gas, final int start, final int end, final String str) {
+    return end - start == str.length() && gas.startsWith(str, start);
+  }
+
+  private static int skipWhitespace(final String gas, int i, final int end) {
+    while(i < end && isWhitespace(gas.charAt(i))) {
+      i++;
+    }
+
+    return i;
+  }
+
+  /**
+   * Regex \s
+   */
+  private static boolean isWhitespace(final char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r';
+  }
+
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLetterOrDigit(final char c) {
+    return c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+  }
+}
@@ -1,5 +1,10 @@
 package lofimodding.opensiege.formats.raw;
 
-public record RawTexture(RawTextureHeader header, byte[][] data) {
+import java.nio.ByteBuffer;
+
+/**
+ * @param data each surface's pixels, largest first
+ */
+public record RawTexture(RawTextureHeader header, ByteBuffer[] data) {
 
 }
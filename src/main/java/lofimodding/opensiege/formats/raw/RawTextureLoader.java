@@ -1,53 +1,64 @@
 package lofimodding.opensiege.formats.raw;
 
-import java.io.IOException;
-import java.io.InputStream;
+import lofimodding.opensiege.formats.BufferReader;
 
-import static lofimodding.opensiege.formats.StreamReader.read4cc;
-import static lofimodding.opensiege.formats.StreamReader.readBytes;
-import static lofimodding.opensiege.formats.StreamReader.readInt16;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 public final class RawTextureLoader {
   private RawTextureLoader() { }
 
-  public static RawTexture load(final InputStream file) throws IOException {
+  /**
+   * Surfaces are slices of the buffer, not copies
+   */
+  public static RawTexture load(final ByteBuffer buffer) throws IOException {
     //TODO gas file?
 
-    final RawTextureHeader header = readHeader(file);
-    final byte[][] data = new byte[header.surfaceCount()][];
+    final BufferReader file = new BufferReader(buffer);
+    final RawTextureHeader header;
+
+    try {
+      header = readHeader(file);
+    } catch(final BufferUnderflowException e) {
+      throw new EOFException("End of file reached");
+    }
+
+    final ByteBuffer[] data = new ByteBuffer[header.surfaceCount()];
 
     for(int i = 0; i < header.surfaceCount(); i++) {
       final int divisor = 1 << i;
       final int size = (header.width() / divisor) * (header.height() / divisor) * header.format().bpp / 8;
-      data[i] = readBytes(file, size);
+      data[i] = file.readBytes(size);
     }
 
     return new RawTexture(header, data);
   }
 
-  private static RawTextureHeader readHeader(final InputStream file) throws IOException {
-    final String magic = read4cc(file);
+  private static RawTextureHeader readHeader(final BufferReader file) throws IOException {
+    final String magic = file.read4cc();
 
     if(!"ipaR".equals(magic)) {
       throw new IOException("Invalid raw texture - bad magic");
     }
 
-    final RawTextureFormat format = RawTextureFormat.fromMagic(read4cc(file));
+    final RawTextureFormat format = RawTextureFormat.fromMagic(file.read4cc());
 
-    final int flags = readInt16(file);
+    final int flags = file.readInt16();
 
     if(flags != 0) {
       throw new IOException("Invalid raw texture - bad flags");
     }
 
-    final int surfaceCount = readInt16(file);
+    final int surfaceCount = file.readInt16();
 
     if(surfaceCount < 1) {
       throw new IOException("Invalid raw texture - must have at least 1 surface");
     }
 
-    final int width = readInt16(file);
-    final int height = readInt16(file);
+    final int width = file.readInt16();
+    final int height = file.readInt16();
 
     if(width < 1 || height < 1) {
       throw new IOException("Invalid raw texture - width and height must be at least 1");
@@ -4,78 +4,76 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import lofimodding.opensiege.formats.BufferReader;
 import org.joml.Matrix3f;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
 import org.joml.Vector4i;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import static lofimodding.opensiege.formats.StreamReader.read4cc;
-import static lofimodding.opensiege.formats.StreamReader.readCString;
-import static lofimodding.opensiege.formats.StreamReader.readInt;
-import static lofimodding.opensiege.formats.StreamReader.readMat3;
-import static lofimodding.opensiege.formats.StreamReader.readVec2;
-import static lofimodding.opensiege.formats.StreamReader.readVec3;
-import static lofimodding.opensiege.formats.StreamReader.readVec3s;
-import static lofimodding.opensiege.formats.StreamReader.readVec4b;
-
 public final class SnoLoader {
   private SnoLoader() { }
 
-  public static Sno load(final InputStream file, final String texSet) throws IOException {
-    final SnoHeader header = readHeader(file);
-    final Int2ObjectMap<SnoDoor> doors = readDoors(file, header.doorCount());
-    final List<SnoSpot> spots = readSpots(file, header.spotCount());
-    final List<SnoCorner> corners = readCorners(file, header.cornerCount());
-    final List<SnoSurface> surfaces = readSurfaces(file, header.textureCount(), texSet);
+  /** Position, normal, packed colour and uv */
+  private static final int CORNER_WORDS = 3 + 3 + 1 + 2;
+
+  public static Sno load(final ByteBuffer data, final String texSet) throws IOException {
+    final BufferReader file = new BufferReader(data);
+
+    try {
+      final SnoHeader header = readHeader(file);
+      final Int2ObjectMap<SnoDoor> doors = readDoors(file, header.doorCount());
+      final List<SnoSpot> spots = readSpots(file, header.spotCount());
+      final List<SnoCorner> corners = readCorners(file, header.cornerCount());
+      final List<SnoSurface> surfaces = readSurfaces(file, header.textureCount(), texSet);
 
-    return new Sno(header, spots, doors, corners, surfaces);
+      return new Sno(header, spots, doors, corners, surfaces);
+    } catch(final BufferUnderflowException e) {
+      throw new EOFException("End of file reached");
+    }
   }
 
-  private static SnoHeader readHeader(final InputStream file) throws IOException {
-    final String magic = read4cc(file);
+  private static SnoHeader readHeader(final BufferReader file) throws IOException {
+    final String magic = file.read4cc();
 
     if(!"SNOD".equals(magic)) {
       throw new IOException("Invalid sno model - bad magic");
     }
 
-    final int version = readInt(file);
-    readInt(file); // unused
-    final int doorCount = readInt(file);
-    final int spotCount = readInt(file);
-    final int cornerCount = readInt(file);
-    final int faceCount = readInt(file);
-    final int textureCount = readInt(file);
-    final Vector3f minBb = readVec3(file);
-    final Vector3f maxBb = readVec3(file);
-
-    for(int i = 0; i < 7; i++) {
-      readInt(file); // unused
-    }
+    final int version = file.readInt();
+    file.readInt(); // unused
+    final int doorCount = file.readInt();
+    final int spotCount = file.readInt();
+    final int cornerCount = file.readInt();
+    final int faceCount = file.readInt();
+    final int textureCount = file.readInt();
+    final Vector3f minBb = file.readVec3();
+    final Vector3f maxBb = file.readVec3();
+
+    file.skip(7 * 4); // unused
 
-    final int dataCrc = readInt(file);
+    final int dataCrc = file.readInt();
 
     return new SnoHeader(version, doorCount, spotCount, cornerCount, faceCount, textureCount, minBb, maxBb, dataCrc);
   }
 
-  private static Int2ObjectMap<SnoDoor> readDoors(final InputStream file, final int count) throws IOException {
+  private static Int2ObjectMap<SnoDoor> readDoors(final BufferReader file, final int count) throws IOException {
     final Int2ObjectMap<SnoDoor> doors = new Int2ObjectOpenHashMap<>(count);
 
     for(int i = 0; i < count; i++) {
-      final int index = readInt(file);
-      final Vector3f translation = readVec3(file);
-      final Matrix3f rotation = readMat3(file);
-
-      final IntList hotspots = new IntArrayList();
-      final int hotspotCount = readInt(file);
-      for(int hotspotIndex = 0; hotspotIndex < hotspotCount; hotspotIndex++) {
-        hotspots.add(readInt(file));
-      }
+      final int index = file.readInt();
+      final Vector3f translation = file.readVec3();
+      final Matrix3f rotation = file.readMat3();
+
+      final int[] hotspotIndices = file.readInts(file.readInt());
+      final IntList hotspots = IntArrayList.wrap(hotspotIndices);
 
       doors.put(index, new SnoDoor(index, rotation, translation, hotspots));
     }
@@ -83,13 +81,13 @@ public final class SnoLoader {
     return doors;
   }
 
-  private static List<SnoSpot> readSpots(final InputStream file, final int count) throws IOException {
+  private static List<SnoSpot> readSpots(final BufferReader file, final int count) throws IOException {
     final List<SnoSpot> spots = new ArrayList<>(count);
 
     for(int i = 0; i < count; i++) {
-      final Matrix3f rotation = readMat3(file);
-      final Vector3f translation = readVec3(file);
-      final String name = readCString(file);
+      final Matrix3f rotation = file.readMat3();
+      final Vector3f translation = file.readVec3();
+      final String name = file.readCString();
 
       spots.add(new SnoSpot(rotation, translation, name));
     }
@@ -97,18 +95,22 @@ public final class SnoLoader {
     return spots;
   }
 
-  private static List<SnoCorner> readCorners(final InputStream file, final int count) throws IOException {
+  private static List<SnoCorner> readCorners(final BufferReader file, final int count) throws IOException {
+    // Position, normal, colour and uv for every corner in one bulk read
+    final int[] words = file.readInts(count, CORNER_WORDS);
+
     final List<SnoCorner> corners = new ArrayList<>(count);
 
     for(int i = 0; i < count; i++) {
-      final Vector3f position = readVec3(file);
-      final Vector3f normal = readVec3(file);
+      final int base = i * CORNER_WORDS;
+      final Vector3f position = new Vector3f(Float.intBitsToFloat(words[base]), Float.intBitsToFloat(words[base + 1]), Float.intBitsToFloat(words[base + 2]));
+      final Vector3f normal = new Vector3f(Float.intBitsToFloat(words[base + 3]), Float.intBitsToFloat(words[base + 4]), Float.intBitsToFloat(words[base + 5]));
 
       // Stored in RGBA format...
-      final Vector4i whackColour = readVec4b(file);
-      final Vector4i colour = new Vector4i(whackColour.x, whackColour.z, whackColour.y, whackColour.w);
+      final int rgba = words[base + 6];
+      final Vector4i colour = new Vector4i(rgba & 0xff, rgba >>> 16 & 0xff, rgba >>> 8 & 0xff, rgba >>> 24);
 
-      final Vector2f uv = readVec2(file);
+      final Vector2f uv = new Vector2f(Float.intBitsToFloat(words[base + 7]), Float.intBitsToFloat(words[base + 8]));
 
       corners.add(new SnoCorner(position, normal, colour, uv));
     }
@@ -116,20 +118,23 @@ public final class SnoLoader {
     return corners;
   }
 
-  private static List<SnoSurface> readSurfaces(final InputStream file, final int count, final String texSet) throws IOException {
+  private static List<SnoSurface> readSurfaces(final BufferReader file, final int count, final String texSet) throws IOException {
     final List<SnoSurface> surfaces = new ArrayList<>(count);
 
     for(int i = 0; i < count; i++) {
-      final String texture = readCString(file).replace("_xxx_", '_' + texSet + '_');
-      final int cornerStart = readInt(file);
-      final int cornerSpan = readInt(file);
-      final int cornerCount = readInt(file);
+      final String texture = file.readCString().replace("_xxx_", '_' + texSet + '_');
+      final int cornerStart = file.readInt();
+      final int cornerSpan = file.readInt();
+      final int cornerCount = file.readInt();
 
       final int faceCount = cornerCount / 3;
-      final List<Vector3i> faces = new ArrayList<>(faceCount);
 
-      for(int faceIndex = 0; faceIndex < faceCount; faceIndex++) {
-        faces.add(readVec3s(file));
+      // Three unsigned shorts a face, read in one go
+      final short[] indices = file.readShorts(faceCount, 3);
+
+      final List<Vector3i> faces = new ArrayList<>(faceCount);
+      for(int faceIndex = 0; faceIndex < indices.length; faceIndex += 3) {
+        faces.add(new Vector3i(indices[faceIndex] & 0xffff, indices[faceIndex + 1] & 0xffff, indices[faceIndex + 2] & 0xffff));
       }
 
       surfaces.add(new SnoSurface(cornerStart, cornerSpan, cornerCount, faces, texture));
@@ -0,0 +1,80 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+final class ByteBufferChannel implements SeekableByteChannel {
+  private final ByteBuffer data;
+  private boolean open = true;
+
+  ByteBufferChannel(final ByteBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public int read(final ByteBuffer dst) throws ClosedChannelException {
+    this.ensureOpen();
+
+    if(!this.data.hasRemaining()) {
+      return -1;
+    }
+
+    final int l = Math.min(dst.remaining(), this.data.remaining());
+    dst.put(dst.position(), this.data, this.data.position(), l);
+    dst.position(dst.position() + l);
+    this.data.position(this.data.position() + l);
+    return l;
+  }
+
+  @Override
+  public int write(final ByteBuffer src) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public long position() throws ClosedChannelException {
+    this.ensureOpen();
+    return this.data.position();
+  }
+
+  @Override
+  public SeekableByteChannel position(final long newPosition) throws ClosedChannelException {
+    this.ensureOpen();
+
+    if(newPosition < 0) {
+      throw new IllegalArgumentException("Negative position " + newPosition);
+    }
+
+    this.data.position((int)Math.min(newPosition, this.data.limit()));
+    return this;
+  }
+
+  @Override
+  public long size() throws ClosedChannelException {
+    this.ensureOpen();
+    return this.data.limit();
+  }
+
+  @Override
+  public SeekableByteChannel truncate(final long size) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return this.open;
+  }
+
+  @Override
+  public void close() {
+    this.open = false;
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if(!this.open) {
+      throw new ClosedChannelException();
+    }
+  }
+}
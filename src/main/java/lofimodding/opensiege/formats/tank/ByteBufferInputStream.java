@@ -0,0 +1,48 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+final class ByteBufferInputStream extends InputStream {
+  private final ByteBuffer data;
+
+  ByteBufferInputStream(final ByteBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public int read() {
+    if(!this.data.hasRemaining()) {
+      return -1;
+    }
+
+    return this.data.get() & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) {
+    if(len == 0) {
+      return 0;
+    }
+
+    if(!this.data.hasRemaining()) {
+      return -1;
+    }
+
+    final int l = Math.min(len, this.data.remaining());
+    this.data.get(b, off, l);
+    return l;
+  }
+
+  @Override
+  public long skip(final long n) {
+    final int l = (int)Math.max(0, Math.min(n, this.data.remaining()));
+    this.data.position(this.data.position() + l);
+    return l;
+  }
+
+  @Override
+  public int available() {
+    return this.data.remaining();
+  }
+}
@@ -0,0 +1,226 @@
+package lofimodding.opensiege.formats.tank;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A compressed entry that is only inflated as far as it is read. At most one chunk is held at a time, seeking
+ * just moves the position and the chunk it lands in is inflated by the next read.
+ *
+ * <p>With a known CRC32 each chunk is checksummed as it is inflated, and the entry is verified once the last chunk
+ * has been read. Reads that skip ahead leave the entry unverified.</p>
+ */
+final class ChunkedEntryChannel implements SeekableByteChannel {
+  private final String name;
+  private final TankFormat format;
+  private final ByteBuffer window;
+  private final TankChunkHeader[] chunkHeaders;
+  /** Uncompressed offset of each chunk, plus the total size at the end */
+  private final long[] chunkOffsets;
+  private final int crc32;
+  @Nullable
+  private final CRC32 crc;
+  /** The next chunk the running CRC needs, chunks are only checksummed in order */
+  private int crcChunk;
+
+  private byte[] chunk;
+  private int chunkIndex = -1;
+  private long position;
+  private boolean open = true;
+
+  /**
+   * @param source the entry's data, starting at its first chunk
+   * @param crc32 the CRC32 to verify the entry against, or {@link TankChecksum#UNKNOWN} not to
+   */
+  ChunkedEntryChannel(final String name, final TankFormat format, final ByteBuffer source, final TankFileCompressionHeader compression, final int crc32) {
+    this.name = name;
+    this.format = format;
+    this.window = source.slice();
+    this.chunkHeaders = compression.chunkHeaders();
+    this.chunkOffsets = new long[this.chunkHeaders.length + 1];
+    this.crc32 = crc32;
+    this.crc = crc32 != TankChecksum.UNKNOWN ? new CRC32() : null;
+
+    for(int i = 0; i < this.chunkHeaders.length; i++) {
+      this.chunkOffsets[i + 1] = this.chunkOffsets[i] + this.chunkHeaders[i].uncompressedBytes();
+    }
+  }
+
+  int read(final byte[] dst, int offset, int length) throws IOException {
+    this.ensureOpen();
+
+    final long size = this.chunkOffsets[this.chunkHeaders.length];
+
+    if(this.position >= size) {
+      return -1;
+    }
+
+    length = (int)Math.min(length, size - this.position);
+    int total = 0;
+
+    while(total < length) {
+      final int index = this.chunkAt(this.position);
+      final TankChunkHeader chunkHeader = this.chunkHeaders[index];
+      final int chunkPosition = (int)(this.position - this.chunkOffsets[index]);
+      final int count = Math.min(length - total, chunkHeader.uncompressedBytes() - chunkPosition);
+
+      if(chunkPosition == 0 && count == chunkHeader.uncompressedBytes() && index != this.chunkIndex) {
+        // The whole chunk is wanted, inflate it straight into the caller's array
+        TankDecompressor.decompressChunk(this.name, this.format, this.window, chunkHeader, dst, offset);
+        this.checksum(index, dst, offset);
+      } else {
+        System.arraycopy(this.load(index), chunkPosition, dst, offset, count);
+      }
+
+      offset += count;
+      total += count;
+      this.position += count;
+    }
+
+    return total;
+  }
+
+  @Override
+  public int read(final ByteBuffer dst) throws IOException {
+    if(dst.hasArray()) {
+      final int read = this.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+
+      if(read > 0) {
+        dst.position(dst.position() + read);
+      }
+
+      return read;
+    }
+
+    this.ensureOpen();
+
+    final long size = this.chunkOffsets[this.chunkHeaders.length];
+
+    if(this.position >= size) {
+      return -1;
+    }
+
+    final int length = (int)Math.min(dst.remaining(), size - this.position);
+    int total = 0;
+
+    while(total < length) {
+      final int index = this.chunkAt(this.position);
+      final int chunkPosition = (int)(this.position - this.chunkOffsets[index]);
+      final int count = Math.min(length - total, this.chunkHeaders[index].uncompressedBytes() - chunkPosition);
+
+      dst.put(this.load(index), chunkPosition, count);
+
+      total += count;
+      this.position += count;
+    }
+
+    return total;
+  }
+
+  private byte[] load(final int index) throws IOException {
+    if(index != this.chunkIndex) {
+      if(this.chunk == null) {
+        int largest = 0;
+        for(final TankChunkHeader chunkHeader : this.chunkHeaders) {
+          largest = Math.max(largest, chunkHeader.uncompressedBytes());
+        }
+
+        this.chunk = new byte[largest];
+      }
+
+      // Forget the old chunk first in case this one fails part way through
+      this.chunkIndex = -1;
+      TankDecompressor.decompressChunk(this.name, this.format, this.window, this.chunkHeaders[index], this.chunk, 0);
+      this.checksum(index, this.chunk, 0);
+      this.chunkIndex = index;
+    }
+
+    return this.chunk;
+  }
+
+  private void checksum(final int index, final byte[] data, final int offset) throws TankChecksumException {
+    if(this.crc == null || index != this.crcChunk) {
+      return;
+    }
+
+    this.crc.update(data, offset, this.chunkHeaders[index].uncompressedBytes());
+    this.crcChunk++;
+
+    if(this.crcChunk == this.chunkHeaders.length) {
+      TankChecksum.verify(this.name, this.crc32, (int)this.crc.getValue());
+    }
+  }
+
+  private int chunkAt(final long position) {
+    int low = 0;
+    int high = this.chunkHeaders.length - 1;
+
+    while(low < high) {
+      final int mid = (low + high + 1) >>> 1;
+
+      if(this.chunkOffsets[mid] <= position) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    return low;
+  }
+
+  @Override
+  public int write(final ByteBuffer src) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public long position() throws ClosedChannelException {
+    this.ensureOpen();
+    return this.position;
+  }
+
+  @Override
+  public SeekableByteChannel position(final long newPosition) throws ClosedChannelException {
+    this.ensureOpen();
+
+    if(newPosition < 0) {
+      throw new IllegalArgumentException("Negative position " + newPosition);
+    }
+
+    this.position = newPosition;
+    return this;
+  }
+
+  @Override
+  public long size() throws ClosedChannelException {
+    this.ensureOpen();
+    return this.chunkOffsets[this.chunkHeaders.length];
+  }
+
+  @Override
+  public SeekableByteChannel truncate(final long size) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return this.open;
+  }
+
+  @Override
+  public void close() {
+    this.open = false;
+    this.chunk = null;
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if(!this.open) {
+      throw new ClosedChannelException();
+    }
+  }
+}
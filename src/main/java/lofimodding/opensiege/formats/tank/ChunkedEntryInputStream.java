@@ -0,0 +1,48 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+final class ChunkedEntryInputStream extends InputStream {
+  private final ChunkedEntryChannel channel;
+  private final byte[] single = new byte[1];
+
+  ChunkedEntryInputStream(final ChunkedEntryChannel channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return this.channel.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    if(len == 0) {
+      return 0;
+    }
+
+    return this.channel.read(b, off, len);
+  }
+
+  /**
+   * Skipped chunks are never inflated
+   */
+  @Override
+  public long skip(final long n) throws IOException {
+    final long position = this.channel.position();
+    final long skipped = Math.max(0, Math.min(n, this.channel.size() - position));
+    this.channel.position(position + skipped);
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int)Math.min(Integer.MAX_VALUE, Math.max(0, this.channel.size() - this.channel.position()));
+  }
+
+  @Override
+  public void close() {
+    this.channel.close();
+  }
+}
@@ -0,0 +1,299 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * LZO1X, the format used by {@link TankFormat#LZO} chunks. Decompression understands the output of every LZO1X
+ * compression level, compression is a simple greedy single-probe matcher in the style of LZO1X-1.
+ */
+final class Lzo1x {
+  private Lzo1x() { }
+
+  private static final int M2_MAX_LEN = 8;
+  private static final int M3_MAX_LEN = 33;
+  private static final int M4_MAX_LEN = 9;
+  private static final int M2_MAX_OFFSET = 0x0800;
+  private static final int M3_MAX_OFFSET = 0x4000;
+  private static final int M4_MAX_OFFSET = 0xbfff;
+
+  private static final int HASH_BITS = 14;
+
+  /**
+   * @param source compressed data from its position to its limit, the position is not moved
+   * @return the number of bytes written to the output
+   */
+  static int decompress(final ByteBuffer source, final byte[] output, final int outputOffset, final int outputLength) throws IOException {
+    try {
+      return decompressUnchecked(source, output, outputOffset, outputLength);
+    } catch(final IndexOutOfBoundsException e) {
+      throw new EOFException("Unexpected end of LZO data");
+    }
+  }
+
+  private static int decompressUnchecked(final ByteBuffer source, final byte[] output, final int outputOffset, final int outputLength) throws IOException {
+    final int outEnd = outputOffset + outputLength;
+    int ip = source.position();
+    int op = outputOffset;
+
+    int t;
+    int next;
+    int state = 0;
+    int matchPos;
+
+    // A first byte over 17 is a literal run with no preceding instruction
+    if((source.get(ip) & 0xff) > 17) {
+      t = (source.get(ip++) & 0xff) - 17;
+
+      if(t < 4) {
+        next = t;
+      } else {
+        op = copyLiterals(source, ip, output, op, outEnd, t);
+        ip += t;
+        next = -1;
+        state = 4;
+      }
+
+      if(next != -1) {
+        op = copyLiterals(source, ip, output, op, outEnd, next);
+        ip += next;
+        state = next;
+      }
+    }
+
+    while(true) {
+      t = source.get(ip++) & 0xff;
+
+      if(t < 16) {
+        if(state == 0) {
+          // Literal run
+          if(t == 0) {
+            final int zeroStart = ip;
+            while(source.get(ip) == 0) {
+              ip++;
+            }
+
+            t = (ip - zeroStart) * 255 + 15 + (source.get(ip++) & 0xff);
+          }
+
+          t += 3;
+          op = copyLiterals(source, ip, output, op, outEnd, t);
+          ip += t;
+          state = 4;
+          continue;
+        }
+
+        if(state != 4) {
+          // Two byte match following a short literal run
+          next = t & 3;
+          matchPos = op - 1 - (t >> 2) - ((source.get(ip++) & 0xff) << 2);
+          t = 2;
+        } else {
+          // Three byte match following a long literal run
+          next = t & 3;
+          matchPos = op - (1 + M2_MAX_OFFSET) - (t >> 2) - ((source.get(ip++) & 0xff) << 2);
+          t = 3;
+        }
+      } else if(t >= 64) {
+        // M2
+        next = t & 3;
+        matchPos = op - 1 - ((t >> 2) & 7) - ((source.get(ip++) & 0xff) << 3);
+        t = (t >> 5) + 1;
+      } else if(t >= 32) {
+        // M3
+        t = (t & 31) + 2;
+
+        if(t == 2) {
+          final int zeroStart = ip;
+          while(source.get(ip) == 0) {
+            ip++;
+          }
+
+          t += (ip - zeroStart) * 255 + 31 + (source.get(ip++) & 0xff);
+        }
+
+        next = readShort(source, ip);
+        ip += 2;
+        matchPos = op - 1 - (next >> 2);
+        next &= 3;
+      } else {
+        // M4, or the end of stream marker
+        matchPos = op - ((t & 8) << 11);
+        t = (t & 7) + 2;
+
+        if(t == 2) {
+          final int zeroStart = ip;
+          while(source.get(ip) == 0) {
+            ip++;
+          }
+
+          t += (ip - zeroStart) * 255 + 7 + (source.get(ip++) & 0xff);
+        }
+
+        next = readShort(source, ip);
+        ip += 2;
+        matchPos -= next >> 2;
+        next &= 3;
+
+        if(matchPos == op) {
+          return op - outputOffset;
+        }
+
+        matchPos -= 0x4000;
+      }
+
+      if(matchPos < outputOffset || op + t > outEnd) {
+        throw new IOException("Malformed LZO match");
+      }
+
+      if(op - matchPos >= t) {
+        System.arraycopy(output, matchPos, output, op, t);
+        op += t;
+      } else {
+        // Overlapping matches repeat their own output, so copy forwards one byte at a time
+        for(int i = 0; i < t; i++) {
+          output[op++] = output[matchPos++];
+        }
+      }
+
+      op = copyLiterals(source, ip, output, op, outEnd, next);
+      ip += next;
+      state = next;
+    }
+  }
+
+  private static int copyLiterals(final ByteBuffer source, final int ip, final byte[] output, final int op, final int outEnd, final int count) throws IOException {
+    if(op + count > outEnd) {
+      throw new IOException("LZO output overrun");
+    }
+
+    source.get(ip, output, op, count);
+    return op + count;
+  }
+
+  private static int readShort(final ByteBuffer source, final int index) {
+    return (source.get(index) & 0xff) | (source.get(index + 1) & 0xff) << 8;
+  }
+
+  static int maxCompressedLength(final int length) {
+    return length + length / 16 + 64 + 3;
+  }
+
+  /**
+   * @param output must hold at least {@link #maxCompressedLength} bytes
+   * @return the number of bytes written to the output
+   */
+  static int compress(final byte[] input, final int inputOffset, final int inputLength, final byte[] output, final int outputOffset) {
+    final int[] table = new int[1 << HASH_BITS];
+    final int inEnd = inputOffset + inputLength;
+    final int matchEnd = inEnd - 4;
+
+    int ip = inputOffset;
+    int literalStart = ip;
+    int op = outputOffset;
+
+    while(ip <= matchEnd) {
+      final int sequence = readInt(input, ip);
+      final int hash = (sequence * 0x1e35a7bd) >>> (32 - HASH_BITS);
+      final int candidate = table[hash] - 1;
+      table[hash] = ip + 1;
+
+      if(candidate < inputOffset || ip - candidate > M4_MAX_OFFSET || readInt(input, candidate) != sequence) {
+        ip++;
+        continue;
+      }
+
+      int length = 4;
+      while(ip + length < inEnd && input[candidate + length] == input[ip + length]) {
+        length++;
+      }
+
+      op = writeLiterals(input, literalStart, ip - literalStart, output, outputOffset, op);
+      op = writeMatch(output, op, length, ip - candidate);
+
+      ip += length;
+      literalStart = ip;
+    }
+
+    op = writeLiterals(input, literalStart, inEnd - literalStart, output, outputOffset, op);
+
+    // End of stream
+    output[op++] = 16 | 1;
+    output[op++] = 0;
+    output[op++] = 0;
+
+    return op - outputOffset;
+  }
+
+  private static int writeLiterals(final byte[] input, final int start, final int count, final byte[] output, final int outputOffset, int op) {
+    if(count == 0) {
+      return op;
+    }
+
+    if(op == outputOffset && count <= 238) {
+      output[op++] = (byte)(17 + count);
+    } else if(count <= 3) {
+      // Short runs live in the low bits of the previous match
+      output[op - 2] |= (byte)count;
+    } else if(count <= 18) {
+      output[op++] = (byte)(count - 3);
+    } else {
+      output[op++] = 0;
+      op = writeLength(output, op, count - 18);
+    }
+
+    System.arraycopy(input, start, output, op, count);
+    return op + count;
+  }
+
+  private static int writeMatch(final byte[] output, int op, int length, int offset) {
+    if(length <= M2_MAX_LEN && offset <= M2_MAX_OFFSET) {
+      offset--;
+      output[op++] = (byte)((length - 1) << 5 | (offset & 7) << 2);
+      output[op++] = (byte)(offset >>> 3);
+      return op;
+    }
+
+    if(offset <= M3_MAX_OFFSET) {
+      offset--;
+
+      if(length <= M3_MAX_LEN) {
+        output[op++] = (byte)(32 | length - 2);
+      } else {
+        output[op++] = 32;
+        op = writeLength(output, op, length - M3_MAX_LEN);
+      }
+    } else {
+      offset -= 0x4000;
+
+      if(length <= M4_MAX_LEN) {
+        output[op++] = (byte)(16 | (offset >>> 11) & 8 | length - 2);
+      } else {
+        output[op++] = (byte)(16 | (offset >>> 11) & 8);
+        op = writeLength(output, op, length - M4_MAX_LEN);
+      }
+    }
+
+    output[op++] = (byte)(offset << 2);
+    output[op++] = (byte)(offset >>> 6);
+    return op;
+  }
+
+  /**
+   * Lengths past the instruction's own bits are a run of zero bytes worth 255 each, then the (non-zero) remainder
+   */
+  private static int writeLength(final byte[] output, int op, int length) {
+    while(length > 255) {
+      length -= 255;
+      output[op++] = 0;
+    }
+
+    output[op++] = (byte)length;
+    return op;
+  }
+
+  private static int readInt(final byte[] data, final int offset) {
+    return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+  }
+}
@@ -3,98 +3,108 @@ package lofimodding.opensiege.formats.tank;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 
 import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Path;
 import java.util.Map;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.util.zip.CRC32;
+
+public record Tank(Path path, TankHeader header, ByteBuffer data, Int2ObjectMap<TankDirectoryEntry> directoryEntries, Int2ObjectMap<TankFileEntry> fileEntries, Map<String, TankDirectoryEntry> directoryPaths, Map<String, TankFileEntry> filePaths) {
+  /**
+   * Uncompressed entries are returned as read-only views into the mapped tank, compressed entries are inflated into a new buffer
+   */
+  public ByteBuffer slice(final String filename) throws IOException {
+    return this.slice(this.getFileEntry(filename));
+  }
+
+  ByteBuffer slice(final TankFileEntry fileEntry) throws IOException {
+    if(!fileEntry.isCompressed()) {
+      return this.region(this.header.dataOffset() + fileEntry.dataOffset(), fileEntry.entrySize());
+    }
+
+    return ByteBuffer.wrap(this.decompress(fileEntry)).order(ByteOrder.LITTLE_ENDIAN);
+  }
 
-public record Tank(Path path, TankHeader header, Int2ObjectMap<TankDirectoryEntry> directoryEntries, Int2ObjectMap<TankFileEntry> fileEntries, Map<String, TankDirectoryEntry> directoryPaths, Map<String, TankFileEntry> filePaths) {
   public byte[] getFileByPath(final String filename) throws IOException {
-    //TODO file caching
+    final TankFileEntry fileEntry = this.getFileEntry(filename);
 
-    System.out.println("Extracting file " + filename);
+    if(!fileEntry.isCompressed()) {
+      final byte[] data = new byte[fileEntry.entrySize()];
+      this.region(this.header.dataOffset() + fileEntry.dataOffset(), fileEntry.entrySize()).get(data);
+      return data;
+    }
 
+    return this.decompress(fileEntry);
+  }
+
+  TankFileEntry getFileEntry(final String filename) throws FileNotFoundException {
     final TankFileEntry fileEntry = this.filePaths.get(filename);
 
     if(fileEntry == null) {
       throw new FileNotFoundException(filename + " not found in tank archive");
     }
 
-    final byte[][] allData;
-    int totalSize = 0;
-
-    try(final FileInputStream file = new FileInputStream(this.path.toFile())) {
-      if(!fileEntry.format().isCompressed()) {
-        file.skip(this.header.dataOffset() + fileEntry.dataOffset());
-        final byte[] data = new byte[fileEntry.entrySize()];
-        file.read(data);
-        return data;
-      }
-
-      allData = new byte[fileEntry.compressionHeader().chunkHeaders().length][];
-
-      final TankChunkHeader[] chunkHeaders = fileEntry.compressionHeader().chunkHeaders();
-      for(int chunkIndex = 0; chunkIndex < chunkHeaders.length; chunkIndex++) {
-        final TankChunkHeader chunkHeader = chunkHeaders[chunkIndex];
-
-        file.getChannel().position(this.header.dataOffset() + fileEntry.dataOffset() + chunkHeader.offset());
-
-        if(chunkHeader.isCompressed()) {
-          final byte[] compressedData = new byte[chunkHeader.compressedBytes()];
-          if(file.read(compressedData) < compressedData.length) {
-            throw new EOFException("Unexpected end of file");
-          }
-
-          // Decompress
-          final byte[] uncompressedData = new byte[chunkHeader.uncompressedBytes()];
-          final int readBytes;
-          final Inflater inflater = new Inflater();
-          inflater.setInput(compressedData);
-          try {
-            readBytes = inflater.inflate(uncompressedData, 0, uncompressedData.length);
-          } catch(final DataFormatException e) {
-            throw new RuntimeException(e);
-          }
-
-          inflater.end();
-
-          if(readBytes < chunkHeader.uncompressedBytes() - chunkHeader.extraBytes()) {
-            throw new EOFException("Unexpected end of file");
-          }
-
-          // Copy extra data
-          if(chunkHeader.extraBytes() != 0) {
-            if(file.read(uncompressedData, readBytes, chunkHeader.extraBytes()) < chunkHeader.extraBytes()) {
-              throw new EOFException("Unexpected end of file");
-            }
-          }
-
-          allData[chunkIndex] = uncompressedData;
-        } else {
-          final byte[] uncompressedData = new byte[chunkHeader.uncompressedBytes()];
-          if(file.read(uncompressedData) < uncompressedData.length) {
-            throw new EOFException("Unexpected end of file");
-          }
-
-          allData[chunkIndex] = uncompressedData;
-        }
-
-        totalSize += allData[chunkIndex].length;
-      }
+    return fileEntry;
+  }
+
+  byte[] decompress(final TankFileEntry fileEntry) throws IOException {
+    return this.decompress(fileEntry, false);
+  }
+
+  /**
+   * @param verify check the output against the entry's CRC32 as it is inflated
+   */
+  byte[] decompress(final TankFileEntry fileEntry, final boolean verify) throws IOException {
+    if(verify) {
+      return TankDecompressor.decompressVerified(fileEntry.name(), fileEntry.format(), this.entryData(fileEntry), fileEntry.compressionHeader(), fileEntry.crc32());
     }
 
-    final byte[] data = new byte[totalSize];
-    int dataIndex = 0;
+    return TankDecompressor.decompress(fileEntry.name(), fileEntry.format(), this.entryData(fileEntry), fileEntry.compressionHeader());
+  }
 
-    for(final byte[] chunk : allData) {
-      System.arraycopy(chunk, 0, data, dataIndex, chunk.length);
-      dataIndex += chunk.length;
+  /**
+   * Streams a compressed entry, inflating one chunk at a time as it is read
+   *
+   * @param verify check the entry's CRC32 once the last chunk has been read
+   */
+  ChunkedEntryChannel openChunked(final TankFileEntry fileEntry, final boolean verify) throws IOException {
+    return new ChunkedEntryChannel(fileEntry.name(), fileEntry.format(), this.entryData(fileEntry), fileEntry.compressionHeader(), verify ? fileEntry.crc32() : TankChecksum.UNKNOWN);
+  }
+
+  /**
+   * Checks an uncompressed entry against its CRC32
+   */
+  void verify(final TankFileEntry fileEntry) throws IOException {
+    final CRC32 crc = new CRC32();
+    crc.update(this.slice(fileEntry));
+    TankChecksum.verify(fileEntry.name(), fileEntry.crc32(), (int)crc.getValue());
+  }
+
+  private ByteBuffer entryData(final TankFileEntry fileEntry) throws EOFException {
+    // Chunk offsets are relative to the start of the entry, bounds are checked against the end of the archive
+    final long offset = (long)this.header.dataOffset() + fileEntry.dataOffset();
+    return this.region(offset, (int)Math.max(0, this.data.capacity() - offset));
+  }
+
+  private ByteBuffer region(final long offset, final int length) throws EOFException {
+    if(offset < 0 || length < 0 || offset + length > this.data.capacity()) {
+      throw new EOFException("Unexpected end of file");
     }
 
-    return data;
+    return this.data.slice((int)offset, length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // The mapped data must never take part in equality, it would compare the entire archive
+  @Override
+  public boolean equals(final Object obj) {
+    return obj instanceof final Tank other && this.path.equals(other.path);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.path.hashCode();
   }
 
   @Override
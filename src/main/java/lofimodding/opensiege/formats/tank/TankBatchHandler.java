@@ -0,0 +1,23 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the files of a {@link TankManager#readAll} batch. Files arrive in the order they are stored rather than
+ * the order they were asked for, on several threads at once.
+ */
+@FunctionalInterface
+public interface TankBatchHandler {
+  /**
+   * @param data the same buffer {@link TankManager#slice} would return
+   */
+  void accept(String filename, ByteBuffer data) throws IOException;
+
+  /**
+   * Called instead of {@link #accept} for files that couldn't be read, or when {@link #accept} throws
+   */
+  default void failed(final String filename, final IOException e) {
+    System.err.println("Failed to read " + filename + " - " + e.getMessage());
+  }
+}
@@ -0,0 +1,193 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads a batch of files in storage order. Each tank's files are sorted by offset and grouped into runs of nearby
+ * data, the calling thread faults each run in with one sequential read while the previous runs are decompressed and
+ * handed out on the common pool.
+ */
+final class TankBatchReader {
+  private TankBatchReader() { }
+
+  /** Files closer together than this are read as one run, the gap is cheaper to read than to seek over */
+  private static final int MAX_GAP = 64 * 1024;
+  private static final int MAX_RUN = 4 * 1024 * 1024;
+  /** How many runs may be read ahead of decompression, bounding the memory a batch holds at once */
+  private static final int RUNS_AHEAD = 4;
+
+  static void read(final TankManager manager, final Collection<String> filenames, final TankBatchHandler handler) throws IOException {
+    // Group by tank, different spellings of the same file are only read once but handed out under each
+    final Map<Tank, List<Item>> tanks = new LinkedHashMap<>();
+    final Map<TankPathTrie.Node, Item> seen = new IdentityHashMap<>();
+
+    for(final String filename : filenames) {
+      final TankPathTrie.Node node = manager.findFile(filename);
+
+      if(node == null) {
+        handler.failed(filename, new FileNotFoundException(filename + " not found"));
+        continue;
+      }
+
+      final Item item = seen.get(node);
+
+      if(item != null) {
+        item.filenames.add(filename);
+      } else {
+        final Item added = new Item(filename, node);
+        seen.put(node, added);
+        tanks.computeIfAbsent(node.tank, key -> new ArrayList<>()).add(added);
+      }
+    }
+
+    int total = 0;
+    for(final List<Item> items : tanks.values()) {
+      total += items.size();
+    }
+
+    final CountDownLatch pending = new CountDownLatch(total);
+    final Semaphore runsAhead = new Semaphore(RUNS_AHEAD);
+    final AtomicReference<RuntimeException> error = new AtomicReference<>();
+    int submitted = 0;
+
+    try {
+      for(final Map.Entry<Tank, List<Item>> tank : tanks.entrySet()) {
+        final List<Item> items = tank.getValue();
+        items.sort(Comparator.comparingLong(item -> item.start));
+
+        int runStart = 0;
+        while(runStart < items.size()) {
+          long runEnd = items.get(runStart).end;
+          int next = runStart + 1;
+
+          while(next < items.size() && items.get(next).start - runEnd <= MAX_GAP && items.get(next).end - items.get(runStart).start <= MAX_RUN) {
+            runEnd = Math.max(runEnd, items.get(next).end);
+            next++;
+          }
+
+          runsAhead.acquire();
+          load(tank.getKey(), items.get(runStart).start, runEnd);
+
+          final AtomicInteger remaining = new AtomicInteger(next - runStart);
+          for(int i = runStart; i < next; i++) {
+            final Item item = items.get(i);
+            submitted++;
+
+            ForkJoinPool.commonPool().execute(() -> {
+              try {
+                deliver(manager, item, handler);
+              } catch(final RuntimeException e) {
+                if(!error.compareAndSet(null, e)) {
+                  error.get().addSuppressed(e);
+                }
+              } finally {
+                if(remaining.decrementAndGet() == 0) {
+                  runsAhead.release();
+                }
+
+                pending.countDown();
+              }
+            });
+          }
+
+          runStart = next;
+        }
+      }
+    } catch(final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted reading batch");
+    } finally {
+      // Nothing is handed out once this returns, not even after an interrupt
+      for(int i = submitted; i < total; i++) {
+        pending.countDown();
+      }
+
+      awaitUninterruptibly(pending);
+    }
+
+    if(error.get() != null) {
+      throw error.get();
+    }
+  }
+
+  private static void awaitUninterruptibly(final CountDownLatch latch) {
+    boolean interrupted = false;
+
+    while(true) {
+      try {
+        latch.await();
+        break;
+      } catch(final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+
+    if(interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void deliver(final TankManager manager, final Item item, final TankBatchHandler handler) {
+    final ByteBuffer data;
+    try {
+      data = manager.read(item.node);
+    } catch(final IOException e) {
+      for(final String filename : item.filenames) {
+        handler.failed(filename, e);
+      }
+
+      return;
+    }
+
+    for(final String filename : item.filenames) {
+      try {
+        // Each spelling gets its own position and limit
+        handler.accept(filename, item.filenames.size() == 1 ? data : data.duplicate().order(data.order()));
+      } catch(final IOException e) {
+        handler.failed(filename, e);
+      }
+    }
+  }
+
+  /**
+   * Faults a run of the mapped tank in with one sequential pass, rather than a page at a time as each file is read
+   */
+  private static void load(final Tank tank, final long start, final long end) {
+    if(tank.data() instanceof final MappedByteBuffer mapped && start >= 0 && end <= mapped.capacity()) {
+      mapped.slice((int)start, (int)(end - start)).load();
+    }
+  }
+
+  private static final class Item {
+    /** Every spelling the file was asked for by */
+    private final List<String> filenames = new ArrayList<>(1);
+    private final TankPathTrie.Node node;
+    /** Extent of the file's stored data in the tank */
+    private final long start;
+    private final long end;
+
+    private Item(final String filename, final TankPathTrie.Node node) {
+      this.filenames.add(filename);
+      this.node = node;
+      this.start = (long)node.tank.header().dataOffset() + node.entry.dataOffset();
+
+      this.end = this.start + node.entry.storedSize();
+    }
+  }
+}
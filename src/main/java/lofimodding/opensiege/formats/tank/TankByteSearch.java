@@ -0,0 +1,84 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Case-insensitive substring search straight over file bytes, without decoding them to strings. Only ASCII letters
+ * are folded, which covers everything the game's text formats use.
+ */
+public final class TankByteSearch {
+  private TankByteSearch() { }
+
+  /**
+   * @return every file that contains the query, sorted
+   */
+  public static List<String> search(final TankManager tankManager, final Collection<String> filenames, final String query) throws IOException {
+    final byte[] needle = lowerCase(query);
+    final Queue<String> matches = new ConcurrentLinkedQueue<>();
+
+    tankManager.readAll(filenames, (filename, data) -> {
+      if(indexOf(data, needle) != -1) {
+        matches.add(filename);
+      }
+    });
+
+    final List<String> sorted = new ArrayList<>(matches);
+    sorted.sort(null);
+    return sorted;
+  }
+
+  /**
+   * @param needle lowercase, as returned by {@link #lowerCase}
+   * @return the offset of the first match from the buffer's position, or -1
+   */
+  public static int indexOf(final ByteBuffer haystack, final byte[] needle) {
+    final int start = haystack.position();
+    final int last = haystack.limit() - needle.length;
+
+    if(needle.length == 0) {
+      return 0;
+    }
+
+    final byte first = needle[0];
+
+    outer:
+    for(int i = start; i <= last; i++) {
+      if(lower(haystack.get(i)) != first) {
+        continue;
+      }
+
+      for(int j = 1; j < needle.length; j++) {
+        if(lower(haystack.get(i + j)) != needle[j]) {
+          continue outer;
+        }
+      }
+
+      return i - start;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Encoded the same way tank text is decoded
+   */
+  public static byte[] lowerCase(final String query) {
+    final byte[] bytes = query.getBytes();
+
+    for(int i = 0; i < bytes.length; i++) {
+      bytes[i] = lower(bytes[i]);
+    }
+
+    return bytes;
+  }
+
+  static byte lower(final byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte)(b + ('a' - 'A')) : b;
+  }
+}
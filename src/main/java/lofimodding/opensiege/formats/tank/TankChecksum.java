@@ -0,0 +1,68 @@
+package lofimodding.opensiege.formats.tank;
+
+/**
+ * CRC32 helpers for verifying entries against {@link TankFileEntry#crc32()}
+ */
+final class TankChecksum {
+  private TankChecksum() { }
+
+  /** Tanks store 0 for entries that were never checksummed */
+  static final int UNKNOWN = 0;
+
+  private static final int POLY = 0xedb88320;
+
+  /** x^(2^n) modulo the CRC polynomial */
+  private static final int[] X2N = new int[32];
+
+  static {
+    int p = 1 << 30;
+    X2N[0] = p;
+    for(int n = 1; n < 32; n++) {
+      X2N[n] = p = multiply(p, p);
+    }
+  }
+
+  static void verify(final String name, final int expected, final int actual) throws TankChecksumException {
+    if(expected != UNKNOWN && expected != actual) {
+      throw new TankChecksumException(name, expected, actual);
+    }
+  }
+
+  /**
+   * The CRC of two blocks of data joined together, from the CRC of each, as zlib's crc32_combine
+   */
+  static int combine(final int crc1, final int crc2, long length2) {
+    // crc1 * x^(8 * length2)
+    int p = 1 << 31;
+    for(int k = 3; length2 != 0; length2 >>>= 1, k++) {
+      if((length2 & 1) != 0) {
+        p = multiply(X2N[k & 31], p);
+      }
+    }
+
+    return multiply(p, crc1) ^ crc2;
+  }
+
+  /**
+   * Multiplication modulo the CRC polynomial, in reflected bit order
+   */
+  private static int multiply(final int a, int b) {
+    int m = 1 << 31;
+    int p = 0;
+
+    while(true) {
+      if((a & m) != 0) {
+        p ^= b;
+
+        if((a & m - 1) == 0) {
+          break;
+        }
+      }
+
+      m >>>= 1;
+      b = (b & 1) != 0 ? b >>> 1 ^ POLY : b >>> 1;
+    }
+
+    return p;
+  }
+}
@@ -0,0 +1,27 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.IOException;
+
+/**
+ * An entry's data doesn't match the CRC32 recorded in its tank
+ */
+public class TankChecksumException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final int expected;
+  private final int actual;
+
+  public TankChecksumException(final String name, final int expected, final int actual) {
+    super("CRC mismatch in " + name + " - expected " + Integer.toHexString(expected) + ", got " + Integer.toHexString(actual));
+    this.expected = expected;
+    this.actual = actual;
+  }
+
+  public int expected() {
+    return this.expected;
+  }
+
+  public int actual() {
+    return this.actual;
+  }
+}
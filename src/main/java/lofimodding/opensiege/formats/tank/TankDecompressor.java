@@ -0,0 +1,232 @@
+package lofimodding.opensiege.formats.tank;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+final class TankDecompressor {
+  private TankDecompressor() { }
+
+  /** Smaller entries inflate faster on the calling thread than it takes to fork them */
+  private static final int PARALLEL_THRESHOLD = 256 * 1024;
+
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  public static byte[] decompress(final String name, final TankFormat format, final ByteBuffer source, final TankFileCompressionHeader compression) throws IOException {
+    return decompress(name, format, source, compression, isParallel(compression), TankChecksum.UNKNOWN);
+  }
+
+  /**
+   * Checksums each chunk as it is decompressed, while it is still in cache, rather than in a second pass over the output
+   *
+   * @param crc32 the entry's recorded CRC32, the check is skipped if it is unknown
+   * @throws TankChecksumException if the output doesn't match
+   */
+  public static byte[] decompressVerified(final String name, final TankFormat format, final ByteBuffer source, final TankFileCompressionHeader compression, final int crc32) throws IOException {
+    return decompress(name, format, source, compression, isParallel(compression), crc32);
+  }
+
+  static byte[] decompress(final String name, final TankFormat format, final ByteBuffer source, final TankFileCompressionHeader compression, final boolean parallel) throws IOException {
+    return decompress(name, format, source, compression, parallel, TankChecksum.UNKNOWN);
+  }
+
+  private static boolean isParallel(final TankFileCompressionHeader compression) {
+    final TankChunkHeader[] chunkHeaders = compression.chunkHeaders();
+    return chunkHeaders.length > 1 && chunkHeaders.length * (long)compression.chunkSize() >= PARALLEL_THRESHOLD;
+  }
+
+  /**
+   * @param source the entry's data, starting at its first chunk
+   * @param crc32 the CRC32 to verify the output against, or {@link TankChecksum#UNKNOWN} not to
+   */
+  private static byte[] decompress(final String name, final TankFormat format, final ByteBuffer source, final TankFileCompressionHeader compression, final boolean parallel, final int crc32) throws IOException {
+    if(!format.isCompressed()) {
+      throw new IOException("Entry " + name + " has a compression header but is stored as " + format);
+    }
+
+    final TankChunkHeader[] chunkHeaders = compression.chunkHeaders();
+
+    int totalSize = 0;
+    for(final TankChunkHeader chunkHeader : chunkHeaders) {
+      totalSize += chunkHeader.uncompressedBytes();
+    }
+
+    final byte[] output = new byte[totalSize];
+    final boolean verify = crc32 != TankChecksum.UNKNOWN;
+
+    if(!parallel) {
+      // Every chunk gets its own slice of the output
+      final Scratch scratch = SCRATCH.get();
+      final ByteBuffer window = source.slice();
+      int outputOffset = 0;
+      scratch.crc.reset();
+
+      for(final TankChunkHeader chunkHeader : chunkHeaders) {
+        decompressChunk(name, format, window, chunkHeader, output, outputOffset, scratch);
+
+        if(verify) {
+          scratch.crc.update(output, outputOffset, chunkHeader.uncompressedBytes());
+        }
+
+        outputOffset += chunkHeader.uncompressedBytes();
+      }
+
+      if(verify) {
+        TankChecksum.verify(name, crc32, (int)scratch.crc.getValue());
+      }
+
+      return output;
+    }
+
+    final int[] outputOffsets = new int[chunkHeaders.length];
+    for(int chunkIndex = 1; chunkIndex < chunkHeaders.length; chunkIndex++) {
+      outputOffsets[chunkIndex] = outputOffsets[chunkIndex - 1] + chunkHeaders[chunkIndex - 1].uncompressedBytes();
+    }
+
+    // Each chunk is checksummed by the thread that inflated it, then the CRCs are joined
+    final int[] chunkCrcs = verify ? new int[chunkHeaders.length] : null;
+
+    try {
+      ForkJoinPool.commonPool().invoke(new ChunkTask(name, format, source, chunkHeaders, output, outputOffsets, chunkCrcs, 0, chunkHeaders.length));
+    } catch(final UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    if(verify) {
+      int crc = chunkCrcs[0];
+      for(int chunkIndex = 1; chunkIndex < chunkHeaders.length; chunkIndex++) {
+        crc = TankChecksum.combine(crc, chunkCrcs[chunkIndex], chunkHeaders[chunkIndex].uncompressedBytes());
+      }
+
+      TankChecksum.verify(name, crc32, crc);
+    }
+
+    return output;
+  }
+
+  /**
+   * Decompresses a single chunk, for callers that stream an entry one chunk at a time
+   *
+   * @param window a private view of the entry's data, its position and limit are moved onto the chunk
+   */
+  static void decompressChunk(final String name, final TankFormat format, final ByteBuffer window, final TankChunkHeader chunkHeader, final byte[] output, final int outputOffset) throws IOException {
+    decompressChunk(name, format, window, chunkHeader, output, outputOffset, SCRATCH.get());
+  }
+
+  /**
+   * @param window a private view of the entry's data, its position and limit are moved onto each chunk
+   */
+  private static void decompressChunk(final String name, final TankFormat format, final ByteBuffer window, final TankChunkHeader chunkHeader, final byte[] output, final int outputOffset, final Scratch scratch) throws IOException {
+    if(!chunkHeader.isCompressed()) {
+      region(window, chunkHeader.offset(), chunkHeader.uncompressedBytes()).get(output, outputOffset, chunkHeader.uncompressedBytes());
+      return;
+    }
+
+    final int inflatedBytes = chunkHeader.uncompressedBytes() - chunkHeader.extraBytes();
+    final ByteBuffer compressed = region(window, chunkHeader.offset(), chunkHeader.compressedBytes());
+
+    if(format == TankFormat.LZO) {
+      if(Lzo1x.decompress(compressed, output, outputOffset, inflatedBytes) < inflatedBytes) {
+        throw new EOFException("Unexpected end of file");
+      }
+    } else {
+      inflate(name, compressed, output, outputOffset, inflatedBytes, scratch.inflater);
+    }
+
+    // Copy extra data
+    if(chunkHeader.extraBytes() != 0) {
+      region(window, (long)chunkHeader.offset() + chunkHeader.compressedBytes(), chunkHeader.extraBytes()).get(output, outputOffset + inflatedBytes, chunkHeader.extraBytes());
+    }
+  }
+
+  private static void inflate(final String name, final ByteBuffer compressed, final byte[] output, final int outputOffset, final int inflatedBytes, final Inflater inflater) throws IOException {
+    try {
+      inflater.setInput(compressed);
+
+      if(inflater.inflate(output, outputOffset, inflatedBytes) < inflatedBytes) {
+        throw new EOFException("Unexpected end of file");
+      }
+    } catch(final DataFormatException e) {
+      throw new IOException("Failed to inflate " + name, e);
+    } finally {
+      // Also drops the inflater's reference to the window
+      inflater.reset();
+    }
+  }
+
+  private static ByteBuffer region(final ByteBuffer window, final long offset, final int length) throws EOFException {
+    if(offset < 0 || length < 0 || offset + length > window.capacity()) {
+      throw new EOFException("Unexpected end of file");
+    }
+
+    return window.clear().position((int)offset).limit((int)offset + length);
+  }
+
+  /**
+   * Per-thread native zlib state, reset between chunks rather than reallocated. LZO needs no state beyond the output.
+   */
+  private static final class Scratch {
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+  }
+
+  private static final class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final TankFormat format;
+    private final ByteBuffer source;
+    private final TankChunkHeader[] chunkHeaders;
+    private final byte[] output;
+    private final int[] outputOffsets;
+    @Nullable
+    private final int[] chunkCrcs;
+    private final int from;
+    private final int to;
+
+    private ChunkTask(final String name, final TankFormat format, final ByteBuffer source, final TankChunkHeader[] chunkHeaders, final byte[] output, final int[] outputOffsets, @Nullable final int[] chunkCrcs, final int from, final int to) {
+      this.name = name;
+      this.format = format;
+      this.source = source;
+      this.chunkHeaders = chunkHeaders;
+      this.output = output;
+      this.outputOffsets = outputOffsets;
+      this.chunkCrcs = chunkCrcs;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if(this.to - this.from > 1) {
+        final int mid = (this.from + this.to) >>> 1;
+        invokeAll(
+          new ChunkTask(this.name, this.format, this.source, this.chunkHeaders, this.output, this.outputOffsets, this.chunkCrcs, this.from, mid),
+          new ChunkTask(this.name, this.format, this.source, this.chunkHeaders, this.output, this.outputOffsets, this.chunkCrcs, mid, this.to)
+        );
+        return;
+      }
+
+      try {
+        final Scratch scratch = SCRATCH.get();
+        final TankChunkHeader chunkHeader = this.chunkHeaders[this.from];
+        decompressChunk(this.name, this.format, this.source.slice(), chunkHeader, this.output, this.outputOffsets[this.from], scratch);
+
+        if(this.chunkCrcs != null) {
+          scratch.crc.reset();
+          scratch.crc.update(this.output, this.outputOffsets[this.from], chunkHeader.uncompressedBytes());
+          this.chunkCrcs[this.from] = (int)scratch.crc.getValue();
+        }
+      } catch(final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
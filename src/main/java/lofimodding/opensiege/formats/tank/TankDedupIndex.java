@@ -0,0 +1,158 @@
+package lofimodding.opensiege.formats.tank;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entries across every loaded tank that hold the same content, going by their recorded CRC32 and size. Entries
+ * without a CRC or without data are never grouped.
+ */
+public final class TankDedupIndex {
+  /** Only content held by more than one entry */
+  private final Long2ObjectMap<Group> groups;
+
+  private TankDedupIndex(final Long2ObjectMap<Group> groups) {
+    this.groups = groups;
+  }
+
+  static TankDedupIndex build(final List<Tank> tanks) {
+    final Long2ObjectMap<List<TankLayer>> entries = new Long2ObjectOpenHashMap<>();
+
+    for(final Tank tank : tanks) {
+      for(final Map.Entry<String, TankFileEntry> file : tank.filePaths().entrySet()) {
+        final TankFileEntry entry = file.getValue();
+
+        if(entry.crc32() != TankChecksum.UNKNOWN && entry.entrySize() != 0) {
+          List<TankLayer> layers = entries.get(key(entry));
+
+          if(layers == null) {
+            layers = new ArrayList<>(1);
+            entries.put(key(entry), layers);
+          }
+
+          layers.add(new TankLayer(tank, entry, file.getKey()));
+        }
+      }
+    }
+
+    final Long2ObjectMap<Group> groups = new Long2ObjectOpenHashMap<>();
+    for(final List<TankLayer> layers : entries.values()) {
+      if(layers.size() > 1) {
+        final TankFileEntry entry = layers.get(0).entry();
+        groups.put(key(entry), new Group("#" + Integer.toHexString(entry.crc32()) + ':' + entry.entrySize(), entry.crc32(), entry.entrySize(), List.copyOf(layers)));
+      }
+    }
+
+    return new TankDedupIndex(groups);
+  }
+
+  private static long key(final TankFileEntry entry) {
+    return (long)entry.crc32() << 32 | entry.entrySize() & 0xffffffffL;
+  }
+
+  /**
+   * @return the key every entry with this content shares, or null if no other entry has the same content
+   */
+  @Nullable
+  public String sharedKey(final TankFileEntry entry) {
+    if(entry.crc32() == TankChecksum.UNKNOWN) {
+      return null;
+    }
+
+    final Group group = this.groups.get(key(entry));
+    return group != null ? group.key : null;
+  }
+
+  /**
+   * @return every other entry with the same content as this one, or an empty list
+   */
+  public List<TankLayer> duplicatesOf(final TankFileEntry entry) {
+    if(entry.crc32() == TankChecksum.UNKNOWN) {
+      return List.of();
+    }
+
+    final Group group = this.groups.get(key(entry));
+
+    if(group == null) {
+      return List.of();
+    }
+
+    final List<TankLayer> duplicates = new ArrayList<>(group.layers.size() - 1);
+    for(final TankLayer layer : group.layers) {
+      if(layer.entry() != entry) {
+        duplicates.add(layer);
+      }
+    }
+
+    return duplicates;
+  }
+
+  /**
+   * @return groups of entries with the same content, most duplicated bytes first
+   */
+  public List<Group> groups() {
+    final List<Group> groups = new ArrayList<>(this.groups.values());
+    groups.sort(Comparator.comparingLong(Group::duplicateBytes).reversed());
+    return groups;
+  }
+
+  public Report report() {
+    int entries = 0;
+    long duplicateBytes = 0;
+    long duplicateStoredBytes = 0;
+
+    for(final Group group : this.groups.values()) {
+      entries += group.layers.size();
+      duplicateBytes += group.duplicateBytes();
+      duplicateStoredBytes += group.duplicateStoredBytes();
+    }
+
+    return new Report(this.groups.size(), entries, duplicateBytes, duplicateStoredBytes);
+  }
+
+  /**
+   * @param key shared by every entry in the group, e.g. for caching their content once
+   */
+  public record Group(String key, int crc32, int entrySize, List<TankLayer> layers) {
+    /**
+     * @return uncompressed bytes held beyond the first copy
+     */
+    public long duplicateBytes() {
+      return (long)this.entrySize * (this.layers.size() - 1);
+    }
+
+    /**
+     * @return bytes stored in the tanks beyond the smallest copy
+     */
+    public long duplicateStoredBytes() {
+      long total = 0;
+      long smallest = Long.MAX_VALUE;
+
+      for(final TankLayer layer : this.layers) {
+        final int stored = layer.entry().storedSize();
+        total += stored;
+        smallest = Math.min(smallest, stored);
+      }
+
+      return total - smallest;
+    }
+  }
+
+  /**
+   * @param entries entries that share their content with at least one other
+   * @param duplicateBytes uncompressed bytes beyond the first copy of each content
+   * @param duplicateStoredBytes bytes in the tanks beyond the smallest stored copy of each content
+   */
+  public record Report(int groups, int entries, long duplicateBytes, long duplicateStoredBytes) {
+    @Override
+    public String toString() {
+      return String.format("%d entries share %d contents, %.1f MiB duplicated (%.1f MiB stored)", this.entries, this.groups, this.duplicateBytes / 1048576.0, this.duplicateStoredBytes / 1048576.0);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package lofimodding.opensiege.formats.tank;
+
+import javax.annotation.Nullable;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+/**
+ * Attributes of a file or directory in the tanks, worked out once from its entry. Tanks only record one time per
+ * entry, it is used for all three times. The file key is the tank the entry comes from.
+ */
+public final class TankFileAttributes implements BasicFileAttributes {
+  /** Seconds between the Windows epoch of 1601 and the Unix epoch */
+  private static final long WINDOWS_EPOCH_OFFSET = 11644473600L;
+  private static final long INTERVALS_PER_SECOND = 10000000L;
+
+  private final boolean directory;
+  private final FileTime time;
+  private final long size;
+  private final long storedSize;
+  private final int crc32;
+  @Nullable
+  private final TankFormat format;
+  @Nullable
+  private final Tank tank;
+
+  private TankFileAttributes(final boolean directory, final FileTime time, final long size, final long storedSize, final int crc32, @Nullable final TankFormat format, @Nullable final Tank tank) {
+    this.directory = directory;
+    this.time = time;
+    this.size = size;
+    this.storedSize = storedSize;
+    this.crc32 = crc32;
+    this.format = format;
+    this.tank = tank;
+  }
+
+  static TankFileAttributes file(final Tank tank, final TankFileEntry entry) {
+    return new TankFileAttributes(false, fileTime(entry.fileTime()), entry.entrySize(), entry.storedSize(), entry.crc32(), entry.format(), tank);
+  }
+
+  /**
+   * @param entry null for directories no tank has an entry for, such as the root
+   */
+  static TankFileAttributes directory(@Nullable final Tank tank, @Nullable final TankDirectoryEntry entry) {
+    return new TankFileAttributes(true, fileTime(entry != null ? entry.fileTime() : 0), 0, 0, TankChecksum.UNKNOWN, null, tank);
+  }
+
+  /**
+   * @param fileTime a Windows FILETIME, 100ns intervals since 1601
+   */
+  static FileTime fileTime(final long fileTime) {
+    if(fileTime == 0) {
+      return FileTime.fromMillis(0);
+    }
+
+    final long seconds = Long.divideUnsigned(fileTime, INTERVALS_PER_SECOND) - WINDOWS_EPOCH_OFFSET;
+    final long nanos = Long.remainderUnsigned(fileTime, INTERVALS_PER_SECOND) * 100;
+    return FileTime.from(Instant.ofEpochSecond(seconds, nanos));
+  }
+
+  @Override
+  public FileTime lastModifiedTime() {
+    return this.time;
+  }
+
+  @Override
+  public FileTime lastAccessTime() {
+    return this.time;
+  }
+
+  @Override
+  public FileTime creationTime() {
+    return this.time;
+  }
+
+  @Override
+  public boolean isRegularFile() {
+    return !this.directory;
+  }
+
+  @Override
+  public boolean isDirectory() {
+    return this.directory;
+  }
+
+  @Override
+  public boolean isSymbolicLink() {
+    return false;
+  }
+
+  @Override
+  public boolean isOther() {
+    return false;
+  }
+
+  /**
+   * @return the uncompressed size
+   */
+  @Override
+  public long size() {
+    return this.size;
+  }
+
+  /**
+   * @return the bytes the entry takes up in its tank, the same as {@link #size} for stored entries
+   */
+  public long compressedSize() {
+    return this.storedSize;
+  }
+
+  /**
+   * @return the CRC32 of the uncompressed data as recorded in the tank, 0 if there is none
+   */
+  public int crc32() {
+    return this.crc32;
+  }
+
+  /**
+   * @return null for directories
+   */
+  @Nullable
+  public TankFormat format() {
+    return this.format;
+  }
+
+  /**
+   * @return the tank the entry comes from, null for directories no tank has an entry for
+   */
+  @Nullable
+  @Override
+  public Tank fileKey() {
+    return this.tank;
+  }
+}
@@ -0,0 +1,138 @@
+package lofimodding.opensiege.formats.tank;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byte-budgeted cache of decompressed tank entries. Hits only touch a concurrent map and a timestamp,
+ * eviction of the least recently used entries happens on insert once the budget is exceeded.
+ */
+public class TankFileCache {
+  private final long budget;
+  private final long maxEntrySize;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong weight = new AtomicLong();
+  private final Object evictionLock = new Object();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public TankFileCache(final long budget) {
+    this.budget = budget;
+    this.maxEntrySize = budget / 8;
+  }
+
+  @Nullable
+  public byte[] get(final String key) {
+    final Entry entry = this.entries.get(key);
+
+    if(entry == null) {
+      this.misses.increment();
+      return null;
+    }
+
+    entry.lastAccess = System.nanoTime();
+    this.hits.increment();
+    return entry.data;
+  }
+
+  public void put(final String key, final byte[] data) {
+    // Don't let a single huge entry flush everything else
+    if(data.length > this.maxEntrySize) {
+      return;
+    }
+
+    final Entry old = this.entries.put(key, new Entry(data));
+    final long weight = this.weight.addAndGet(data.length - (old != null ? old.data.length : 0));
+
+    if(weight > this.budget) {
+      this.evict();
+    }
+  }
+
+  public void clear() {
+    synchronized(this.evictionLock) {
+      for(final Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+        if(this.entries.remove(entry.getKey(), entry.getValue())) {
+          this.weight.addAndGet(-entry.getValue().data.length);
+        }
+      }
+    }
+  }
+
+  private void evict() {
+    synchronized(this.evictionLock) {
+      if(this.weight.get() <= this.budget) {
+        return;
+      }
+
+      // Access times keep changing under concurrent readers, so sort a snapshot of them
+      final List<Candidate> candidates = new ArrayList<>(this.entries.size());
+      for(final Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+        candidates.add(new Candidate(entry.getKey(), entry.getValue(), entry.getValue().lastAccess));
+      }
+
+      candidates.sort(Comparator.comparingLong(Candidate::lastAccess));
+
+      // Evict down to a low watermark so that every insert doesn't trigger another sort
+      final long target = this.budget - this.budget / 4;
+      for(final Candidate candidate : candidates) {
+        if(this.weight.get() <= target) {
+          break;
+        }
+
+        if(this.entries.remove(candidate.key(), candidate.entry())) {
+          this.weight.addAndGet(-candidate.entry().data.length);
+          this.evictions.increment();
+        }
+      }
+    }
+  }
+
+  public long budget() {
+    return this.budget;
+  }
+
+  public long weight() {
+    return this.weight.get();
+  }
+
+  public int size() {
+    return this.entries.size();
+  }
+
+  public long hits() {
+    return this.hits.sum();
+  }
+
+  public long misses() {
+    return this.misses.sum();
+  }
+
+  public long evictions() {
+    return this.evictions.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "TankFileCache " + this.size() + " entries, " + this.weight() + '/' + this.budget + " bytes, " + this.hits() + " hits, " + this.misses() + " misses, " + this.evictions() + " evictions";
+  }
+
+  private record Candidate(String key, Entry entry, long lastAccess) { }
+
+  private static final class Entry {
+    private final byte[] data;
+    private volatile long lastAccess = System.nanoTime();
+
+    private Entry(final byte[] data) {
+      this.data = data;
+    }
+  }
+}
@@ -3,5 +3,26 @@ package lofimodding.opensiege.formats.tank;
 import javax.annotation.Nullable;
 
 public record TankFileEntry(int parentOffset, int entrySize, int dataOffset, int crc32, long fileTime, TankFormat format, TankFlags flags, String name, @Nullable TankFileCompressionHeader compressionHeader) {
+  /**
+   * Compressed formats with no data have no compression header
+   */
+  public boolean isCompressed() {
+    return this.compressionHeader != null;
+  }
 
+  /**
+   * @return bytes the entry occupies in the tank's data set
+   */
+  public int storedSize() {
+    if(this.compressionHeader == null) {
+      return this.entrySize;
+    }
+
+    long size = 0;
+    for(final TankChunkHeader chunkHeader : this.compressionHeader.chunkHeaders()) {
+      size = Math.max(size, (long)chunkHeader.offset() + chunkHeader.compressedBytes() + chunkHeader.extraBytes());
+    }
+
+    return (int)size;
+  }
 }
@@ -1,22 +1,25 @@
 package lofimodding.opensiege.formats.tank;
 
-import java.io.ByteArrayInputStream;
+import javax.annotation.Nullable;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
-import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Collections;
@@ -24,17 +27,26 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class TankFileSystem extends FileSystem {
   private final TankFileSystemProvider fileSystemProvider;
   private final TankManager tankManager;
+  private final TankPathTable paths = new TankPathTable(this);
 
   public TankFileSystem(final TankFileSystemProvider fileSystemProvider, final TankManager tankManager, final Map<String, ?> env) throws IOException {
     this.fileSystemProvider = fileSystemProvider;
     this.tankManager = tankManager;
   }
 
+  public TankManager getTankManager() {
+    return this.tankManager;
+  }
+
   @Override
   public FileSystemProvider provider() {
     return this.fileSystemProvider;
@@ -77,24 +89,7 @@ public class TankFileSystem extends FileSystem {
   @Override
   public Path getPath(final String first, final String... more) {
     Objects.requireNonNull(first, "Path must not be null");
-
-    final String path;
-    if(more.length == 0) {
-      path = first;
-    } else {
-      final StringBuilder sb = new StringBuilder();
-      sb.append(first);
-      for(final String segment : more) {
-        if(!segment.isEmpty()) {
-          if(!sb.isEmpty()) {
-            sb.append('/');
-          }
-          sb.append(segment);
-        }
-      }
-      path = sb.toString();
-    }
-    return new TankPath(this, path.getBytes(StandardCharsets.UTF_8));
+    return this.paths.get(first, more);
   }
 
   @Override
@@ -224,7 +219,7 @@ public class TankFileSystem extends FileSystem {
       @Override
       public Iterator<Path> iterator() {
         return TankFileSystem.this.tankManager
-          .getChildren(dir.toAbsolutePath().normalize().toString())
+          .getChildren(((TankPath)dir).getAbsoluteName())
           .stream()
           .map(dir::resolve)
           .filter(entry -> {
@@ -243,142 +238,112 @@ public class TankFileSystem extends FileSystem {
     };
   }
 
-  public InputStream newInputStream(final Path path, final OpenOption[] options) throws IOException {
-    final String filename;
+  /**
+   * Lazily walks the files beneath a directory that match a glob relative to it, e.g. <code>**&#47;*.gas</code>, in the
+   * same order as {@link java.nio.file.Files#walk}. Directories are matched segment by segment as they are reached and
+   * skipped entirely when nothing beneath them can match, and no attributes are read along the way.
+   *
+   * @see TankGlob
+   */
+  public Stream<Path> walk(final Path start, final String glob) throws IOException {
+    final String absolute = ((TankPath)start).getAbsoluteName();
+    final TankPathTrie.Node node = this.tankManager.findNode(absolute);
+
+    if(node == null) {
+      throw new NoSuchFileException(absolute);
+    }
 
-    // If just given a filename, look up the path
-    if(path.toString().indexOf('/') == -1) {
-      filename = this.tankManager.lookupPath(path.toString());
-    } else {
-      filename = path.toAbsolutePath().normalize().toString();
+    if(node.isFile()) {
+      throw new NotDirectoryException(absolute);
     }
 
-    return new ByteArrayInputStream(this.tankManager.getFileByPath(filename));
+    final TankTreeWalker walker = new TankTreeWalker(node, new TankPath(this, ((TankPath)start).getResolvedPath(), true), TankGlob.compile(glob));
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walker, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
   }
 
-  public <A extends BasicFileAttributes> SeekableByteChannel newByteChannel(final Path path, final Set<? extends OpenOption> options, final FileAttribute<?>[] attrs) throws IOException {
-    final byte[] data = this.tankManager.getFileByPath(path.toAbsolutePath().normalize().toString());
-
-    return new SeekableByteChannel() {
-      private long position;
-
-      @Override
-      public int read(final ByteBuffer dst) {
-        final int l = (int)Math.min(dst.remaining(), this.size() - this.position);
-        dst.put(data, (int)this.position, l);
-        this.position += l;
-        return l;
-      }
-
-      @Override
-      public int write(final ByteBuffer src) {
-        throw new UnsupportedOperationException();
-      }
-
-      @Override
-      public long position() {
-        return this.position;
-      }
-
-      @Override
-      public SeekableByteChannel position(final long newPosition) {
-        this.position = newPosition;
-        return this;
-      }
-
-      @Override
-      public long size() {
-        return data.length;
-      }
-
-      @Override
-      public SeekableByteChannel truncate(final long size) {
-        throw new UnsupportedOperationException();
-      }
+  public InputStream newInputStream(final Path path, final OpenOption[] options) throws IOException {
+    final String filename = this.filename(path);
 
-      @Override
-      public boolean isOpen() {
-        return true;
-      }
+    if(filename == null) {
+      throw new FileNotFoundException(path + " not found");
+    }
 
-      @Override
-      public void close() {
-      }
-    };
+    return this.tankManager.newInputStream(filename);
   }
 
-  public <A extends BasicFileAttributes> A readAttributes(final Path path, final Class<A> clazz, final LinkOption... options) throws IOException {
-    if(clazz != BasicFileAttributes.class) {
-      throw new UnsupportedOperationException();
-    }
-
-    final String absolute = path.toAbsolutePath().normalize().toString();
+  /**
+   * @return the file's data, sliced straight out of its tank if it is stored uncompressed
+   *
+   * @see TankManager#slice
+   */
+  public ByteBuffer slice(final Path path) throws IOException {
+    final String filename = this.filename(path);
 
-    final String type;
-    final long size;
-    if(this.tankManager.isDir(absolute)) {
-      type = "directory";
-      size = 0;
-    } else {
-      type = "file";
-      size = this.tankManager.getFileInfo(absolute).entrySize();
+    if(filename == null) {
+      throw new FileNotFoundException(path + " not found");
     }
 
-    return (A)new TankFileAttributes(type, size);
+    return this.tankManager.slice(filename);
   }
 
-  private static final class TankFileAttributes implements BasicFileAttributes {
-    private final String type;
-    private final long size;
+  /**
+   * @return a key shared by every file with the same content as this one, or null if it doesn't exist
+   *
+   * @see TankManager#getContentKey
+   */
+  @Nullable
+  public String getContentKey(final Path path) {
+    final String filename = this.filename(path);
+    return filename != null ? this.tankManager.getContentKey(filename) : null;
+  }
 
-    private TankFileAttributes(final String type, final long size) {
-      this.type = type;
-      this.size = size;
-    }
+  /**
+   * Bare filenames are looked up in any directory
+   */
+  @Nullable
+  private String filename(final Path path) {
+    final TankPath tankPath = (TankPath)path;
 
-    @Override
-    public FileTime lastModifiedTime() {
-      return null;
+    if(tankPath.isBareName()) {
+      return this.tankManager.lookupPath(tankPath.toString());
     }
 
-    @Override
-    public FileTime lastAccessTime() {
-      return null;
-    }
+    return tankPath.getAbsoluteName();
+  }
 
-    @Override
-    public FileTime creationTime() {
-      return null;
-    }
+  public <A extends BasicFileAttributes> SeekableByteChannel newByteChannel(final Path path, final Set<? extends OpenOption> options, final FileAttribute<?>[] attrs) throws IOException {
+    return this.tankManager.newByteChannel(((TankPath)path).getAbsoluteName());
+  }
 
-    @Override
-    public boolean isRegularFile() {
-      return "file".equals(this.type);
-    }
+  public void checkAccess(final Path path, final AccessMode... modes) throws IOException {
+    final String absolute = ((TankPath)path).getAbsoluteName();
 
-    @Override
-    public boolean isDirectory() {
-      return "directory".equals(this.type);
+    if(this.tankManager.findNode(absolute) == null) {
+      throw new NoSuchFileException(absolute);
     }
 
-    @Override
-    public boolean isSymbolicLink() {
-      return false;
+    for(final AccessMode mode : modes) {
+      if(mode != AccessMode.READ) {
+        throw new AccessDeniedException(absolute, null, "Tanks are read-only");
+      }
     }
+  }
 
-    @Override
-    public boolean isOther() {
-      return false;
+  /**
+   * Also accepts {@link TankFileAttributes}
+   */
+  public <A extends BasicFileAttributes> A readAttributes(final Path path, final Class<A> clazz, final LinkOption... options) throws IOException {
+    if(!clazz.isAssignableFrom(TankFileAttributes.class)) {
+      throw new UnsupportedOperationException();
     }
 
-    @Override
-    public long size() {
-      return this.size;
-    }
+    final String absolute = ((TankPath)path).getAbsoluteName();
+    final TankPathTrie.Node node = this.tankManager.findNode(absolute);
 
-    @Override
-    public Object fileKey() {
-      return null;
+    if(node == null) {
+      throw new NoSuchFileException(absolute);
     }
+
+    return clazz.cast(this.tankManager.getAttributes(node));
   }
 }
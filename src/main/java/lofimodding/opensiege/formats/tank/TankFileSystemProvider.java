@@ -161,8 +161,11 @@ public class TankFileSystemProvider extends FileSystemProvider {
   }
 
   @Override
-  public void checkAccess(final Path path, final AccessMode... modes) {
-
+  public void checkAccess(final Path path, final AccessMode... modes) throws IOException {
+    if(!(path instanceof TankPath)) {
+      throw new ProviderMismatchException();
+    }
+    ((TankPath)path).getFileSystem().checkAccess(path, modes);
   }
 
   @Override
@@ -0,0 +1,319 @@
+package lofimodding.opensiege.formats.tank;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A glob split into one matcher per path segment, so that a walk can match each directory as it reaches it and skip
+ * those that can't lead to a match. Matching ignores case, like tank paths.
+ *
+ * <p>Segments support <code>*</code>, <code>?</code>, <code>[abc]</code>, <code>[a-z]</code>, <code>[!a]</code>,
+ * <code>{a,b}</code> and <code>\</code> escapes. A segment of just <code>**</code> matches any number of directories,
+ * none included. Braces can't span segments.</p>
+ */
+final class TankGlob {
+  private final Segment[] segments;
+
+  private TankGlob(final Segment[] segments) {
+    this.segments = segments;
+  }
+
+  static TankGlob compile(final String glob) {
+    final List<Segment> segments = new ArrayList<>();
+    int depth = 0;
+    int start = 0;
+
+    for(int i = 0; i <= glob.length(); i++) {
+      final char c = i < glob.length() ? glob.charAt(i) : '/';
+
+      if(c == '\\') {
+        i++;
+      } else if(c == '{') {
+        depth++;
+      } else if(c == '}') {
+        depth--;
+      } else if(c == '/' && depth == 0) {
+        if(i > start) {
+          segments.add(Segment.compile(glob.substring(start, i)));
+        }
+
+        start = i + 1;
+      } else if(c == '/') {
+        throw new IllegalArgumentException("Braces can't span segments: " + glob);
+      }
+    }
+
+    if(segments.size() > 63) {
+      throw new IllegalArgumentException("Too many segments: " + glob);
+    }
+
+    return new TankGlob(segments.toArray(new Segment[0]));
+  }
+
+  /**
+   * Matching starts from this and moves through {@link #step} one name at a time. Each set bit is a segment the next
+   * name could match, a bit past the last segment means everything has matched.
+   */
+  long start() {
+    return this.closure(1L);
+  }
+
+  /**
+   * @return the states after a name, 0 if nothing can match below it
+   */
+  long step(final long states, final String name) {
+    long next = 0;
+
+    for(int i = 0; i < this.segments.length; i++) {
+      if((states & 1L << i) != 0) {
+        final Segment segment = this.segments[i];
+
+        if(segment.anyDepth) {
+          next |= 1L << i;
+        } else if(segment.matches(name)) {
+          next |= 1L << i + 1;
+        }
+      }
+    }
+
+    return this.closure(next);
+  }
+
+  boolean isMatch(final long states) {
+    return (states & 1L << this.segments.length) != 0;
+  }
+
+  /**
+   * @return whether a directory in these states could still have matches beneath it
+   */
+  boolean canDescend(final long states) {
+    return (states & (1L << this.segments.length) - 1) != 0;
+  }
+
+  /**
+   * @return the one name the next step can match, or null if it can match more than one
+   */
+  @Nullable
+  String literal(final long states) {
+    if(Long.bitCount(states) != 1) {
+      return null;
+    }
+
+    final int index = Long.numberOfTrailingZeros(states);
+    return index < this.segments.length ? this.segments[index].literal : null;
+  }
+
+  /**
+   * A <code>**</code> can also match nothing
+   */
+  private long closure(long states) {
+    for(int i = 0; i < this.segments.length; i++) {
+      if((states & 1L << i) != 0 && this.segments[i].anyDepth) {
+        states |= 1L << i + 1;
+      }
+    }
+
+    return states;
+  }
+
+  private static final class Segment {
+    private final boolean anyDepth;
+    /** Set when the segment has no wildcards, unescaped */
+    @Nullable
+    private final String literal;
+    /** Brace alternatives expanded */
+    private final String[] alternatives;
+
+    private Segment(final boolean anyDepth, @Nullable final String literal, final String[] alternatives) {
+      this.anyDepth = anyDepth;
+      this.literal = literal;
+      this.alternatives = alternatives;
+    }
+
+    private static Segment compile(final String segment) {
+      if("**".equals(segment)) {
+        return new Segment(true, null, new String[0]);
+      }
+
+      final List<String> alternatives = new ArrayList<>();
+      expand(segment, alternatives);
+
+      final String literal = alternatives.size() == 1 ? unescape(alternatives.get(0)) : null;
+      return new Segment(false, literal, alternatives.toArray(new String[0]));
+    }
+
+    /**
+     * Expands the first group of braces, then the rest in each result
+     */
+    private static void expand(final String pattern, final List<String> out) {
+      int open = -1;
+      int depth = 0;
+
+      for(int i = 0; i < pattern.length(); i++) {
+        final char c = pattern.charAt(i);
+
+        if(c == '\\') {
+          i++;
+        } else if(c == '{') {
+          if(depth++ == 0) {
+            open = i;
+          }
+        } else if(c == '}' && depth > 0 && --depth == 0) {
+          final String prefix = pattern.substring(0, open);
+          final String suffix = pattern.substring(i + 1);
+
+          int start = open + 1;
+          int inner = 0;
+          for(int j = open + 1; j <= i; j++) {
+            final char d = pattern.charAt(j);
+
+            if(d == '\\') {
+              j++;
+            } else if(d == '{') {
+              inner++;
+            } else if(d == '}' && inner > 0) {
+              inner--;
+            } else if((d == ',' && inner == 0) || j == i) {
+              expand(prefix + pattern.substring(start, j) + suffix, out);
+              start = j + 1;
+            }
+          }
+
+          return;
+        }
+      }
+
+      out.add(pattern);
+    }
+
+    /**
+     * @return the pattern without escapes, or null if it has wildcards
+     */
+    @Nullable
+    private static String unescape(final String pattern) {
+      final StringBuilder sb = new StringBuilder(pattern.length());
+
+      for(int i = 0; i < pattern.length(); i++) {
+        final char c = pattern.charAt(i);
+
+        if(c == '*' || c == '?' || c == '[') {
+          return null;
+        }
+
+        if(c == '\\' && i + 1 < pattern.length()) {
+          i++;
+        }
+
+        sb.append(pattern.charAt(i));
+      }
+
+      return sb.toString();
+    }
+
+    private boolean matches(final String name) {
+      if(this.literal != null) {
+        return this.literal.equalsIgnoreCase(name);
+      }
+
+      for(final String alternative : this.alternatives) {
+        if(matches(alternative, name)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    /**
+     * Wildcard matching that backtracks to the last star only, linear in practice
+     */
+    private static boolean matches(final String pattern, final String name) {
+      int p = 0;
+      int n = 0;
+      int starP = -1;
+      int starN = 0;
+
+      while(n < name.length()) {
+        if(p < pattern.length()) {
+          final char c = pattern.charAt(p);
+
+          if(c == '*') {
+            starP = ++p;
+            starN = n;
+            continue;
+          }
+
+          final int next = matchOne(pattern, p, name.charAt(n));
+          if(next != -1) {
+            p = next;
+            n++;
+            continue;
+          }
+        }
+
+        if(starP == -1) {
+          return false;
+        }
+
+        p = starP;
+        n = ++starN;
+      }
+
+      while(p < pattern.length() && pattern.charAt(p) == '*') {
+        p++;
+      }
+
+      return p == pattern.length();
+    }
+
+    /**
+     * @return the pattern index after the token at p if it matches the character, or -1
+     */
+    private static int matchOne(final String pattern, int p, final char c) {
+      final char token = pattern.charAt(p);
+
+      if(token == '?') {
+        return p + 1;
+      }
+
+      if(token == '[') {
+        final int close = pattern.indexOf(']', p + 2);
+
+        if(close != -1) {
+          p++;
+          final boolean negate = pattern.charAt(p) == '!';
+          if(negate) {
+            p++;
+          }
+
+          boolean found = false;
+          for(int i = p; i < close; i++) {
+            if(i + 2 < close && pattern.charAt(i + 1) == '-') {
+              found |= inRange(c, pattern.charAt(i), pattern.charAt(i + 2));
+              i += 2;
+            } else {
+              found |= equalsIgnoreCase(c, pattern.charAt(i));
+            }
+          }
+
+          return found != negate ? close + 1 : -1;
+        }
+      }
+
+      if(token == '\\' && p + 1 < pattern.length()) {
+        return equalsIgnoreCase(c, pattern.charAt(p + 1)) ? p + 2 : -1;
+      }
+
+      return equalsIgnoreCase(c, token) ? p + 1 : -1;
+    }
+
+    private static boolean inRange(final char c, final char low, final char high) {
+      return c >= low && c <= high || Character.toLowerCase(c) >= low && Character.toLowerCase(c) <= high || Character.toUpperCase(c) >= low && Character.toUpperCase(c) <= high;
+    }
+
+    private static boolean equalsIgnoreCase(final char a, final char b) {
+      return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+  }
+}
@@ -0,0 +1,316 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds every case-insensitive occurrence of a string in a set of files with Boyer-Moore-Horspool, scanning the
+ * mapped data of stored entries and the inflated chunks of compressed ones in place. Compressed entries are inflated
+ * one chunk at a time and never cached, so a search holds at most one chunk per worker however much it reads.
+ * Matches that straddle two chunks are found from the tail of one chunk kept alongside the head of the next.
+ *
+ * <p>Only ASCII letters are folded, like {@link TankByteSearch}.</p>
+ */
+public final class TankGrep {
+  /** Files per task once a search has been split this far */
+  private static final int FILES_PER_TASK = 16;
+
+  private final byte[] needle;
+  /** How far the window moves when its last byte is a given byte, both cases of a letter shift alike */
+  private final int[] shifts = new int[256];
+
+  public TankGrep(final String query) {
+    this.needle = TankByteSearch.lowerCase(query);
+
+    if(this.needle.length == 0) {
+      throw new IllegalArgumentException("Empty query");
+    }
+
+    final int last = this.needle.length - 1;
+    for(int i = 0; i < this.shifts.length; i++) {
+      this.shifts[i] = this.needle.length;
+    }
+
+    for(int i = 0; i < last; i++) {
+      final int b = this.needle[i] & 0xff;
+      this.shifts[b] = last - i;
+
+      if(b >= 'a' && b <= 'z') {
+        this.shifts[b - ('a' - 'A')] = last - i;
+      }
+    }
+  }
+
+  /**
+   * Searches every file in the loaded tanks
+   */
+  public List<Match> searchAll(final TankManager tankManager) throws IOException {
+    return this.search(tankManager, tankManager.getFiles());
+  }
+
+  /**
+   * Files are searched in storage order across the common pool
+   *
+   * @return every match, ordered by file then offset
+   */
+  public List<Match> search(final TankManager tankManager, final Collection<String> filenames) throws IOException {
+    final List<Item> items = new ArrayList<>(filenames.size());
+    final Set<TankPathTrie.Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for(final String filename : filenames) {
+      final TankPathTrie.Node node = tankManager.findFile(filename);
+
+      if(node == null) {
+        throw new FileNotFoundException(filename + " not found");
+      }
+
+      if(seen.add(node)) {
+        items.add(new Item(filename, node));
+      }
+    }
+
+    // Neighbouring tasks read neighbouring data
+    items.sort(Comparator.<Item, String>comparing(item -> item.node.tank.path().toString()).thenComparingInt(item -> item.node.entry.dataOffset()));
+
+    final List<Match> matches;
+    try {
+      matches = ForkJoinPool.commonPool().invoke(new SearchTask(this, tankManager, items, 0, items.size()));
+    } catch(final UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    matches.sort(Comparator.comparing(Match::filename).thenComparingLong(Match::offset));
+    return matches;
+  }
+
+  private void searchFile(final TankManager tankManager, final Item item, final List<Match> matches) throws IOException {
+    final Tank tank = item.node.tank;
+    final TankFileEntry entry = item.node.entry;
+    final Scan scan = new Scan(item.filename, matches);
+
+    if(!entry.isCompressed()) {
+      if(tankManager.isVerifyChecksums()) {
+        tank.verify(entry);
+      }
+
+      this.scan(scan, tank.slice(entry));
+      return;
+    }
+
+    final byte[] cached = tankManager.getCached(item.node);
+
+    if(cached != null) {
+      this.scan(scan, ByteBuffer.wrap(cached));
+      return;
+    }
+
+    final TankChunkHeader[] chunkHeaders = entry.compressionHeader().chunkHeaders();
+
+    int largest = 0;
+    for(final TankChunkHeader chunkHeader : chunkHeaders) {
+      largest = Math.max(largest, chunkHeader.uncompressedBytes());
+    }
+
+    final byte[] chunk = new byte[largest];
+
+    try(final ChunkedEntryChannel channel = tank.openChunked(entry, tankManager.isVerifyChecksums())) {
+      for(final TankChunkHeader chunkHeader : chunkHeaders) {
+        // Whole chunks are inflated straight into the array
+        int read = 0;
+        while(read < chunkHeader.uncompressedBytes()) {
+          final int count = channel.read(chunk, read, chunkHeader.uncompressedBytes() - read);
+
+          if(count == -1) {
+            break;
+          }
+
+          read += count;
+        }
+
+        this.scan(scan, ByteBuffer.wrap(chunk, 0, read));
+      }
+    }
+  }
+
+  /**
+   * Scans the next piece of a file, including matches that start in earlier pieces and end in this one
+   */
+  private void scan(final Scan scan, final ByteBuffer segment) {
+    final int start = segment.position();
+    final int length = segment.remaining();
+    final int overlap = this.needle.length - 1;
+
+    // Matches across the seam, starting in the carried tail of earlier pieces
+    if(scan.carried != 0 && length != 0) {
+      final int head = Math.min(overlap, length);
+      System.arraycopy(scan.carry, 0, scan.seam, 0, scan.carried);
+      segment.get(start, scan.seam, scan.carried, head);
+
+      final ByteBuffer seam = ByteBuffer.wrap(scan.seam, 0, scan.carried + head);
+      int from = 0;
+      int found;
+      while((found = this.indexOf(seam, from)) != -1 && found < scan.carried) {
+        int line = scan.lines;
+        for(int i = found; i < scan.carried; i++) {
+          if(scan.carry[i] == '\n') {
+            line--;
+          }
+        }
+
+        scan.matches.add(new Match(scan.filename, scan.offset - scan.carried + found, line + 1));
+        from = found + 1;
+      }
+    }
+
+    int counted = start;
+    int from = start;
+    int found;
+    while((found = this.indexOf(segment, from)) != -1) {
+      for(; counted < found; counted++) {
+        if(segment.get(counted) == '\n') {
+          scan.lines++;
+        }
+      }
+
+      scan.matches.add(new Match(scan.filename, scan.offset + found - start, scan.lines + 1));
+      from = found + 1;
+    }
+
+    final int end = start + length;
+    for(; counted < end; counted++) {
+      if(segment.get(counted) == '\n') {
+        scan.lines++;
+      }
+    }
+
+    // Keep the last bytes seen, which may span several short pieces
+    if(length >= overlap) {
+      segment.get(end - overlap, scan.carry, 0, overlap);
+      scan.carried = overlap;
+    } else {
+      final int keep = Math.min(overlap, scan.carried + length);
+      final int fromCarry = keep - length;
+      System.arraycopy(scan.carry, scan.carried - fromCarry, scan.carry, 0, fromCarry);
+      segment.get(start, scan.carry, fromCarry, length);
+      scan.carried = keep;
+    }
+
+    scan.offset += length;
+  }
+
+  /**
+   * @return the absolute index of the next match at or after from, or -1
+   */
+  private int indexOf(final ByteBuffer haystack, final int from) {
+    final byte[] needle = this.needle;
+    final int last = needle.length - 1;
+    final int end = haystack.limit() - last;
+
+    int i = from;
+    while(i < end) {
+      final byte tail = haystack.get(i + last);
+
+      if(TankByteSearch.lower(tail) == needle[last]) {
+        int j = last - 1;
+        while(j >= 0 && TankByteSearch.lower(haystack.get(i + j)) == needle[j]) {
+          j--;
+        }
+
+        if(j < 0) {
+          return i;
+        }
+      }
+
+      i += this.shifts[tail & 0xff];
+    }
+
+    return -1;
+  }
+
+  /**
+   * @param offset from the start of the uncompressed file
+   * @param line starting at 1
+   */
+  public record Match(String filename, long offset, int line) {
+    @Override
+    public String toString() {
+      return this.filename + ':' + this.line + " (offset " + this.offset + ')';
+    }
+  }
+
+  private record Item(String filename, TankPathTrie.Node node) { }
+
+  /**
+   * Progress through one file
+   */
+  private final class Scan {
+    private final String filename;
+    private final List<Match> matches;
+    /** Offset of the next piece in the file */
+    private long offset;
+    /** Line breaks before the next piece */
+    private int lines;
+    /** The last bytes of the file so far, too few to hold a match on their own */
+    private final byte[] carry = new byte[TankGrep.this.needle.length - 1];
+    private int carried;
+    private final byte[] seam = new byte[(TankGrep.this.needle.length - 1) * 2];
+
+    private Scan(final String filename, final List<Match> matches) {
+      this.filename = filename;
+      this.matches = matches;
+    }
+  }
+
+  private static final class SearchTask extends RecursiveTask<List<Match>> {
+    private static final long serialVersionUID = 1L;
+
+    private final TankGrep grep;
+    private final TankManager tankManager;
+    private final List<Item> items;
+    private final int start;
+    private final int end;
+
+    private SearchTask(final TankGrep grep, final TankManager tankManager, final List<Item> items, final int start, final int end) {
+      this.grep = grep;
+      this.tankManager = tankManager;
+      this.items = items;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected List<Match> compute() {
+      if(this.end - this.start > FILES_PER_TASK) {
+        final int mid = (this.start + this.end) >>> 1;
+        final SearchTask right = new SearchTask(this.grep, this.tankManager, this.items, mid, this.end);
+        right.fork();
+
+        final List<Match> matches = new SearchTask(this.grep, this.tankManager, this.items, this.start, mid).compute();
+        matches.addAll(right.join());
+        return matches;
+      }
+
+      final List<Match> matches = new ArrayList<>();
+      for(int i = this.start; i < this.end; i++) {
+        try {
+          this.grep.searchFile(this.tankManager, this.items.get(i), matches);
+        } catch(final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+      return matches;
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package lofimodding.opensiege.formats.tank;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Binary sidecar holding a tank's parsed index and path maps. A sidecar is only used if the tank's path, size
+ * and modification time match the ones it was written for, anything else falls back to parsing the tank.
+ */
+final class TankIndexCache {
+  private TankIndexCache() { }
+
+  private static final int MAGIC = 0x58495354; // STIX
+  private static final int VERSION = 1;
+
+  /** Magic, version, tank size, tank modification time, path length */
+  private static final int KEY_SIZE = 4 + 4 + 8 + 8 + 4;
+  /** The smallest a directory can be: offsets, child count, time and name length */
+  private static final int DIR_SIZE = 4 + 4 + 4 + 8 + 4;
+  /** The smallest a file can be: offsets, size, crc, time, format, flags, name length and chunk count */
+  private static final int FILE_SIZE = 4 + 4 + 4 + 4 + 4 + 8 + 4 + 4 + 4 + 4;
+
+  static Path sidecarPath(final Path cacheDir, final Path tankPath) {
+    final Path absolute = tankPath.toAbsolutePath().normalize();
+    return cacheDir.resolve(absolute.getFileName() + "-" + Integer.toHexString(absolute.toString().hashCode()) + ".idx");
+  }
+
+  /**
+   * @return the cached index, or null if there is no valid sidecar for this version of the tank
+   */
+  @Nullable
+  static Tank load(final Path cacheDir, final Path tankPath, final long tankSize, final long tankModified, final ByteBuffer tankData) {
+    final Path sidecar = sidecarPath(cacheDir, tankPath);
+
+    if(!Files.isRegularFile(sidecar)) {
+      return null;
+    }
+
+    try(final FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+      final byte[] expectedPath = tankPath.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+
+      // Check the key before mapping, stale sidecars get rewritten and some platforms can't replace a mapped file
+      final ByteBuffer key = ByteBuffer.allocate(KEY_SIZE + expectedPath.length).order(ByteOrder.LITTLE_ENDIAN);
+      while(key.hasRemaining() && channel.read(key) >= 0) {
+        // Keep reading
+      }
+
+      key.flip();
+
+      if(key.remaining() < KEY_SIZE || key.getInt() != MAGIC || key.getInt() != VERSION || key.getLong() != tankSize || key.getLong() != tankModified || key.getInt() != expectedPath.length || !key.slice().equals(ByteBuffer.wrap(expectedPath))) {
+        return null;
+      }
+
+      final ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, key.limit(), channel.size() - key.limit()).order(ByteOrder.LITTLE_ENDIAN);
+      return read(tankPath, index, tankData);
+    } catch(final IOException | RuntimeException e) {
+      // Corrupt counts, codes and keys all end up here, a bad sidecar is never worse than no sidecar
+      System.err.println("Ignoring unreadable tank index " + sidecar + ": " + e);
+      return null;
+    }
+  }
+
+  private static Tank read(final Path tankPath, final ByteBuffer index, final ByteBuffer tankData) {
+    final TankHeader header = new TankHeader(
+      getString(index),
+      getString(index),
+      index.getInt(),
+      index.getInt(),
+      index.getInt(),
+      index.getInt(),
+      index.getInt(),
+      TankPriority.fromCode(index.getInt())
+    );
+
+    final int dirCount = count(index, DIR_SIZE);
+    final Int2ObjectMap<TankDirectoryEntry> dirEntries = new Int2ObjectOpenHashMap<>(dirCount);
+    for(int dirIndex = 0; dirIndex < dirCount; dirIndex++) {
+      final int dirOffset = index.getInt();
+      final int parentOffset = index.getInt();
+      final int childCount = count(index, 4);
+      final long fileTime = index.getLong();
+      final String dirName = getString(index);
+      final int[] childOffsets = new int[childCount];
+      index.asIntBuffer().get(childOffsets);
+      index.position(index.position() + childCount * 4);
+
+      dirEntries.put(dirOffset, new TankDirectoryEntry(parentOffset, childCount, fileTime, dirName, childOffsets));
+    }
+
+    final int fileCount = count(index, FILE_SIZE);
+    final Int2ObjectMap<TankFileEntry> fileEntries = new Int2ObjectOpenHashMap<>(fileCount);
+    for(int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+      final int fileOffset = index.getInt();
+      final int parentOffset = index.getInt();
+      final int entrySize = index.getInt();
+      final int dataOffset = index.getInt();
+      final int crc32 = index.getInt();
+      final long fileTime = index.getLong();
+      final TankFormat format = TankFormat.fromIndex(index.getInt());
+      final TankFlags flags = TankFlags.fromCode(index.getInt());
+      final String name = getString(index);
+
+      @Nullable final TankFileCompressionHeader compressionHeader;
+      final int chunkCount = index.getInt();
+      if(chunkCount >= 0) {
+        final int compressedSize = index.getInt();
+        final int chunkSize = index.getInt();
+
+        if(chunkCount > index.remaining() / 16) {
+          throw new BufferUnderflowException();
+        }
+
+        final TankChunkHeader[] chunkHeaders = new TankChunkHeader[chunkCount];
+
+        for(int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+          chunkHeaders[chunkIndex] = new TankChunkHeader(index.getInt(), index.getInt(), index.getInt(), index.getInt());
+        }
+
+        compressionHeader = new TankFileCompressionHeader(compressedSize, chunkSize, chunkHeaders);
+      } else {
+        compressionHeader = null;
+      }
+
+      fileEntries.put(fileOffset, new TankFileEntry(parentOffset, entrySize, dataOffset, crc32, fileTime, format, flags, name, compressionHeader));
+    }
+
+    final int dirPathCount = count(index, 8);
+    final Map<String, TankDirectoryEntry> directoryPaths = new HashMap<>(dirPathCount * 4 / 3 + 1);
+    for(int i = 0; i < dirPathCount; i++) {
+      final String path = getString(index);
+      directoryPaths.put(path, require(dirEntries, index.getInt(), path));
+    }
+
+    final int filePathCount = count(index, 8);
+    final Map<String, TankFileEntry> filePaths = new HashMap<>(filePathCount * 4 / 3 + 1);
+    for(int i = 0; i < filePathCount; i++) {
+      final String path = getString(index);
+      filePaths.put(path, require(fileEntries, index.getInt(), path));
+    }
+
+    return new Tank(tankPath, header, tankData, dirEntries, fileEntries, directoryPaths, filePaths);
+  }
+
+  /**
+   * Failures are reported but never fatal, the sidecar will just be rebuilt on the next launch
+   */
+  static void save(final Path cacheDir, final Tank tank, final long tankSize, final long tankModified) {
+    final Path sidecar = sidecarPath(cacheDir, tank.path());
+
+    try {
+      Files.createDirectories(cacheDir);
+
+      final Writer out = new Writer();
+      final byte[] path = tank.path().toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+      out.putInt(MAGIC).putInt(VERSION).putLong(tankSize).putLong(tankModified).putInt(path.length).put(path);
+
+      final TankHeader header = tank.header();
+      out.putString(header.productId()).putString(header.tankId())
+        .putInt(header.headerVersion()).putInt(header.dirSetOffset()).putInt(header.fileSetOffset()).putInt(header.indexSize()).putInt(header.dataOffset())
+        .putInt(header.priority().code);
+
+      // Path maps reference entries by their offset key
+      final Map<TankDirectoryEntry, Integer> dirKeys = new IdentityHashMap<>();
+      out.putInt(tank.directoryEntries().size());
+      for(final IntIterator it = tank.directoryEntries().keySet().iterator(); it.hasNext(); ) {
+        final int dirOffset = it.nextInt();
+        final TankDirectoryEntry dir = tank.directoryEntries().get(dirOffset);
+        dirKeys.put(dir, dirOffset);
+
+        out.putInt(dirOffset).putInt(dir.parentOffset()).putInt(dir.childOffsets().length).putLong(dir.fileTime()).putString(dir.dirName());
+        for(final int childOffset : dir.childOffsets()) {
+          out.putInt(childOffset);
+        }
+      }
+
+      final Map<TankFileEntry, Integer> fileKeys = new IdentityHashMap<>();
+      out.putInt(tank.fileEntries().size());
+      for(final IntIterator it = tank.fileEntries().keySet().iterator(); it.hasNext(); ) {
+        final int fileOffset = it.nextInt();
+        final TankFileEntry file = tank.fileEntries().get(fileOffset);
+        fileKeys.put(file, fileOffset);
+
+        out.putInt(fileOffset).putInt(file.parentOffset()).putInt(file.entrySize()).putInt(file.dataOffset()).putInt(file.crc32()).putLong(file.fileTime())
+          .putInt(file.format().ordinal()).putInt(file.flags().code).putString(file.name());
+
+        final TankFileCompressionHeader compression = file.compressionHeader();
+        if(compression == null) {
+          out.putInt(-1);
+        } else {
+          out.putInt(compression.chunkHeaders().length).putInt(compression.compressedSize()).putInt(compression.chunkSize());
+
+          for(final TankChunkHeader chunk : compression.chunkHeaders()) {
+            out.putInt(chunk.uncompressedBytes()).putInt(chunk.compressedBytes()).putInt(chunk.extraBytes()).putInt(chunk.offset());
+          }
+        }
+      }
+
+      out.putInt(tank.directoryPaths().size());
+      for(final Map.Entry<String, TankDirectoryEntry> entry : tank.directoryPaths().entrySet()) {
+        out.putString(entry.getKey()).putInt(dirKeys.get(entry.getValue()));
+      }
+
+      out.putInt(tank.filePaths().size());
+      for(final Map.Entry<String, TankFileEntry> entry : tank.filePaths().entrySet()) {
+        out.putString(entry.getKey()).putInt(fileKeys.get(entry.getValue()));
+      }
+
+      // Write next to the sidecar and swap it in so that a crash never leaves a truncated index behind
+      final Path temp = Files.createTempFile(cacheDir, sidecar.getFileName().toString(), ".tmp");
+      try {
+        try(final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          final ByteBuffer buffer = out.buffer.flip();
+          while(buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+        }
+
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch(final IOException e) {
+      System.err.println("Failed to write tank index " + sidecar + ": " + e);
+    }
+  }
+
+  private static <T> T require(final Int2ObjectMap<T> entries, final int key, final String path) {
+    final T entry = entries.get(key);
+
+    if(entry == null) {
+      throw new IllegalArgumentException("Missing index entry for " + path);
+    }
+
+    return entry;
+  }
+
+  /**
+   * Reads a count and checks that many items of at least itemBytes each could still follow, so that a corrupt count
+   * fails before anything is allocated for it
+   */
+  private static int count(final ByteBuffer index, final int itemBytes) {
+    final int count = index.getInt();
+
+    if(count < 0 || count > index.remaining() / itemBytes) {
+      throw new BufferUnderflowException();
+    }
+
+    return count;
+  }
+
+  private static String getString(final ByteBuffer index) {
+    final byte[] bytes = new byte[count(index, 1)];
+    index.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Little-endian output that grows as needed
+   */
+  private static final class Writer {
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    private Writer ensure(final int bytes) {
+      if(this.buffer.remaining() < bytes) {
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2, this.buffer.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer = grown.put(this.buffer.flip());
+      }
+
+      return this;
+    }
+
+    private Writer putInt(final int value) {
+      this.ensure(4).buffer.putInt(value);
+      return this;
+    }
+
+    private Writer putLong(final long value) {
+      this.ensure(8).buffer.putLong(value);
+      return this;
+    }
+
+    private Writer put(final byte[] bytes) {
+      this.ensure(bytes.length).buffer.put(bytes);
+      return this;
+    }
+
+    private Writer putString(final String string) {
+      final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      return this.putInt(bytes.length).put(bytes);
+    }
+  }
+}
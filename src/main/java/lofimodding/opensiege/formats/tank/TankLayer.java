@@ -0,0 +1,10 @@
+package lofimodding.opensiege.formats.tank;
+
+/**
+ * One tank's version of a file
+ *
+ * @param path the path as the tank spells it
+ */
+public record TankLayer(Tank tank, TankFileEntry entry, String path) {
+
+}
@@ -5,148 +5,204 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 import javax.annotation.Nullable;
 import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 
-import static lofimodding.opensiege.formats.StreamReader.readInt;
-import static lofimodding.opensiege.formats.StreamReader.readInt16;
-import static lofimodding.opensiege.formats.StreamReader.readLong;
-import static lofimodding.opensiege.formats.StreamReader.readNString;
-import static lofimodding.opensiege.formats.StreamReader.readString;
-
 public final class TankLoader {
   private TankLoader() { }
 
+  /** Product and tank IDs, five offsets, 24 unused bytes and the priority */
+  private static final int HEADER_SIZE = 4 + 4 + 5 * 4 + 24 + 2;
+
   public static Tank load(final Path path) throws IOException {
+    return load(path, null);
+  }
+
+  /**
+   * @param indexCache directory holding parsed indices from earlier launches, or null to always parse the tank
+   */
+  public static Tank load(final Path path, @Nullable final Path indexCache) throws IOException {
     if(!Files.isRegularFile(path)) {
       throw new IOException(path + " is not a file");
     }
 
     final long fileSize = Files.size(path);
+    final long modified = Files.getLastModifiedTime(path).toMillis();
+
+    if(fileSize > Integer.MAX_VALUE) {
+      throw new IOException(path + " is too large to map");
+    }
 
     System.out.println("Loading tank file " + path + " (" + fileSize + " bytes)");
 
     final long startTime = System.nanoTime();
+    final ByteBuffer tankData = map(path, fileSize);
+
+    if(indexCache != null) {
+      final Tank cached = TankIndexCache.load(indexCache, path, fileSize, modified, tankData);
+
+      if(cached != null) {
+        System.out.println("Loaded " + path + " from index cache in " + (System.nanoTime() - startTime) / 1000000 + "ms");
+        return cached;
+      }
+    }
 
-    final FileInputStream file = new FileInputStream(path.toFile());
+    if(fileSize < HEADER_SIZE) {
+      throw new EOFException("Unexpected end of file");
+    }
 
     // Header
-    final String productId = readString(file, 4);
-    final String tankId = readString(file, 4);
-    final int headerVersion = readInt(file);
-    final int dirSetOffset = readInt(file);
-    final int fileSetOffset = readInt(file);
-    final int indexSize = readInt(file);
-    final int dataSetOffset = readInt(file);
+    final ByteBuffer headerData = tankData.slice(0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    final String productId = getString(headerData, 4);
+    final String tankId = getString(headerData, 4);
+    final int headerVersion = headerData.getInt();
+    final int dirSetOffset = headerData.getInt();
+    final int fileSetOffset = headerData.getInt();
+    final int indexSize = headerData.getInt();
+    final int dataSetOffset = headerData.getInt();
 
-    file.skip(24);
+    headerData.position(headerData.position() + 24);
 
-    final TankPriority priority = TankPriority.fromCode(readInt16(file));
+    final TankPriority priority = TankPriority.fromCode(headerData.getShort() & 0xffff);
 
     final TankHeader header = new TankHeader(productId, tankId, headerVersion, dirSetOffset, fileSetOffset, indexSize, dataSetOffset, priority);
 
-    // Directory entries
-    file.getChannel().position(dirSetOffset);
+    // The whole index is decoded from one view, entries only ever read within it
+    final int indexEnd = dataSetOffset > dirSetOffset && dataSetOffset <= fileSize ? dataSetOffset : (int)fileSize;
 
-    final int dirCount = readInt(file);
-    final int[] dirOffsets = new int[dirCount];
-    for(int dirIndex = 0; dirIndex < dirCount; dirIndex++) {
-      final int dirOffset = readInt(file);
+    if(dirSetOffset < 0 || dirSetOffset > indexEnd || fileSetOffset < dirSetOffset || fileSetOffset > indexEnd) {
+      throw new EOFException("Malformed tank " + path + " - index offsets out of range");
+    }
 
-      if(dirSetOffset + dirOffset >= fileSize) {
-        System.err.println("Directory " + dirIndex + " offset is corrupt");
-        continue;
-      }
+    final ByteBuffer index = tankData.slice(dirSetOffset, indexEnd - dirSetOffset).order(ByteOrder.LITTLE_ENDIAN);
+    final int fileSetStart = fileSetOffset - dirSetOffset;
+
+    final Int2ObjectMap<TankDirectoryEntry> dirEntries;
+    final Int2ObjectMap<TankFileEntry> fileEntries;
+
+    try {
+      dirEntries = readDirectories(index, dirSetOffset);
+      fileEntries = readFiles(index, fileSetStart, fileSize);
+    } catch(final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw (EOFException)new EOFException("Unexpected end of file").initCause(e);
+    }
+
+    final Map<String, TankDirectoryEntry> directories = new HashMap<>();
+    final Map<String, TankFileEntry> files = new HashMap<>();
+    buildPaths(dirEntries, fileEntries, directories, files);
+
+    final Tank tank = new Tank(path, header, tankData, dirEntries, fileEntries, directories, files);
+
+    final long endTime = System.nanoTime();
+
+    System.out.println("Loaded " + path + " in " + (endTime - startTime) / 1000000 + "ms");
 
-      dirOffsets[dirIndex] = dirOffset;
+    if(indexCache != null) {
+      TankIndexCache.save(indexCache, tank, fileSize, modified);
     }
 
+    return tank;
+  }
+
+  /**
+   * Directory and parent offsets are relative to the directory set, child offsets are made absolute
+   */
+  private static Int2ObjectMap<TankDirectoryEntry> readDirectories(final ByteBuffer index, final int dirSetOffset) {
+    final int dirCount = index.getInt(0);
+    final Int2ObjectMap<TankDirectoryEntry> dirEntries = new Int2ObjectOpenHashMap<>(dirCount);
+
     System.out.println("Loading " + dirCount + " directory entries...");
 
-    final Int2ObjectMap<TankDirectoryEntry> dirEntries = new Int2ObjectOpenHashMap<>();
+    final byte[] scratch = new byte[256];
+
     for(int dirIndex = 0; dirIndex < dirCount; dirIndex++) {
-      final int dirOffset = dirOffsets[dirIndex];
+      final int dirOffset = index.getInt(4 + dirIndex * 4);
 
-      file.getChannel().position(dirSetOffset + dirOffset);
+      if(dirOffset < 0 || dirOffset >= index.capacity()) {
+        System.err.println("Directory " + dirIndex + " offset is corrupt");
+        continue;
+      }
 
-      final int parentOffset = readInt(file);
-      final int childCount = readInt(file);
-      final long fileTime = readLong(file);
-      final String dirName = readNString(file);
-      final int[] childOffsets = new int[childCount];
+      index.position(dirOffset);
 
+      final int parentOffset = index.getInt();
+      final int childCount = index.getInt();
+      final long fileTime = index.getLong();
+      final String dirName = getNString(index, scratch);
+
+      if(childCount < 0 || childCount > index.remaining() / 4) {
+        throw new BufferUnderflowException();
+      }
+
+      final int[] childOffsets = new int[childCount];
       for(int childIndex = 0; childIndex < childCount; childIndex++) {
-        final int childOffset = dirSetOffset + readInt(file);
-        childOffsets[childIndex] = childOffset;
+        childOffsets[childIndex] = dirSetOffset + index.getInt();
       }
 
       dirEntries.put(dirOffset, new TankDirectoryEntry(parentOffset, childCount, fileTime, dirName, childOffsets));
     }
 
-    // File entries
-    file.getChannel().position(fileSetOffset);
-
-    final int fileCount = readInt(file);
-    final int[] fileOffsets = new int[fileCount];
-    for(int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
-      final int fileOffset = readInt(file);
-
-      if(dirSetOffset + fileOffset >= fileSize) {
-        System.err.println("File " + fileIndex + " offset is corrupt");
-        continue;
-      }
+    return dirEntries;
+  }
 
-      fileOffsets[fileIndex] = fileOffset;
-    }
+  private static Int2ObjectMap<TankFileEntry> readFiles(final ByteBuffer index, final int fileSetStart, final long fileSize) throws EOFException {
+    final int fileCount = index.getInt(fileSetStart);
+    final Int2ObjectMap<TankFileEntry> fileEntries = new Int2ObjectOpenHashMap<>(fileCount);
 
     System.out.println("Loading " + fileCount + " file entries...");
 
-    final Int2ObjectMap<TankFileEntry> fileEntries = new Int2ObjectOpenHashMap<>();
+    final byte[] scratch = new byte[256];
+
     for(int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
-      final int fileOffset = fileOffsets[fileIndex];
+      final int fileOffset = index.getInt(fileSetStart + 4 + fileIndex * 4);
 
-      file.getChannel().position(fileSetOffset + fileOffset);
+      if(fileOffset < 0 || fileSetStart + fileOffset >= index.capacity()) {
+        System.err.println("File " + fileIndex + " offset is corrupt");
+        continue;
+      }
 
-      final byte[] data = file.readNBytes(28);
+      index.position(fileSetStart + fileOffset);
 
-      final int parentOffset = readInt(data, 0);
-      final int entrySize = readInt(data, 4);
-      final int dataOffset = readInt(data, 8);
-      final int crc32 = readInt(data, 12);
-      final long fileTime = readLong(data, 16);
-      final TankFormat format = TankFormat.fromIndex(readInt16(data, 24));
-      final TankFlags flags = TankFlags.fromCode(readInt16(data, 26));
-      final String name = readNString(file);
+      final int parentOffset = index.getInt();
+      final int entrySize = index.getInt();
+      final int dataOffset = index.getInt();
+      final int crc32 = index.getInt();
+      final long fileTime = index.getLong();
+      final TankFormat format = TankFormat.fromIndex(index.getShort() & 0xffff);
+      final TankFlags flags = TankFlags.fromCode(index.getShort() & 0xffff);
+      final String name = getNString(index, scratch);
 
       @Nullable final TankFileCompressionHeader compressionHeader;
       if(format.isCompressed() && entrySize != 0) {
-        final int compressedSize = readInt(file);
+        final int compressedSize = index.getInt();
 
         if(compressedSize > fileSize) {
           System.err.println("File " + name + " is corrupt - compressed size exceeds total tank size");
           continue;
         }
 
-        final int chunkSize = readInt(file);
+        final int chunkSize = index.getInt();
         final int chunkCount = chunkSize != 0 ? (int)Math.ceil((double)entrySize / chunkSize) : 0;
-        final TankChunkHeader[] chunkHeaders = new TankChunkHeader[chunkCount];
 
-        // Read as much data up front as possible for efficiency
-        final int chunkStride = 4 * 4;
-        final byte[] chunkData = new byte[chunkCount * chunkStride];
-        if(file.read(chunkData) < chunkData.length) {
+        if(chunkCount < 0 || chunkCount > index.remaining() / 16) {
           throw new EOFException("Unexpected end of file");
         }
 
+        final TankChunkHeader[] chunkHeaders = new TankChunkHeader[chunkCount];
+
         for(int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
-          final int uncompressedBytes = readInt(chunkData, chunkIndex * chunkStride);
-          final int compressedBytes = readInt(chunkData, chunkIndex * chunkStride + 4);
-          final int extraBytes = readInt(chunkData, chunkIndex * chunkStride + 8);
-          final int offset = readInt(chunkData, chunkIndex * chunkStride + 12);
+          final int uncompressedBytes = index.getInt();
+          final int compressedBytes = index.getInt();
+          final int extraBytes = index.getInt();
+          final int offset = index.getInt();
 
           if(uncompressedBytes < compressedBytes) {
             throw new EOFException("Malformed file " + name + " - compressed size larger than uncompressed size");
@@ -163,38 +219,61 @@ public final class TankLoader {
       fileEntries.put(fileOffset, new TankFileEntry(parentOffset, entrySize, dataOffset, crc32, fileTime, format, flags, name, compressionHeader));
     }
 
-    final Map<String, TankDirectoryEntry> directories = new HashMap<>();
-    final Map<String, TankFileEntry> files = new HashMap<>();
-    buildPaths(dirEntries, fileEntries, directories, files);
+    return fileEntries;
+  }
 
-    final long endTime = System.nanoTime();
+  private static String getString(final ByteBuffer buffer, final int length) {
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes);
+  }
 
-    System.out.println("Loaded " + path + " in " + (endTime - startTime) / 1000000 + "ms");
+  /**
+   * Length-prefixed and padded to a 4-byte boundary. The scratch array is reused for every name in the index.
+   */
+  private static String getNString(final ByteBuffer buffer, final byte[] scratch) {
+    final int length = buffer.getShort() & 0xffff;
+    final byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+    buffer.get(bytes, 0, length);
+    buffer.position(buffer.position() + 4 - (length + 2) % 4);
+    return new String(bytes, 0, length);
+  }
 
-    return new Tank(path, header, dirEntries, fileEntries, directories, files);
+  private static ByteBuffer map(final Path path, final long fileSize) throws IOException {
+    // The mapping stays valid after the channel is closed
+    try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+    }
   }
 
   private static void buildPaths(final Int2ObjectMap<TankDirectoryEntry> dirEntries, final Int2ObjectMap<TankFileEntry> fileEntries, final Map<String, TankDirectoryEntry> directoriesOut, final Map<String, TankFileEntry> filesOut) {
+    // Every directory's path is built once and shared by all of its files
+    final Int2ObjectMap<String> dirPaths = new Int2ObjectOpenHashMap<>(dirEntries.size());
+
     for(final TankFileEntry fileEntry : fileEntries.values()) {
-      final StringBuilder path = new StringBuilder();
+      final String parentPath = fileEntry.parentOffset() != 0 ? buildPath(dirEntries, fileEntry.parentOffset(), dirPaths, directoriesOut) : "";
+      filesOut.put(parentPath + '/' + fileEntry.name(), fileEntry);
+    }
+  }
 
-      if(fileEntry.parentOffset() != 0) {
-        buildPath(path, dirEntries, dirEntries.get(fileEntry.parentOffset()), directoriesOut);
-      }
+  private static String buildPath(final Int2ObjectMap<TankDirectoryEntry> dirEntries, final int dirOffset, final Int2ObjectMap<String> dirPaths, final Map<String, TankDirectoryEntry> directoriesOut) {
+    final String cached = dirPaths.get(dirOffset);
 
-      path.append('/').append(fileEntry.name());
-      filesOut.put(path.toString(), fileEntry);
+    if(cached != null) {
+      return cached;
     }
-  }
 
-  private static void buildPath(final StringBuilder path, final Int2ObjectMap<TankDirectoryEntry> dirEntries, final TankDirectoryEntry dirEntry, final Map<String, TankDirectoryEntry> directoriesOut) {
+    final TankDirectoryEntry dirEntry = dirEntries.get(dirOffset);
+    final String path;
+
     if(dirEntry.parentOffset() == 0) {
-      return;
+      path = "";
+    } else {
+      path = buildPath(dirEntries, dirEntry.parentOffset(), dirPaths, directoriesOut) + '/' + dirEntry.dirName();
+      directoriesOut.put(path, dirEntry);
     }
 
-    buildPath(path, dirEntries, dirEntries.get(dirEntry.parentOffset()), directoriesOut);
-    path.append('/').append(dirEntry.dirName());
-
-    directoriesOut.put(path.toString(), dirEntry);
+    dirPaths.put(dirOffset, path);
+    return path;
   }
 }
@@ -1,26 +1,56 @@
 package lofimodding.opensiege.formats.tank;
 
+import javax.annotation.Nullable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
 public class TankManager {
+  private static final long DEFAULT_CACHE_BUDGET = 64L * 1024 * 1024;
+  private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 32L * 1024 * 1024;
+  private static final Path DEFAULT_INDEX_CACHE = Paths.get(System.getProperty("java.io.tmpdir"), "opensiege", "tank-index");
+
   private final List<Tank> tanks = new ArrayList<>();
-  private final Map<String, Tank> paths = new HashMap<>();
-  private final Map<String, String> files = new HashMap<>();
-  private final Set<String> dirs = new HashSet<>();
-  private final TankDirectory root = new TankDirectory();
+  private final TankPathTrie paths;
+  private final TankDedupIndex duplicates;
+  private final TankFileCache cache;
+  private final TankReadScheduler reads = new TankReadScheduler(this, DEFAULT_MAX_IN_FLIGHT_BYTES, Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+  private volatile boolean verifyChecksums;
+  /** Paths in the order they were first read, while a trace is being recorded */
+  @Nullable
+  private volatile Set<String> accessTrace;
 
   public TankManager(final Path installPath) throws IOException {
+    this(installPath, DEFAULT_CACHE_BUDGET);
+  }
+
+  public TankManager(final Path installPath, final long cacheBudget) throws IOException {
+    this(installPath, cacheBudget, DEFAULT_INDEX_CACHE);
+  }
+
+  /**
+   * @param indexCache directory for parsed tank indices, or null to parse every tank on every launch
+   */
+  public TankManager(final Path installPath, final long cacheBudget, @Nullable final Path indexCache) throws IOException {
+    this.cache = new TankFileCache(cacheBudget);
+
     System.out.println("Loading resources...");
 
     final List<Path> files = new ArrayList<>();
@@ -33,16 +63,20 @@ public class TankManager {
       ds.forEach(files::add);
     }
 
-    files.parallelStream().map(path1 -> {
+    // Directory listing order is unspecified, tanks of equal priority must still layer the same way every launch
+    files.sort(Comparator.naturalOrder());
+
+    this.tanks.addAll(files.parallelStream().map(path1 -> {
       try {
-        return TankLoader.load(path1);
+        return TankLoader.load(path1, indexCache);
       } catch(final IOException e) {
         throw new RuntimeException(e);
       }
-    }).forEach(this.tanks::add);
+    }).toList());
 
     System.out.println("Sorting resources...");
 
+    // Stable, so equal priorities keep their filename order
     this.tanks.sort(Comparator.comparingInt(tank -> tank.header().priority().code));
 
     System.out.println("Final resource order:");
@@ -53,84 +87,328 @@ public class TankManager {
 
     System.out.println("Building file map...");
 
-    //TODO is this okay? .gas files especially - do we need to actually load these in order of priority and overwrite config values?
+    // Higher priority tanks win, the versions they shadow stay reachable through getLayers
+    this.paths = TankPathTrie.build(this.tanks);
 
-    for(final Tank tank : this.tanks) {
-      for(final String path : tank.filePaths().keySet()) {
-        final String[] pathParts = stripLeadingSlash(path).split("/");
+    System.out.println(this.paths.shadowedCount() + " files overridden by higher priority tanks");
+
+    // Identical files in different tanks or paths share one cache entry
+    this.duplicates = TankDedupIndex.build(this.tanks);
+    System.out.println(this.duplicates.report());
+    System.out.println("All resources loaded.");
+  }
+
+  public Set<String> getFiles() {
+    final Set<String> files = new LinkedHashSet<>(this.paths.fileCount() * 4 / 3 + 1);
+    this.paths.forEachFile(node -> files.add(node.path));
+    return files;
+  }
 
-        TankDirectory dir = this.root;
-        for(int i = 0; i < pathParts.length - 1; i++) {
-          dir = dir.directories.computeIfAbsent(pathParts[i], key -> new TankDirectory());
-        }
+  public byte[] getFileByPath(final String filename) throws IOException {
+    final TankPathTrie.Node file = this.getFile(filename);
 
-        dir.files.put(pathParts[pathParts.length - 1].toLowerCase(), tank);
-        this.files.put(pathParts[pathParts.length - 1].toLowerCase(), path);
+    if(!file.entry.isCompressed()) {
+      final ByteBuffer slice = file.tank.slice(file.entry);
+      final byte[] data = new byte[slice.remaining()];
+      slice.get(data);
 
-        this.paths.put(path.toLowerCase(), tank);
+      if(this.verifyChecksums) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        TankChecksum.verify(filename, file.entry.crc32(), (int)crc.getValue());
       }
 
-      this.dirs.addAll(tank.directoryPaths().keySet());
+      return data;
     }
 
-    System.out.println("All resources loaded.");
+    // Callers own the returned array, so hand out a copy of cached data
+    return this.getDecompressed(file).clone();
   }
 
-  public Set<String> getFiles() {
-    return this.paths.keySet();
+  public ByteBuffer slice(final String filename) throws IOException {
+    final TankPathTrie.Node file = this.getFile(filename);
+
+    if(!file.entry.isCompressed()) {
+      if(this.verifyChecksums) {
+        file.tank.verify(file.entry);
+      }
+
+      return file.tank.slice(file.entry);
+    }
+
+    return ByteBuffer.wrap(this.getDecompressed(file)).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
   }
 
-  public byte[] getFileByPath(final String filename) throws IOException {
-    final Tank tank = this.paths.get(filename.toLowerCase());
+  /**
+   * Entries of more than one chunk are streamed unless they're already cached, so an open file holds at most
+   * one chunk rather than the whole entry
+   */
+  public InputStream newInputStream(final String filename) throws IOException {
+    final ChunkedEntryChannel chunked = this.openChunked(filename);
+    return chunked != null ? new ChunkedEntryInputStream(chunked) : new ByteBufferInputStream(this.slice(filename));
+  }
 
-    if(tank == null) {
-      throw new FileNotFoundException(filename + " not found");
+  /**
+   * Seeking in a streamed entry only inflates the chunk that is read from
+   *
+   * @see #newInputStream
+   */
+  public SeekableByteChannel newByteChannel(final String filename) throws IOException {
+    final ChunkedEntryChannel chunked = this.openChunked(filename);
+    return chunked != null ? chunked : new ByteBufferChannel(this.slice(filename));
+  }
+
+  /**
+   * Reads many files in the order they are stored in their tanks rather than the order given, with large sequential
+   * reads and decompression spread over the common pool. Files that aren't already cached are not added to the cache.
+   * Returns once every file has been handed to the handler. Different spellings of one file are read once and handed
+   * over under each of them.
+   */
+  public void readAll(final Collection<String> filenames, final TankBatchHandler handler) throws IOException {
+    TankBatchReader.read(this, filenames, handler);
+  }
+
+  ByteBuffer read(final TankPathTrie.Node file) throws IOException {
+    if(!file.entry.isCompressed()) {
+      if(this.verifyChecksums) {
+        file.tank.verify(file.entry);
+      }
+
+      return file.tank.slice(file.entry);
+    }
+
+    byte[] data = this.cache.get(this.cacheKey(file));
+
+    if(data == null) {
+      data = file.tank.decompress(file.entry, this.verifyChecksums);
     }
 
-    return tank.getFileByPath(filename);
+    return ByteBuffer.wrap(data).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
   }
 
-  public TankFileEntry getFileInfo(final String filename) throws IOException {
-    final Tank tank = this.paths.get(filename.toLowerCase());
+  /**
+   * Reads a file on the read scheduler's threads rather than the caller's. The buffer is the same as {@link #slice}
+   * would return. Stages chained onto the future run on a reader thread unless an async variant is used.
+   */
+  public CompletableFuture<ByteBuffer> readAsync(final String filename, final TankReadPriority priority) {
+    final TankPathTrie.Node file;
+    try {
+      file = this.getFile(filename);
+    } catch(final FileNotFoundException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    return this.reads.read(file.path, file.entry.entrySize(), priority);
+  }
+
+  public TankReadScheduler getReadScheduler() {
+    return this.reads;
+  }
+
+  @Nullable
+  private ChunkedEntryChannel openChunked(final String filename) throws IOException {
+    final TankPathTrie.Node file = this.getFile(filename);
+
+    if(!file.entry.isCompressed() || file.entry.compressionHeader().chunkHeaders().length <= 1 || this.cache.get(this.cacheKey(file)) != null) {
+      return null;
+    }
+
+    return file.tank.openChunked(file.entry, this.verifyChecksums);
+  }
+
+  private byte[] getDecompressed(final TankPathTrie.Node file) throws IOException {
+    final String key = this.cacheKey(file);
+    final byte[] cached = this.cache.get(key);
+
+    if(cached != null) {
+      return cached;
+    }
+
+    final byte[] data = file.tank.decompress(file.entry, this.verifyChecksums);
+    this.cache.put(key, data);
+    return data;
+  }
+
+  /**
+   * @return the file's inflated data if it is already cached, never adds it to the cache
+   */
+  @Nullable
+  byte[] getCached(final TankPathTrie.Node file) {
+    return this.cache.get(this.cacheKey(file));
+  }
+
+  /**
+   * Files with the same content share a key, anything else is cached under its own path
+   */
+  private String cacheKey(final TankPathTrie.Node file) {
+    final String shared = this.duplicates.sharedKey(file.entry);
+    return shared != null ? shared : file.path;
+  }
+
+  /**
+   * @return a key shared by every file with the same content, for caching anything derived from the file once,
+   * or null if there is no such file
+   */
+  @Nullable
+  public String getContentKey(final String filename) {
+    final TankPathTrie.Node file = this.paths.find(filename);
+    return file != null && file.isFile() ? this.cacheKey(file) : null;
+  }
+
+  public TankDedupIndex getDuplicates() {
+    return this.duplicates;
+  }
+
+  /**
+   * Checks every entry that is read against the CRC32 in its tank, a mismatch throws {@link TankChecksumException}.
+   * Compressed entries are checksummed chunk by chunk as they are inflated, uncompressed entries are checksummed when
+   * they are sliced. Entries that were cached before this was turned on are not checked again.
+   */
+  public void setVerifyChecksums(final boolean verifyChecksums) {
+    this.verifyChecksums = verifyChecksums;
+  }
+
+  public boolean isVerifyChecksums() {
+    return this.verifyChecksums;
+  }
+
+  /**
+   * Verifies every entry of every loaded tank, shadowed ones included, across all cores
+   *
+   * @param progress called from worker threads every so often while verification runs
+   */
+  public TankVerifier.Result verifyAll(final Consumer<TankVerifier.Progress> progress) {
+    return TankVerifier.verify(this.tanks, progress);
+  }
+
+  @Nullable
+  TankPathTrie.Node findFile(final String filename) {
+    final TankPathTrie.Node node = this.paths.find(filename);
+
+    if(node == null || !node.isFile()) {
+      return null;
+    }
+
+    final Set<String> accessTrace = this.accessTrace;
+    if(accessTrace != null) {
+      accessTrace.add(node.path);
+    }
+
+    return node;
+  }
 
-    if(tank == null) {
+  /**
+   * Starts recording the order files are first read in, for {@link TankWriter#order}. Any earlier trace is discarded.
+   */
+  public void startAccessTrace() {
+    this.accessTrace = Collections.synchronizedSet(new LinkedHashSet<>());
+  }
+
+  /**
+   * @return the paths read since the trace was started, in the order they were first read
+   */
+  public List<String> stopAccessTrace() {
+    final Set<String> accessTrace = this.accessTrace;
+    this.accessTrace = null;
+
+    if(accessTrace == null) {
+      return List.of();
+    }
+
+    synchronized(accessTrace) {
+      return List.copyOf(accessTrace);
+    }
+  }
+
+  /**
+   * @return a node with a tank and entry
+   */
+  private TankPathTrie.Node getFile(final String filename) throws FileNotFoundException {
+    final TankPathTrie.Node node = this.findFile(filename);
+
+    if(node == null) {
       throw new FileNotFoundException(filename + " not found");
     }
 
-    return tank.filePaths().get(filename);
+    return node;
   }
 
+  /**
+   * Provenance of a file, for diagnosing which tank a file comes from and what it overrides
+   *
+   * @return every tank's version of the file, the one in use first, or an empty list if there is no such file
+   */
+  public List<TankLayer> getLayers(final String filename) {
+    final TankPathTrie.Node node = this.paths.find(filename);
+    return node != null ? node.layers() : List.of();
+  }
+
+  /**
+   * @return all loaded tanks, in ascending priority
+   */
+  public List<Tank> getTanks() {
+    return Collections.unmodifiableList(this.tanks);
+  }
+
+  public TankFileCache getCache() {
+    return this.cache;
+  }
+
+  public TankFileEntry getFileInfo(final String filename) throws IOException {
+    return this.getFile(filename).entry;
+  }
+
+  /**
+   * @return the full path of the highest priority file with this name, in any directory
+   */
+  @Nullable
   public String lookupPath(final String file) {
-    return this.files.get(file.toLowerCase());
+    final TankPathTrie.Node node = this.paths.findByName(file);
+    return node != null ? node.path : null;
   }
 
+  /**
+   * Bare filenames match a file of that name in any directory
+   */
   public boolean isFile(final String path) {
-    return this.files.containsKey(path.toLowerCase());
+    final TankPathTrie.Node node = path.indexOf('/') == -1 ? this.paths.findByName(path) : this.paths.find(path);
+    return node != null && node.isFile();
   }
 
   public boolean isDir(final String path) {
-    return this.dirs.contains(path.toLowerCase());
+    final TankPathTrie.Node node = this.paths.find(path);
+    return node != null && node.directory;
   }
 
-  public Set<String> getChildren(final String path) {
-    TankDirectory dir = this.root;
+  @Nullable
+  TankPathTrie.Node findNode(final String path) {
+    return this.paths.find(path);
+  }
 
-    final String strippedPath = stripLeadingSlash(path);
-    if(!strippedPath.isEmpty()) {
-      final String[] pathParts = strippedPath.split("/");
-      for(final String part : pathParts) {
-        dir = dir.directories.get(part);
+  /**
+   * Directories take their time from the highest priority tank that has them
+   */
+  TankFileAttributes getAttributes(final TankPathTrie.Node node) {
+    TankFileAttributes attributes = node.attributes;
+
+    if(attributes == null) {
+      if(node.isFile()) {
+        attributes = TankFileAttributes.file(node.tank, node.entry);
+      } else {
+        attributes = TankFileAttributes.directory(node.directoryTank, node.directoryEntry);
       }
-    }
 
-    final Set<String> children = new HashSet<>();
-    children.addAll(dir.directories.keySet());
-    children.addAll(dir.files.keySet());
+      node.attributes = attributes;
+    }
 
-    return children;
+    return attributes;
   }
 
-  private static String stripLeadingSlash(final String path) {
-    return path.startsWith("/") ? path.substring(1) : path;
+  /**
+   * @return a read-only view of the names in the directory, empty if it doesn't exist
+   */
+  public Set<String> getChildren(final String path) {
+    final TankPathTrie.Node node = this.paths.find(path);
+    return node != null ? node.childNames() : Collections.emptySet();
   }
 }
@@ -22,6 +22,8 @@ public class TankPath implements Path {
   private volatile int[] offsets;
   private volatile int hash;
   private volatile byte[] resolved;
+  private volatile String absoluteName;
+  private volatile String string;
 
   public TankPath(final TankFileSystem fileSystem, final byte[] path) {
     this(fileSystem, path, false);
@@ -218,6 +220,20 @@ public class TankPath implements Path {
     return new TankPath(this.fileSystem, result);
   }
 
+  /**
+   * Resolves a single name that is already known to be normalized, e.g. from the path trie, without checking it again
+   */
+  TankPath child(final byte[] name) {
+    final boolean slash = this.path.length != 0 && this.path[this.path.length - 1] != '/';
+    final int offset = slash ? this.path.length + 1 : this.path.length;
+    final byte[] result = Arrays.copyOf(this.path, offset + name.length);
+    if(slash) {
+      result[offset - 1] = '/';
+    }
+    System.arraycopy(name, 0, result, offset, name.length);
+    return new TankPath(this.fileSystem, result, true);
+  }
+
   @Override
   public TankPath resolve(final String other) {
     return this.resolve(this.getFileSystem().getPath(other));
@@ -390,7 +406,11 @@ public class TankPath implements Path {
 
   @Override
   public String toString() {
-    return new String(this.path, StandardCharsets.UTF_8);
+    if(this.string == null) {
+      this.string = new String(this.path, StandardCharsets.UTF_8);
+    }
+
+    return this.string;
   }
 
   private void initOffsets() {
@@ -428,6 +448,39 @@ public class TankPath implements Path {
     }
   }
 
+  /**
+   * Works out everything lookups need up front, for paths that are kept and reused
+   */
+  void precompute() {
+    this.initOffsets();
+    this.hashCode();
+    this.getAbsoluteName();
+  }
+
+  /**
+   * @return the absolute, normalized path as tanks are searched by, made once per path
+   */
+  String getAbsoluteName() {
+    if(this.absoluteName == null) {
+      this.absoluteName = new String(this.getResolvedPath(), StandardCharsets.UTF_8);
+    }
+
+    return this.absoluteName;
+  }
+
+  /**
+   * @return whether the path is a single name without any slashes
+   */
+  boolean isBareName() {
+    for(final byte b : this.path) {
+      if(b == '/') {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
   byte[] getResolvedPath() {
     if(this.resolved == null) {
       this.resolved = this.isAbsolute() ? this.getResolved() : this.toAbsolutePath().getResolvedPath();
@@ -0,0 +1,165 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canonical {@link TankPath}s by the strings they were made from, so that asking for the same path again returns
+ * the same instance without allocating. Entries are hashed on the ASCII-lowercased string, every spelling of a path
+ * lands in the same bucket and only an exact match is returned.
+ *
+ * <p>Lookups read the table without locking and new paths are added under a lock. Once the table is full new paths
+ * are still made but no longer interned.</p>
+ */
+final class TankPathTable {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MAX_ENTRIES = 1 << 18;
+
+  private final TankFileSystem fileSystem;
+  private volatile Entry[] entries = new Entry[INITIAL_CAPACITY];
+  private int size;
+
+  TankPathTable(final TankFileSystem fileSystem) {
+    this.fileSystem = fileSystem;
+  }
+
+  /**
+   * @return the path for the segments joined with slashes, empty segments after the first are skipped
+   */
+  TankPath get(final String first, final String[] more) {
+    final int hash = hash(first, more);
+    final Entry[] entries = this.entries;
+    final int mask = entries.length - 1;
+
+    for(int i = hash & mask; entries[i] != null; i = i + 1 & mask) {
+      if(entries[i].hash == hash && matches(entries[i].text, first, more)) {
+        return entries[i].path;
+      }
+    }
+
+    return this.add(hash, join(first, more));
+  }
+
+  private synchronized TankPath add(final int hash, final String text) {
+    Entry[] entries = this.entries;
+
+    // Another thread may have added it since the lock-free lookup
+    for(int i = hash & entries.length - 1; entries[i] != null; i = i + 1 & entries.length - 1) {
+      if(entries[i].hash == hash && entries[i].text.equals(text)) {
+        return entries[i].path;
+      }
+    }
+
+    final TankPath path = new TankPath(this.fileSystem, text.getBytes(StandardCharsets.UTF_8));
+    path.precompute();
+
+    if(this.size >= MAX_ENTRIES) {
+      return path;
+    }
+
+    // Half full at most, a larger table is filled before it is published
+    if((this.size + 1) * 2 > entries.length) {
+      final Entry[] grown = new Entry[entries.length * 2];
+      for(final Entry entry : entries) {
+        if(entry != null) {
+          insert(grown, entry);
+        }
+      }
+
+      entries = grown;
+    }
+
+    // Entries are immutable, a reader sees either nothing or the whole entry and falls back to the lock if it misses
+    insert(entries, new Entry(hash, text, path));
+    this.size++;
+    this.entries = entries;
+    return path;
+  }
+
+  private static void insert(final Entry[] entries, final Entry entry) {
+    final int mask = entries.length - 1;
+    int i = entry.hash & mask;
+
+    while(entries[i] != null) {
+      i = i + 1 & mask;
+    }
+
+    entries[i] = entry;
+  }
+
+  private static int hash(final String first, final String[] more) {
+    int hash = hash(0, first);
+
+    boolean empty = first.isEmpty();
+    for(final String segment : more) {
+      if(!segment.isEmpty()) {
+        if(!empty) {
+          hash = hash * 31 + '/';
+        }
+
+        hash = hash(hash, segment);
+        empty = false;
+      }
+    }
+
+    // Spread the low bits, which pick the bucket
+    return hash ^ hash >>> 16;
+  }
+
+  private static int hash(int hash, final String segment) {
+    for(int i = 0; i < segment.length(); i++) {
+      final char c = segment.charAt(i);
+      hash = hash * 31 + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+    }
+
+    return hash;
+  }
+
+  private static boolean matches(final String text, final String first, final String[] more) {
+    if(!text.startsWith(first)) {
+      return false;
+    }
+
+    int offset = first.length();
+    boolean empty = first.isEmpty();
+    for(final String segment : more) {
+      if(!segment.isEmpty()) {
+        if(!empty) {
+          if(offset == text.length() || text.charAt(offset) != '/') {
+            return false;
+          }
+
+          offset++;
+        }
+
+        if(!text.startsWith(segment, offset)) {
+          return false;
+        }
+
+        offset += segment.length();
+        empty = false;
+      }
+    }
+
+    return offset == text.length();
+  }
+
+  private static String join(final String first, final String[] more) {
+    if(more.length == 0) {
+      return first;
+    }
+
+    final StringBuilder sb = new StringBuilder();
+    sb.append(first);
+    for(final String segment : more) {
+      if(!segment.isEmpty()) {
+        if(!sb.isEmpty()) {
+          sb.append('/');
+        }
+        sb.append(segment);
+      }
+    }
+    return sb.toString();
+  }
+
+  private record Entry(int hash, String text, TankPath path) { }
+}
@@ -0,0 +1,483 @@
+package lofimodding.opensiege.formats.tank;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Case-insensitive tree of every path across all loaded tanks. Each segment is stored once no matter how many tanks
+ * or paths share it, children are kept sorted so that lookups are a binary search per segment straight over the
+ * query string, without splitting or lowercasing it.
+ */
+final class TankPathTrie {
+  private static final Node[] NO_CHILDREN = new Node[0];
+  private static final TankLayer[] NO_LAYERS = new TankLayer[0];
+  private static final Comparator<Node> BY_NAME = (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+
+  final Node root;
+  /** Every file node, sorted by name, for bare filename lookups */
+  private final Node[] names;
+
+  private TankPathTrie(final Node root, final Node[] names) {
+    this.root = root;
+    this.names = names;
+  }
+
+  /**
+   * Every tank's own tree is built in parallel, then all of them are merged in one fork-join pass
+   *
+   * @param tanks in ascending priority, later tanks override files in earlier ones
+   */
+  static TankPathTrie build(final List<Tank> tanks) {
+    final List<Builder> roots = tanks.parallelStream().map(Builder::of).toList();
+    final Node root = roots.isEmpty() ? new Node("") : ForkJoinPool.commonPool().invoke(new MergeTask(roots));
+    root.directory = true;
+
+    // Bare names resolve to the highest priority tank, ties go to the first path in trie order
+    final Map<Tank, Integer> ranks = new IdentityHashMap<>();
+    for(int i = 0; i < tanks.size(); i++) {
+      ranks.put(tanks.get(i), i);
+    }
+
+    final Map<String, Node> names = new HashMap<>();
+    forEachFile(root, file -> names.merge(file.name.toLowerCase(Locale.ROOT), file, (current, next) -> ranks.get(next.tank) > ranks.get(current.tank) ? next : current));
+
+    final Node[] nameIndex = names.values().toArray(NO_CHILDREN);
+    Arrays.sort(nameIndex, BY_NAME);
+
+    return new TankPathTrie(root, nameIndex);
+  }
+
+  /**
+   * Empty segments and a leading slash are ignored, "/" and "" are the root
+   */
+  @Nullable
+  Node find(final String path) {
+    Node node = this.root;
+    int start = 0;
+    final int length = path.length();
+
+    while(start < length) {
+      int end = path.indexOf('/', start);
+      if(end == -1) {
+        end = length;
+      }
+
+      if(end > start) {
+        node = find(node.children, path, start, end);
+
+        if(node == null) {
+          return null;
+        }
+      }
+
+      start = end + 1;
+    }
+
+    return node;
+  }
+
+  @Nullable
+  Node findByName(final String name) {
+    return find(this.names, name, 0, name.length());
+  }
+
+  int fileCount() {
+    return this.names.length;
+  }
+
+  /**
+   * @return how many files are shadowed by a higher priority tank
+   */
+  int shadowedCount() {
+    final int[] count = new int[1];
+    forEachFile(this.root, file -> {
+      if(file.shadowed.length != 0) {
+        count[0]++;
+      }
+    });
+    return count[0];
+  }
+
+  void forEachFile(final Consumer<Node> action) {
+    forEachFile(this.root, action);
+  }
+
+  private static void forEachFile(final Node node, final Consumer<Node> action) {
+    if(node.isFile()) {
+      action.accept(node);
+    }
+
+    for(final Node child : node.children) {
+      forEachFile(child, action);
+    }
+  }
+
+  @Nullable
+  static Node child(final Node dir, final String name) {
+    return find(dir.children, name, 0, name.length());
+  }
+
+  @Nullable
+  private static Node find(final Node[] nodes, final String path, final int start, final int end) {
+    int low = 0;
+    int high = nodes.length - 1;
+
+    while(low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = compare(nodes[mid].name, path, start, end);
+
+      if(cmp < 0) {
+        low = mid + 1;
+      } else if(cmp > 0) {
+        high = mid - 1;
+      } else {
+        return nodes[mid];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Same ordering as {@link String#CASE_INSENSITIVE_ORDER}, against a region of another string
+   */
+  static int compare(final String name, final String path, final int start, final int end) {
+    final int nameLength = name.length();
+    final int regionLength = end - start;
+    final int length = Math.min(nameLength, regionLength);
+
+    for(int i = 0; i < length; i++) {
+      char c1 = name.charAt(i);
+      char c2 = path.charAt(start + i);
+
+      if(c1 != c2) {
+        c1 = Character.toUpperCase(c1);
+        c2 = Character.toUpperCase(c2);
+
+        if(c1 != c2) {
+          c1 = Character.toLowerCase(c1);
+          c2 = Character.toLowerCase(c2);
+
+          if(c1 != c2) {
+            return c1 - c2;
+          }
+        }
+      }
+    }
+
+    return nameLength - regionLength;
+  }
+
+  static final class Node {
+    /** The segment as it was first seen, later tanks that differ only in case share it */
+    final String name;
+    Node[] children = NO_CHILDREN;
+    boolean directory;
+
+    /** Set on files only, the tank that wins for this path */
+    @Nullable
+    Tank tank;
+    @Nullable
+    TankFileEntry entry;
+    /** The winning tank's own path string, so that no new strings are made per file */
+    @Nullable
+    String path;
+    /** Lower priority versions of this file, highest first */
+    TankLayer[] shadowed = NO_LAYERS;
+    /** Set on directories only, the highest priority tank with an entry for this path and that entry */
+    @Nullable
+    Tank directoryTank;
+    @Nullable
+    TankDirectoryEntry directoryEntry;
+    /** Made on first use, immutable so a race only makes it twice */
+    @Nullable
+    TankFileAttributes attributes;
+    @Nullable
+    private byte[] nameBytes;
+
+    @Nullable
+    private Set<String> childNames;
+
+    private Node(final String name) {
+      this.name = name;
+    }
+
+    boolean isFile() {
+      return this.entry != null;
+    }
+
+    /**
+     * The name in UTF-8, encoded once however many times the node is walked
+     */
+    byte[] nameBytes() {
+      byte[] nameBytes = this.nameBytes;
+
+      if(nameBytes == null) {
+        nameBytes = this.name.getBytes(StandardCharsets.UTF_8);
+        this.nameBytes = nameBytes;
+      }
+
+      return nameBytes;
+    }
+
+    /**
+     * @return every tank's version of this file, the one in use first
+     */
+    List<TankLayer> layers() {
+      if(this.entry == null) {
+        return List.of();
+      }
+
+      final TankLayer[] layers = new TankLayer[this.shadowed.length + 1];
+      layers[0] = new TankLayer(this.tank, this.entry, this.path);
+      System.arraycopy(this.shadowed, 0, layers, 1, this.shadowed.length);
+      return List.of(layers);
+    }
+
+    /**
+     * Allocated once per directory
+     */
+    Set<String> childNames() {
+      return this.childNames != null ? this.childNames : Collections.emptySet();
+    }
+  }
+
+  /**
+   * Names of a node's children
+   */
+  private static final class ChildNames extends AbstractSet<String> {
+    private final Node node;
+
+    private ChildNames(final Node node) {
+      this.node = node;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+      return o instanceof final String name && find(this.node.children, name, 0, name.length()) != null;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      final Node[] children = this.node.children;
+
+      return new Iterator<>() {
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+          return this.index < children.length;
+        }
+
+        @Override
+        public String next() {
+          if(this.index >= children.length) {
+            throw new NoSuchElementException();
+          }
+
+          return children[this.index++].name;
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return this.node.children.length;
+    }
+  }
+
+  /**
+   * One tank's tree, before it is merged with the others
+   */
+  private static final class Builder {
+    private final String name;
+    @Nullable
+    private Map<String, Builder> children;
+
+    @Nullable
+    private Tank tank;
+    @Nullable
+    private TankFileEntry entry;
+    @Nullable
+    private String path;
+    @Nullable
+    private TankDirectoryEntry directoryEntry;
+
+    private Builder(final String name) {
+      this.name = name;
+    }
+
+    private static Builder of(final Tank tank) {
+      final Builder root = new Builder("");
+
+      for(final Map.Entry<String, TankFileEntry> file : tank.filePaths().entrySet()) {
+        final String path = file.getKey();
+        Builder dir = root;
+
+        int start = path.startsWith("/") ? 1 : 0;
+        for(int end = path.indexOf('/', start); end != -1; end = path.indexOf('/', start)) {
+          if(end > start) {
+            dir = dir.child(path.substring(start, end));
+          }
+
+          start = end + 1;
+        }
+
+        final Builder leaf = dir.child(file.getValue().name());
+        leaf.tank = tank;
+        leaf.entry = file.getValue();
+        leaf.path = path;
+      }
+
+      // Directories only get their entries, they're only in the trie if they lead to files
+      for(final Map.Entry<String, TankDirectoryEntry> directory : tank.directoryPaths().entrySet()) {
+        final Builder dir = root.find(directory.getKey());
+
+        if(dir != null) {
+          dir.tank = tank;
+          dir.directoryEntry = directory.getValue();
+        }
+      }
+
+      return root;
+    }
+
+    @Nullable
+    private Builder find(final String path) {
+      Builder dir = this;
+      int start = 0;
+
+      while(start < path.length() && dir != null) {
+        int end = path.indexOf('/', start);
+        if(end == -1) {
+          end = path.length();
+        }
+
+        if(end > start) {
+          dir = dir.children != null ? dir.children.get(path.substring(start, end).toLowerCase(Locale.ROOT)) : null;
+        }
+
+        start = end + 1;
+      }
+
+      return dir;
+    }
+
+    private Builder child(final String name) {
+      if(this.children == null) {
+        this.children = new HashMap<>();
+      }
+
+      return this.children.computeIfAbsent(name.toLowerCase(Locale.ROOT), key -> new Builder(name));
+    }
+  }
+
+  /**
+   * Merges the same path from every tank that has it into one node
+   */
+  private static final class MergeTask extends RecursiveTask<Node> {
+    private static final long serialVersionUID = 1L;
+
+    /** In ascending tank priority */
+    private final List<Builder> layers;
+
+    private MergeTask(final List<Builder> layers) {
+      this.layers = layers;
+    }
+
+    @Override
+    protected Node compute() {
+      final Node node = new Node(this.layers.get(0).name);
+      int files = 0;
+
+      // Group children by key, keeping each group in priority order
+      final Map<String, List<Builder>> children = new HashMap<>();
+      for(final Builder layer : this.layers) {
+        if(layer.entry != null) {
+          files++;
+        }
+
+        if(layer.directoryEntry != null) {
+          node.directoryTank = layer.tank;
+          node.directoryEntry = layer.directoryEntry;
+        }
+
+        if(layer.children != null) {
+          node.directory = true;
+
+          for(final Map.Entry<String, Builder> child : layer.children.entrySet()) {
+            children.computeIfAbsent(child.getKey(), key -> new ArrayList<>(this.layers.size())).add(child.getValue());
+          }
+        }
+      }
+
+      if(files != 0) {
+        node.shadowed = files == 1 ? NO_LAYERS : new TankLayer[files - 1];
+        int shadowedIndex = files - 1;
+
+        for(final Builder layer : this.layers) {
+          if(layer.entry != null) {
+            if(node.entry != null) {
+              node.shadowed[--shadowedIndex] = new TankLayer(node.tank, node.entry, node.path);
+            }
+
+            node.tank = layer.tank;
+            node.entry = layer.entry;
+            node.path = layer.path;
+          }
+        }
+      }
+
+      if(!children.isEmpty()) {
+        final List<MergeTask> directories = new ArrayList<>();
+        final Node[] nodes = new Node[children.size()];
+        int i = 0;
+
+        // Files are merged inline, directories are forked
+        for(final Map.Entry<String, List<Builder>> child : children.entrySet()) {
+          if(isDirectory(child.getValue())) {
+            directories.add(new MergeTask(child.getValue()));
+          } else {
+            nodes[i++] = new MergeTask(child.getValue()).compute();
+          }
+        }
+
+        for(final MergeTask task : invokeAll(directories)) {
+          nodes[i++] = task.join();
+        }
+
+        Arrays.sort(nodes, BY_NAME);
+        node.children = nodes;
+        node.childNames = new ChildNames(node);
+      }
+
+      return node;
+    }
+
+    private static boolean isDirectory(final List<Builder> layers) {
+      for(final Builder layer : layers) {
+        if(layer.children != null) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+}
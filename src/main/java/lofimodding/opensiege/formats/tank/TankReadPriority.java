@@ -0,0 +1,14 @@
+package lofimodding.opensiege.formats.tank;
+
+/**
+ * Order in which queued asynchronous reads are served, highest first
+ */
+public enum TankReadPriority {
+  /** Needed for the frame being drawn */
+  VISIBLE,
+  /** Likely to be needed in the next few frames */
+  NEIGHBOUR,
+  /** Read ahead while nothing else is waiting */
+  PREFETCH,
+  ;
+}
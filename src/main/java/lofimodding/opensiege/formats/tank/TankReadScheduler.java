@@ -0,0 +1,210 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves asynchronous reads in priority order on a small pool of daemon threads. Requests for a file that is
+ * already queued or being read share the one read, and a queued request is promoted if it is asked for again at a
+ * higher priority. Reads only start while the bytes being read stay under a cap, except that one read is always
+ * allowed so that a file larger than the cap can still be read.
+ */
+public class TankReadScheduler {
+  private static final Comparator<Request> ORDER = Comparator.<Request>comparingInt(request -> request.priority.ordinal()).thenComparingLong(request -> request.sequence);
+
+  private final TankManager tankManager;
+  private final long maxInFlightBytes;
+  private final int threadCount;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition ready = this.lock.newCondition();
+  private final PriorityQueue<Request> queue = new PriorityQueue<>(ORDER);
+  /** Queued and in-flight requests, by the path of the file they resolve to */
+  private final Map<String, Request> pending = new HashMap<>();
+  private final List<Thread> workers = new ArrayList<>();
+  private long inFlightBytes;
+  private long sequence;
+  private boolean shutdown;
+
+  TankReadScheduler(final TankManager tankManager, final long maxInFlightBytes, final int threadCount) {
+    this.tankManager = tankManager;
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.threadCount = threadCount;
+  }
+
+  /**
+   * @param path the path of the file as stored in its tank, so that every spelling of it coalesces
+   * @param size the uncompressed size of the file
+   */
+  CompletableFuture<ByteBuffer> read(final String path, final int size, final TankReadPriority priority) {
+    this.lock.lock();
+
+    try {
+      if(this.shutdown) {
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Read scheduler has been shut down"));
+      }
+
+      if(this.workers.isEmpty()) {
+        this.start();
+      }
+
+      Request request = this.pending.get(path);
+
+      if(request == null) {
+        request = new Request(path, size, priority, this.sequence++);
+        this.pending.put(path, request);
+        this.queue.add(request);
+        this.ready.signal();
+      } else if(request.queued && priority.ordinal() < request.priority.ordinal()) {
+        // Re-insert so the queue sees the new priority
+        this.queue.remove(request);
+        request.priority = priority;
+        this.queue.add(request);
+        this.ready.signal();
+      }
+
+      // Each caller gets its own future and buffer, so one cancelling or reading doesn't affect the others
+      return request.future.thenApply(data -> data.duplicate().order(data.order()));
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void start() {
+    for(int i = 0; i < this.threadCount; i++) {
+      final Thread thread = new Thread(this::work, "Tank reader " + i);
+      thread.setDaemon(true);
+      thread.start();
+      this.workers.add(thread);
+    }
+  }
+
+  private void work() {
+    while(true) {
+      final Request request;
+
+      this.lock.lock();
+      try {
+        while(!this.shutdown && !this.canStart()) {
+          this.ready.await();
+        }
+
+        if(this.shutdown) {
+          return;
+        }
+
+        request = this.queue.poll();
+        request.queued = false;
+        this.inFlightBytes += request.size;
+      } catch(final InterruptedException e) {
+        return;
+      } finally {
+        this.lock.unlock();
+      }
+
+      ByteBuffer data = null;
+      Throwable error = null;
+
+      try {
+        data = this.tankManager.slice(request.path);
+      } catch(final Throwable e) {
+        error = e;
+      }
+
+      this.lock.lock();
+      try {
+        this.inFlightBytes -= request.size;
+        this.pending.remove(request.path, request);
+        this.ready.signalAll();
+      } finally {
+        this.lock.unlock();
+      }
+
+      // Completed outside the lock, dependent stages run on this thread
+      if(error != null) {
+        request.future.completeExceptionally(error);
+      } else {
+        request.future.complete(data);
+      }
+    }
+  }
+
+  private boolean canStart() {
+    final Request next = this.queue.peek();
+    return next != null && (this.inFlightBytes == 0 || this.inFlightBytes + next.size <= this.maxInFlightBytes);
+  }
+
+  /**
+   * Stops the worker threads once their current reads finish, queued reads are cancelled
+   */
+  public void shutdown() {
+    final List<Request> cancelled;
+
+    this.lock.lock();
+    try {
+      this.shutdown = true;
+      cancelled = new ArrayList<>(this.queue);
+      this.queue.clear();
+
+      for(final Request request : cancelled) {
+        this.pending.remove(request.path, request);
+      }
+
+      this.ready.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+
+    for(final Request request : cancelled) {
+      request.future.completeExceptionally(new CancellationException("Read scheduler has been shut down"));
+    }
+  }
+
+  public int queued() {
+    this.lock.lock();
+    try {
+      return this.queue.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public long inFlightBytes() {
+    this.lock.lock();
+    try {
+      return this.inFlightBytes;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public long maxInFlightBytes() {
+    return this.maxInFlightBytes;
+  }
+
+  private static final class Request {
+    private final String path;
+    private final int size;
+    private final long sequence;
+    private final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+    private TankReadPriority priority;
+    private boolean queued = true;
+
+    private Request(final String path, final int size, final TankReadPriority priority, final long sequence) {
+      this.path = path;
+      this.size = size;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package lofimodding.opensiege.formats.tank;
+
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the merged tank tree depth first, in the same order as {@link java.nio.file.Files#walk}, yielding the files
+ * that match a glob. Each directory is matched against the glob as it is reached and skipped with everything beneath
+ * it if nothing there can match. Paths are only made for matching files and the directories on the way to them, each
+ * from its parent's path and the node's name.
+ */
+final class TankTreeWalker implements Iterator<Path> {
+  private static final TankPathTrie.Node[] NO_NODES = new TankPathTrie.Node[0];
+
+  private final TankGlob glob;
+  private final Deque<Frame> stack = new ArrayDeque<>();
+  @Nullable
+  private Path next;
+
+  /**
+   * @param path the start directory's absolute, normalized path
+   */
+  TankTreeWalker(final TankPathTrie.Node start, final TankPath path, final TankGlob glob) {
+    this.glob = glob;
+    this.push(start, path, glob.start());
+  }
+
+  @Override
+  public boolean hasNext() {
+    if(this.next == null) {
+      this.next = this.advance();
+    }
+
+    return this.next != null;
+  }
+
+  @Override
+  public Path next() {
+    if(!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    final Path next = this.next;
+    this.next = null;
+    return next;
+  }
+
+  @Nullable
+  private Path advance() {
+    while(!this.stack.isEmpty()) {
+      final Frame frame = this.stack.peek();
+
+      if(frame.index == frame.children.length) {
+        this.stack.pop();
+        continue;
+      }
+
+      final TankPathTrie.Node child = frame.children[frame.index++];
+      final long states = this.glob.step(frame.states, child.name);
+
+      if(states == 0) {
+        continue;
+      }
+
+      if(child.directory && this.glob.canDescend(states)) {
+        this.push(child, frame.path.child(child.nameBytes()), states);
+      }
+
+      if(child.isFile() && this.glob.isMatch(states)) {
+        return frame.path.child(child.nameBytes());
+      }
+    }
+
+    return null;
+  }
+
+  private void push(final TankPathTrie.Node dir, final TankPath path, final long states) {
+    final String literal = this.glob.literal(states);
+    final TankPathTrie.Node[] children;
+
+    // Only one name can match, look it up rather than trying every child
+    if(literal != null) {
+      final TankPathTrie.Node child = TankPathTrie.child(dir, literal);
+      children = child != null ? new TankPathTrie.Node[] {child} : NO_NODES;
+    } else {
+      children = dir.children;
+    }
+
+    this.stack.push(new Frame(children, path, states));
+  }
+
+  private static final class Frame {
+    private final TankPathTrie.Node[] children;
+    private final TankPath path;
+    private final long states;
+    private int index;
+
+    private Frame(final TankPathTrie.Node[] children, final TankPath path, final long states) {
+      this.children = children;
+      this.path = path;
+      this.states = states;
+    }
+  }
+}
@@ -0,0 +1,410 @@
+package lofimodding.opensiege.formats.tank;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Trigram index over every text file in the loaded tanks, for substring searches that only read the files that can
+ * match. Trigrams are taken over lowercased bytes, every file holding all of a query's trigrams is a candidate and
+ * candidates are checked with {@link TankByteSearch}.
+ *
+ * <p>The index is saved next to the tank index cache and reused while the tanks it was built from are unchanged.
+ * It is mapped rather than read, posting lists are only touched by the queries that need them.</p>
+ */
+public final class TankTrigramIndex {
+  private static final int MAGIC = 0x47495254; // TRIG
+  private static final int VERSION = 1;
+
+  private static final String[] EXTENSIONS = {".gas", ".skrit", ".txt"};
+
+  private final TankManager tankManager;
+  private final String[] files;
+  /** Sorted, with the start and length of each one's posting list alongside */
+  private final IntBuffer trigrams;
+  private final IntBuffer starts;
+  private final IntBuffer counts;
+  /** File indices, ascending within each list */
+  private final IntBuffer postings;
+
+  private TankTrigramIndex(final TankManager tankManager, final String[] files, final IntBuffer trigrams, final IntBuffer starts, final IntBuffer counts, final IntBuffer postings) {
+    this.tankManager = tankManager;
+    this.files = files;
+    this.trigrams = trigrams;
+    this.starts = starts;
+    this.counts = counts;
+    this.postings = postings;
+  }
+
+  public static boolean isText(final String filename) {
+    final String lower = filename.toLowerCase(Locale.ROOT);
+
+    for(final String extension : EXTENSIONS) {
+      if(lower.endsWith(extension)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Loads the saved index for these tanks, or builds and saves one if there is none or the tanks have changed
+   */
+  public static TankTrigramIndex open(final TankManager tankManager, final Path cacheDir) throws IOException {
+    final byte[] key = key(tankManager);
+    final Path file = cacheDir.resolve("trigrams-" + Integer.toHexString(Arrays.hashCode(key)) + ".idx");
+
+    final TankTrigramIndex cached = load(tankManager, file, key);
+    if(cached != null) {
+      return cached;
+    }
+
+    System.out.println("Building search index...");
+    final long start = System.nanoTime();
+    final ByteBuffer index = build(tankManager, key);
+    System.out.println("Built search index in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+    save(cacheDir, file, index);
+    return read(tankManager, index.flip().position(12 + key.length));
+  }
+
+  /**
+   * @return every text file containing the query, sorted
+   */
+  public List<String> search(final String query) throws IOException {
+    final byte[] needle = TankByteSearch.lowerCase(query);
+
+    // Too short to have a trigram, every file is a candidate
+    if(needle.length < 3) {
+      return TankByteSearch.search(this.tankManager, Arrays.asList(this.files), query);
+    }
+
+    final int[] queryTrigrams = trigrams(ByteBuffer.wrap(needle));
+    final int[] lists = new int[queryTrigrams.length];
+
+    for(int i = 0; i < queryTrigrams.length; i++) {
+      lists[i] = this.find(queryTrigrams[i]);
+
+      if(lists[i] == -1) {
+        return List.of();
+      }
+    }
+
+    // Intersect starting from the rarest trigram
+    final Integer[] order = new Integer[lists.length];
+    for(int i = 0; i < order.length; i++) {
+      order[i] = lists[i];
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(this.counts.get(a), this.counts.get(b)));
+
+    int[] candidates = this.postings(order[0]);
+    for(int i = 1; i < order.length && candidates.length != 0; i++) {
+      candidates = this.intersect(candidates, order[i]);
+    }
+
+    final List<String> filenames = new ArrayList<>(candidates.length);
+    for(final int candidate : candidates) {
+      filenames.add(this.files[candidate]);
+    }
+
+    return TankByteSearch.search(this.tankManager, filenames, query);
+  }
+
+  public int fileCount() {
+    return this.files.length;
+  }
+
+  public int trigramCount() {
+    return this.trigrams.limit();
+  }
+
+  private int find(final int trigram) {
+    int low = 0;
+    int high = this.trigrams.limit() - 1;
+
+    while(low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int value = this.trigrams.get(mid);
+
+      if(value < trigram) {
+        low = mid + 1;
+      } else if(value > trigram) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+
+    return -1;
+  }
+
+  private int[] postings(final int list) {
+    final int[] postings = new int[this.counts.get(list)];
+    this.postings.get(this.starts.get(list), postings);
+    return postings;
+  }
+
+  /**
+   * Both sides are ascending
+   */
+  private int[] intersect(final int[] candidates, final int list) {
+    final int start = this.starts.get(list);
+    final int end = start + this.counts.get(list);
+    final int[] out = new int[candidates.length];
+    int count = 0;
+    int p = start;
+
+    for(final int candidate : candidates) {
+      while(p < end && this.postings.get(p) < candidate) {
+        p++;
+      }
+
+      if(p == end) {
+        break;
+      }
+
+      if(this.postings.get(p) == candidate) {
+        out[count++] = candidate;
+      }
+    }
+
+    return Arrays.copyOf(out, count);
+  }
+
+  /**
+   * Distinct lowercased trigrams of the buffer's remaining bytes, sorted
+   */
+  static int[] trigrams(final ByteBuffer data) {
+    final int start = data.position();
+    final int length = data.remaining();
+
+    if(length < 3) {
+      return new int[0];
+    }
+
+    final int[] trigrams = new int[length - 2];
+    int trigram = (TankByteSearch.lower(data.get(start)) & 0xff) << 8 | TankByteSearch.lower(data.get(start + 1)) & 0xff;
+
+    for(int i = 2; i < length; i++) {
+      trigram = (trigram << 8 | TankByteSearch.lower(data.get(start + i)) & 0xff) & 0xffffff;
+      trigrams[i - 2] = trigram;
+    }
+
+    Arrays.sort(trigrams);
+
+    int distinct = 1;
+    for(int i = 1; i < trigrams.length; i++) {
+      if(trigrams[i] != trigrams[distinct - 1]) {
+        trigrams[distinct++] = trigrams[i];
+      }
+    }
+
+    return Arrays.copyOf(trigrams, distinct);
+  }
+
+  /**
+   * Tanks, sizes and modification times the index was built from
+   */
+  private static byte[] key(final TankManager tankManager) throws IOException {
+    final StringBuilder key = new StringBuilder();
+
+    for(final Tank tank : tankManager.getTanks()) {
+      key.append(tank.path().toAbsolutePath().normalize()).append('|').append(Files.size(tank.path())).append('|').append(Files.getLastModifiedTime(tank.path()).toMillis()).append('\n');
+    }
+
+    return key.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static ByteBuffer build(final TankManager tankManager, final byte[] key) throws IOException {
+    final List<String> files = new ArrayList<>();
+    for(final String file : tankManager.getFiles()) {
+      if(isText(file)) {
+        files.add(file);
+      }
+    }
+
+    files.sort(null);
+
+    final Map<String, Integer> ids = new HashMap<>(files.size() * 4 / 3 + 1);
+    for(int i = 0; i < files.size(); i++) {
+      ids.put(files.get(i), i);
+    }
+
+    final int[][] fileTrigrams = new int[files.size()][];
+    tankManager.readAll(files, (filename, data) -> fileTrigrams[ids.get(filename)] = trigrams(data));
+
+    // Size every posting list, then fill them in file order so that each one is ascending
+    final Int2IntMap counts = new Int2IntOpenHashMap();
+    long totalPostings = 0;
+    for(final int[] trigrams : fileTrigrams) {
+      if(trigrams != null) {
+        for(final int trigram : trigrams) {
+          counts.put(trigram, counts.get(trigram) + 1);
+        }
+
+        totalPostings += trigrams.length;
+      }
+    }
+
+    final int[] sorted = counts.keySet().toIntArray();
+    Arrays.sort(sorted);
+
+    final Int2IntMap cursors = new Int2IntOpenHashMap(sorted.length);
+    final int[] starts = new int[sorted.length];
+    int start = 0;
+    for(int i = 0; i < sorted.length; i++) {
+      starts[i] = start;
+      cursors.put(sorted[i], start);
+      start += counts.get(sorted[i]);
+    }
+
+    final int[] postings = new int[(int)totalPostings];
+    for(int file = 0; file < fileTrigrams.length; file++) {
+      if(fileTrigrams[file] != null) {
+        for(final int trigram : fileTrigrams[file]) {
+          final int cursor = cursors.get(trigram);
+          postings[cursor] = file;
+          cursors.put(trigram, cursor + 1);
+        }
+      }
+    }
+
+    final byte[][] names = new byte[files.size()][];
+    long size = 4 + 4 + 4 + key.length + 4 + 4 + (long)sorted.length * 12 + 4 + postings.length * 4L;
+    for(int i = 0; i < names.length; i++) {
+      names[i] = files.get(i).getBytes(StandardCharsets.UTF_8);
+      size += 4 + names[i].length;
+    }
+
+    if(size > Integer.MAX_VALUE) {
+      throw new IOException("Search index is too large");
+    }
+
+    final ByteBuffer index = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+    index.putInt(MAGIC).putInt(VERSION).putInt(key.length).put(key);
+
+    index.putInt(names.length);
+    for(final byte[] name : names) {
+      index.putInt(name.length).put(name);
+    }
+
+    index.putInt(sorted.length);
+    index.asIntBuffer().put(sorted);
+    index.position(index.position() + sorted.length * 4);
+    index.asIntBuffer().put(starts);
+    index.position(index.position() + starts.length * 4);
+    for(final int trigram : sorted) {
+      index.putInt(counts.get(trigram));
+    }
+
+    index.putInt(postings.length);
+    index.asIntBuffer().put(postings);
+    index.position(index.position() + postings.length * 4);
+    return index;
+  }
+
+  @Nullable
+  private static TankTrigramIndex load(final TankManager tankManager, final Path file, final byte[] key) {
+    if(!Files.isRegularFile(file)) {
+      return null;
+    }
+
+    try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+      if(index.getInt() != MAGIC || index.getInt() != VERSION || index.getInt() != key.length || !index.slice(index.position(), key.length).equals(ByteBuffer.wrap(key))) {
+        return null;
+      }
+
+      return read(tankManager, index.position(index.position() + key.length));
+    } catch(final IOException | RuntimeException e) {
+      // Corrupt counts end up here too, the index is rebuilt rather than trusted
+      System.err.println("Ignoring unreadable search index " + file + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * @param index positioned after the key
+   */
+  private static TankTrigramIndex read(final TankManager tankManager, final ByteBuffer index) {
+    final String[] files = new String[count(index, 4)];
+    for(int i = 0; i < files.length; i++) {
+      final byte[] name = new byte[count(index, 1)];
+      index.get(name);
+      files[i] = new String(name, StandardCharsets.UTF_8);
+    }
+
+    final int trigramCount = count(index, 12);
+    final IntBuffer trigrams = ints(index, trigramCount);
+    final IntBuffer starts = ints(index, trigramCount);
+    final IntBuffer counts = ints(index, trigramCount);
+    final IntBuffer postings = ints(index, count(index, 4));
+
+    return new TankTrigramIndex(tankManager, files, trigrams, starts, counts, postings);
+  }
+
+  /**
+   * Reads a count and checks that many items of this size could fit in what's left, so that nothing is allocated or
+   * sliced from a corrupt one
+   */
+  private static int count(final ByteBuffer index, final int itemBytes) {
+    final int count = index.getInt();
+    if(count < 0 || count > index.remaining() / itemBytes) {
+      throw new BufferUnderflowException();
+    }
+
+    return count;
+  }
+
+  private static IntBuffer ints(final ByteBuffer index, final int count) {
+    final IntBuffer ints = index.slice(index.position(), count * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    index.position(index.position() + count * 4);
+    return ints;
+  }
+
+  /**
+   * Failures are reported but never fatal, the index will just be rebuilt next time
+   */
+  private static void save(final Path cacheDir, final Path file, final ByteBuffer index) {
+    try {
+      Files.createDirectories(cacheDir);
+
+      // Write next to the index and swap it in so that a crash never leaves a truncated index behind
+      final Path temp = Files.createTempFile(cacheDir, file.getFileName().toString(), ".tmp");
+      try {
+        try(final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          final ByteBuffer buffer = index.duplicate().flip();
+          while(buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch(final IOException e) {
+      System.err.println("Failed to write search index " + file + ": " + e);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Checks whole tanks against their recorded CRC32s, spread over the common pool. Every entry is decompressed and
+ * checksummed in a single pass, entries with no recorded CRC are only checked to decompress.
+ */
+public final class TankVerifier {
+  private TankVerifier() { }
+
+  private static final long PROGRESS_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+  public static Result verify(final List<Tank> tanks, final Consumer<Progress> progress) {
+    final List<Work> work = new ArrayList<>();
+    long totalBytes = 0;
+
+    for(final Tank tank : tanks) {
+      final List<Work> tankWork = new ArrayList<>(tank.filePaths().size());
+
+      for(final Map.Entry<String, TankFileEntry> file : tank.filePaths().entrySet()) {
+        tankWork.add(new Work(tank, file.getKey(), file.getValue()));
+        totalBytes += file.getValue().entrySize();
+      }
+
+      // Read each tank front to back rather than at random
+      tankWork.sort(Comparator.comparingInt(w -> w.entry.dataOffset()));
+      work.addAll(tankWork);
+    }
+
+    final long start = System.nanoTime();
+    final long filesTotal = work.size();
+    final long bytesTotal = totalBytes;
+    final LongAdder files = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+    final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+    final AtomicLong lastReport = new AtomicLong(start);
+
+    work.parallelStream().forEach(w -> {
+      try {
+        if(w.entry.isCompressed()) {
+          w.tank.decompress(w.entry, true);
+        } else {
+          w.tank.verify(w.entry);
+        }
+      } catch(final IOException | RuntimeException e) {
+        failures.add(new Failure(w.tank, w.path, e.getMessage()));
+      }
+
+      if(w.entry.crc32() == TankChecksum.UNKNOWN) {
+        skipped.increment();
+      }
+
+      files.increment();
+      bytes.add(w.entry.entrySize());
+
+      // Only one thread reports per interval
+      final long now = System.nanoTime();
+      final long last = lastReport.get();
+      if(now - last >= PROGRESS_INTERVAL && lastReport.compareAndSet(last, now)) {
+        progress.accept(new Progress(files.sum(), filesTotal, bytes.sum(), bytesTotal, failures.size(), now - start));
+      }
+    });
+
+    final long elapsed = System.nanoTime() - start;
+    progress.accept(new Progress(filesTotal, filesTotal, bytesTotal, bytesTotal, failures.size(), elapsed));
+    return new Result(filesTotal, bytesTotal, skipped.sum(), List.copyOf(failures), elapsed);
+  }
+
+  private record Work(Tank tank, String path, TankFileEntry entry) { }
+
+  public record Progress(long filesDone, long filesTotal, long bytesDone, long bytesTotal, int failures, long elapsedNanos) {
+    /**
+     * @return uncompressed bytes verified per second so far
+     */
+    public double throughput() {
+      return this.elapsedNanos == 0 ? 0 : this.bytesDone * 1e9 / this.elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d/%d files, %.1f/%.1f MiB, %.1f MiB/s, %d failed", this.filesDone, this.filesTotal, this.bytesDone / 1048576.0, this.bytesTotal / 1048576.0, this.throughput() / 1048576.0, this.failures);
+    }
+  }
+
+  /**
+   * @param skipped entries with no recorded CRC, which were decompressed but not checksummed
+   */
+  public record Result(long files, long bytes, long skipped, List<Failure> failures, long elapsedNanos) {
+    public boolean ok() {
+      return this.failures.isEmpty();
+    }
+
+    /**
+     * @return uncompressed bytes verified per second
+     */
+    public double throughput() {
+      return this.elapsedNanos == 0 ? 0 : this.bytes * 1e9 / this.elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d files (%d without a CRC), %.1f MiB in %.2f s, %.1f MiB/s, %d failed", this.files, this.skipped, this.bytes / 1048576.0, this.elapsedNanos / 1e9, this.throughput() / 1048576.0, this.failures.size());
+    }
+  }
+
+  public record Failure(Tank tank, String path, String message) { }
+}
@@ -0,0 +1,458 @@
+package lofimodding.opensiege.formats.tank;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+
+/**
+ * Repacks a tank. By default every entry is copied exactly as it is stored, in its original order. Entries can
+ * instead be stored uncompressed so that reads are zero-copy views of the mapped tank, recompressed with another
+ * chunk size or format, and laid out in the order a session first read them so that loading reads front to back.
+ *
+ * <p>The header and directory set are copied byte for byte, only the offsets that move are rewritten. Entries that
+ * are decompressed to be rewritten are checked against their CRC32 first.</p>
+ */
+public class TankWriter {
+  /** Product and tank IDs, then the header version */
+  private static final int FILE_SET_OFFSET = 16;
+  private static final int INDEX_SIZE = 20;
+  private static final int DATA_SET_OFFSET = 24;
+
+  /** Parent, size, data offset, CRC, file time, format and flags, ahead of the name */
+  private static final int FILE_ENTRY_SIZE = 4 + 4 + 4 + 4 + 8 + 2 + 2;
+  /** Parent, child count and file time, ahead of the name */
+  private static final int DIR_ENTRY_SIZE = 4 + 4 + 8;
+  private static final int DATA_SET_ALIGNMENT = 16;
+  private static final int ENTRY_ALIGNMENT = 4;
+
+  /** Entries encoded ahead of the one being written */
+  private static final int WINDOW = ForkJoinPool.getCommonPoolParallelism() * 2 + 1;
+
+  private Predicate<String> storeUncompressed = path -> false;
+  private int chunkSize;
+  @Nullable
+  private TankFormat format;
+  private List<String> order = List.of();
+
+  /**
+   * @param paths tank paths of compressed entries to store uncompressed, e.g. hot .sno and .gas files
+   */
+  public TankWriter storeUncompressed(final Predicate<String> paths) {
+    this.storeUncompressed = paths;
+    return this;
+  }
+
+  /**
+   * Recompresses every compressed entry with chunks of this size, 0 keeps each entry's chunks as they are
+   */
+  public TankWriter chunkSize(final int chunkSize) {
+    if(chunkSize < 0) {
+      throw new IllegalArgumentException("Negative chunk size " + chunkSize);
+    }
+
+    this.chunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Recompresses every compressed entry in this format, null keeps each entry's format
+   */
+  public TankWriter format(@Nullable final TankFormat format) {
+    if(format != null && !format.isCompressed()) {
+      throw new IllegalArgumentException("Use storeUncompressed to store entries uncompressed");
+    }
+
+    this.format = format;
+    return this;
+  }
+
+  /**
+   * @param trace tank paths in the order they are first read, e.g. from {@link TankManager#stopAccessTrace}. Entries
+   *              in the trace are laid out first, in trace order, the rest follow in their original order.
+   */
+  public TankWriter order(final List<String> trace) {
+    this.order = List.copyOf(trace);
+    return this;
+  }
+
+  public void write(final Tank source, final Path out) throws IOException {
+    final TankHeader header = source.header();
+    final ByteBuffer data = source.data().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+    final Map<TankFileEntry, String> paths = new IdentityHashMap<>();
+    for(final Map.Entry<String, TankFileEntry> file : source.filePaths().entrySet()) {
+      paths.put(file.getValue(), file.getKey());
+    }
+
+    // Entries keep their place in the file set, only their offsets change
+    final int fileCount = data.getInt(header.fileSetOffset());
+    final List<Item> items = new ArrayList<>(fileCount);
+    int fileSetSize = 4 + fileCount * 4;
+
+    for(int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+      final int key = data.getInt(header.fileSetOffset() + 4 + fileIndex * 4);
+      final TankFileEntry entry = source.fileEntries().get(key);
+
+      if(entry == null) {
+        continue;
+      }
+
+      final Item item = this.plan(data, header, key, entry, paths.getOrDefault(entry, entry.name()));
+      item.newKey = fileSetSize;
+      fileSetSize += item.indexSize;
+      items.add(item);
+    }
+
+    // The offset table is sized for the entries actually written
+    final int skipped = fileCount - items.size();
+    for(final Item item : items) {
+      item.newKey -= skipped * 4;
+    }
+    fileSetSize -= skipped * 4;
+
+    final int fileSetOffset = header.fileSetOffset();
+    final int fileSetEnd = fileSetOffset + fileSetSize;
+    final int dataSetOffset = align(fileSetEnd, DATA_SET_ALIGNMENT);
+
+    final Path temp = out.resolveSibling(out.getFileName() + ".tmp");
+
+    try(final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      this.writeData(source, this.layout(items), channel, dataSetOffset);
+
+      final ByteBuffer index = ByteBuffer.allocate(dataSetOffset).order(ByteOrder.LITTLE_ENDIAN);
+      index.put(data.slice(0, fileSetOffset));
+      index.putInt(FILE_SET_OFFSET, fileSetOffset);
+      index.putInt(INDEX_SIZE, fileSetEnd - header.dirSetOffset());
+      index.putInt(DATA_SET_OFFSET, dataSetOffset);
+
+      patchChildOffsets(source, items, index);
+      writeFileSet(data, header, items, index.position(fileSetOffset));
+
+      writeFully(channel, index.clear(), 0);
+    } catch(final IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+
+    Files.move(temp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Item plan(final ByteBuffer data, final TankHeader header, final int key, final TankFileEntry entry, final String path) {
+    final int nameLength = data.getShort(header.fileSetOffset() + key + FILE_ENTRY_SIZE) & 0xffff;
+    final Item item = new Item(key, entry, path, nStringSize(nameLength));
+
+    if(!entry.isCompressed()) {
+      item.mode = Mode.COPY;
+      item.format = entry.format();
+      item.indexSize = FILE_ENTRY_SIZE + item.nameSize;
+      return item;
+    }
+
+    final TankFileCompressionHeader compression = entry.compressionHeader();
+
+    if(this.storeUncompressed.test(path)) {
+      item.mode = Mode.STORE;
+      item.format = TankFormat.RAW;
+      item.indexSize = FILE_ENTRY_SIZE + item.nameSize;
+      return item;
+    }
+
+    final TankFormat format = this.format != null ? this.format : entry.format();
+    final int chunkSize = this.chunkSize != 0 ? this.chunkSize : compression.chunkSize();
+
+    item.mode = format != entry.format() || chunkSize != compression.chunkSize() ? Mode.RECOMPRESS : Mode.COPY;
+    item.format = format;
+    item.chunkSize = chunkSize;
+    item.indexSize = FILE_ENTRY_SIZE + item.nameSize + 8 + chunkCount(entry.entrySize(), chunkSize) * 16;
+    return item;
+  }
+
+  /**
+   * Traced entries first, in trace order, then the rest in the order they were stored
+   */
+  private List<Item> layout(final List<Item> items) {
+    final Map<String, Integer> ranks = new HashMap<>();
+    for(int i = 0; i < this.order.size(); i++) {
+      ranks.putIfAbsent(normalise(this.order.get(i)), i);
+    }
+
+    final List<Item> layout = new ArrayList<>(items);
+    layout.sort(Comparator.<Item>comparingInt(item -> ranks.getOrDefault(normalise(item.path), Integer.MAX_VALUE)).thenComparingInt(item -> item.entry.dataOffset()));
+    return layout;
+  }
+
+  private static String normalise(final String path) {
+    return (path.startsWith("/") ? path : '/' + path).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Entries are encoded on the common pool a window ahead of the one being written
+   */
+  private void writeData(final Tank source, final List<Item> layout, final FileChannel channel, final int dataSetOffset) throws IOException {
+    final Deque<CompletableFuture<Item>> window = new ArrayDeque<>();
+    long position = dataSetOffset;
+
+    try {
+      for(final Item item : layout) {
+        window.add(CompletableFuture.supplyAsync(() -> encode(source, item)));
+
+        if(window.size() >= WINDOW) {
+          position = write(channel, window.remove().join(), position, dataSetOffset);
+        }
+      }
+
+      while(!window.isEmpty()) {
+        position = write(channel, window.remove().join(), position, dataSetOffset);
+      }
+    } catch(final CompletionException e) {
+      if(e.getCause() instanceof final UncheckedIOException io) {
+        throw io.getCause();
+      }
+
+      throw e;
+    }
+  }
+
+  private static long write(final FileChannel channel, final Item item, final long position, final int dataSetOffset) throws IOException {
+    if(position - dataSetOffset > Integer.MAX_VALUE - item.encoded.remaining()) {
+      throw new IOException("Repacked tank is too large");
+    }
+
+    final int length = item.encoded.remaining();
+    item.newDataOffset = (int)(position - dataSetOffset);
+    writeFully(channel, item.encoded, position);
+    item.encoded = null;
+    return align(position + length, ENTRY_ALIGNMENT);
+  }
+
+  private static Item encode(final Tank source, final Item item) {
+    try {
+      final TankFileEntry entry = item.entry;
+
+      switch(item.mode) {
+        case COPY -> {
+          item.encoded = source.data().slice((int)((long)source.header().dataOffset() + entry.dataOffset()), entry.storedSize());
+          item.compression = entry.compressionHeader();
+        }
+
+        case STORE -> item.encoded = ByteBuffer.wrap(source.decompress(entry, true));
+
+        case RECOMPRESS -> {
+          final byte[] raw = source.decompress(entry, true);
+          item.compression = compress(item, raw);
+        }
+      }
+
+      return item;
+    } catch(final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Chunks that don't get smaller are stored as they are
+   */
+  private static TankFileCompressionHeader compress(final Item item, final byte[] raw) {
+    final TankChunkHeader[] chunkHeaders = new TankChunkHeader[chunkCount(raw.length, item.chunkSize)];
+    final byte[] output = new byte[raw.length];
+    final byte[] scratch = new byte[item.format == TankFormat.LZO ? Lzo1x.maxCompressedLength(item.chunkSize) : item.chunkSize];
+    final Deflater deflater = item.format == TankFormat.ZLIB ? new Deflater() : null;
+    int outputOffset = 0;
+
+    try {
+      for(int chunkIndex = 0; chunkIndex < chunkHeaders.length; chunkIndex++) {
+        final int offset = chunkIndex * item.chunkSize;
+        final int length = Math.min(item.chunkSize, raw.length - offset);
+        int compressedBytes;
+
+        if(deflater != null) {
+          deflater.reset();
+          deflater.setInput(raw, offset, length);
+          deflater.finish();
+          compressedBytes = deflater.deflate(scratch, 0, length - 1);
+
+          if(!deflater.finished()) {
+            compressedBytes = length;
+          }
+        } else {
+          compressedBytes = Lzo1x.compress(raw, offset, length, scratch, 0);
+        }
+
+        if(compressedBytes >= length) {
+          System.arraycopy(raw, offset, output, outputOffset, length);
+          compressedBytes = length;
+        } else {
+          System.arraycopy(scratch, 0, output, outputOffset, compressedBytes);
+        }
+
+        chunkHeaders[chunkIndex] = new TankChunkHeader(length, compressedBytes, 0, outputOffset);
+        outputOffset += compressedBytes;
+      }
+    } finally {
+      if(deflater != null) {
+        deflater.end();
+      }
+    }
+
+    item.encoded = ByteBuffer.wrap(output, 0, outputOffset);
+    return new TankFileCompressionHeader(outputOffset, item.chunkSize, chunkHeaders);
+  }
+
+  /**
+   * Directory entries that list files as children point at the old file set, directories don't move. Directory and
+   * file keys are separate address spaces that can collide, so children are told apart by which entry names the
+   * directory as its parent.
+   */
+  private static void patchChildOffsets(final Tank source, final List<Item> items, final ByteBuffer index) {
+    final Int2IntMap fileKeys = new Int2IntOpenHashMap(items.size());
+    for(final Item item : items) {
+      fileKeys.put(item.oldKey, item.newKey);
+    }
+
+    final int dirSetOffset = source.header().dirSetOffset();
+
+    for(final IntIterator it = source.directoryEntries().keySet().iterator(); it.hasNext(); ) {
+      final int dirKey = it.nextInt();
+      final int entryOffset = dirSetOffset + dirKey;
+      final int nameLength = index.getShort(entryOffset + DIR_ENTRY_SIZE) & 0xffff;
+      final int childOffsets = entryOffset + DIR_ENTRY_SIZE + nStringSize(nameLength);
+      final int[] children = source.directoryEntries().get(dirKey).childOffsets();
+
+      for(int childIndex = 0; childIndex < children.length; childIndex++) {
+        final int child = children[childIndex] - dirSetOffset;
+
+        final TankFileEntry file = source.fileEntries().get(child);
+        final TankDirectoryEntry dir = source.directoryEntries().get(child);
+        final boolean isFile = file != null && file.parentOffset() == dirKey;
+        final boolean isDir = dir != null && dir.parentOffset() == dirKey;
+
+        if(isFile && !isDir && fileKeys.containsKey(child)) {
+          index.putInt(childOffsets + childIndex * 4, fileKeys.get(child));
+        }
+      }
+    }
+  }
+
+  private static void writeFileSet(final ByteBuffer data, final TankHeader header, final List<Item> items, final ByteBuffer index) {
+    final int fileSetOffset = index.position();
+    index.putInt(items.size());
+
+    for(final Item item : items) {
+      index.putInt(item.newKey);
+    }
+
+    for(final Item item : items) {
+      final TankFileEntry entry = item.entry;
+      index.position(fileSetOffset + item.newKey);
+      index.putInt(entry.parentOffset());
+      index.putInt(entry.entrySize());
+      index.putInt(item.newDataOffset);
+      index.putInt(entry.crc32());
+      index.putLong(entry.fileTime());
+      index.putShort((short)item.format.ordinal());
+      index.putShort((short)entry.flags().code);
+
+      // The name is copied as stored rather than re-encoded
+      index.put(data.slice(header.fileSetOffset() + item.oldKey + FILE_ENTRY_SIZE, item.nameSize));
+
+      if(item.compression != null && item.format.isCompressed()) {
+        index.putInt(item.compression.compressedSize());
+        index.putInt(item.compression.chunkSize());
+
+        for(final TankChunkHeader chunkHeader : item.compression.chunkHeaders()) {
+          index.putInt(chunkHeader.uncompressedBytes());
+          index.putInt(chunkHeader.compressedBytes());
+          index.putInt(chunkHeader.extraBytes());
+          index.putInt(chunkHeader.offset());
+        }
+      }
+    }
+  }
+
+  private static int chunkCount(final int entrySize, final int chunkSize) {
+    return entrySize == 0 ? 0 : (entrySize + chunkSize - 1) / chunkSize;
+  }
+
+  /**
+   * Length, name and padding to a 4-byte boundary
+   */
+  private static int nStringSize(final int length) {
+    return 2 + length + 4 - (length + 2) % 4;
+  }
+
+  private static int align(final int value, final int alignment) {
+    return (value + alignment - 1) / alignment * alignment;
+  }
+
+  private static long align(final long value, final int alignment) {
+    return (value + alignment - 1) / alignment * alignment;
+  }
+
+  private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+    while(buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private enum Mode {
+    /** Stored bytes and chunk headers are copied as they are */
+    COPY,
+    /** Decompressed and stored uncompressed */
+    STORE,
+    /** Decompressed and compressed again */
+    RECOMPRESS,
+    ;
+  }
+
+  private static final class Item {
+    private final int oldKey;
+    private final TankFileEntry entry;
+    private final String path;
+    private final int nameSize;
+
+    private Mode mode;
+    private TankFormat format;
+    private int chunkSize;
+    /** Bytes the entry takes in the file set */
+    private int indexSize;
+
+    private int newKey;
+    private int newDataOffset;
+    @Nullable
+    private ByteBuffer encoded;
+    @Nullable
+    private TankFileCompressionHeader compression;
+
+    private Item(final int oldKey, final TankFileEntry entry, final String path, final int nameSize) {
+      this.oldKey = oldKey;
+      this.entry = entry;
+      this.path = path;
+      this.nameSize = nameSize;
+    }
+  }
+}
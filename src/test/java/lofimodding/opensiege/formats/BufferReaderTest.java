@@ -0,0 +1,58 @@
+package lofimodding.opensiege.formats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BufferReaderTest {
+  private static BufferReader ints(final int... values) {
+    final ByteBuffer data = ByteBuffer.allocate(values.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    data.asIntBuffer().put(values);
+    return new BufferReader(data);
+  }
+
+  @Test
+  void readsGroups() throws EOFException {
+    final BufferReader reader = ints(1, 2, 3, 4, 5, 6, 7);
+
+    assertArrayEquals(new int[] {1, 2, 3, 4, 5, 6}, reader.readInts(3, 2));
+    assertArrayEquals(new int[] {7}, reader.readInts(1));
+    assertEquals(0, reader.remaining());
+  }
+
+  @Test
+  void readsFloatsAndShorts() throws EOFException {
+    final BufferReader reader = ints(Float.floatToRawIntBits(1.5f), Float.floatToRawIntBits(-2.0f), 0x0002_ffff);
+
+    assertArrayEquals(new float[] {1.5f, -2.0f}, reader.readFloats(1, 2));
+    assertArrayEquals(new short[] {-1, 2}, reader.readShorts(2, 1));
+  }
+
+  /**
+   * Corrupt counts fail before anything is allocated, and leave the reader where it was
+   */
+  @Test
+  void corruptCountsAreEndOfFile() {
+    final BufferReader reader = ints(1, 2, 3, 4);
+
+    assertThrows(EOFException.class, () -> reader.readInts(5));
+    assertThrows(EOFException.class, () -> reader.readInts(3, 2));
+    assertThrows(EOFException.class, () -> reader.readInts(-1));
+    assertThrows(EOFException.class, () -> reader.readFloats(-1, 3));
+    assertThrows(EOFException.class, () -> reader.readShorts(-1, 3));
+
+    // Would wrap around to a small positive size if multiplied out
+    assertThrows(EOFException.class, () -> reader.readInts(0x5555_5556, 3));
+    assertThrows(EOFException.class, () -> reader.readFloats(0x5555_5556, 3));
+    assertThrows(EOFException.class, () -> reader.readInts(Integer.MAX_VALUE, 2));
+    assertThrows(EOFException.class, () -> reader.readShorts(Integer.MAX_VALUE, 3));
+
+    assertEquals(16, reader.remaining());
+  }
+}
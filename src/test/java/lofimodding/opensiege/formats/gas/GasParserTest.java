@@ -0,0 +1,201 @@
+package lofimodding.opensiege.formats.gas;
+
+import lofimodding.opensiege.world.WorldPos;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Edge cases where the single pass parser has to build the same trees the state machine it replaced did. The expected
+ * trees are what the state machine built for the same text.
+ */
+class GasParserTest {
+  private static GasEntry block(final String body) {
+    final GasEntry root = GasLoader.load("[t:a,n:x]\n{\n" + body + "}\n");
+    final GasEntry block = root.getChild("t:a,n:x");
+    assertNotNull(block);
+    return block;
+  }
+
+  @Test
+  void repeatedHeadersBecomeAList() {
+    final GasEntry block = block("  [door]\n  {\n    id = 1;\n  }\n  [door]\n  {\n    id = 2;\n  }\n  [door]\n  {\n    id = 3;\n  }\n");
+
+    assertNull(block.getChild("door"));
+    final List<GasEntry> doors = block.getArrayChildren("door");
+    assertNotNull(doors);
+    assertEquals(3, doors.size());
+    assertEquals(1, doors.get(0).get("id"));
+    assertEquals(2, doors.get(1).get("id"));
+    assertEquals(3, doors.get(2).get("id"));
+  }
+
+  @Test
+  void starredHeaderIsAListOfOne() {
+    final GasEntry block = block("  [door*]\n  {\n    id = 1;\n  }\n");
+
+    assertNull(block.getChild("door"));
+    final List<GasEntry> doors = block.getArrayChildren("door");
+    assertNotNull(doors);
+    assertEquals(1, doors.size());
+    assertEquals(1, doors.get(0).get("id"));
+  }
+
+  @Test
+  void nestedBlocks() {
+    final GasEntry block = block("  [outer]\n  {\n    [inner]\n    {\n      [deepest]\n      {\n        v = 1;\n      }\n    }\n  }\n");
+
+    assertEquals(1, block.getChild("outer").getChild("inner").getChild("deepest").get("v"));
+  }
+
+  @Test
+  void starredKeysCollectValues() {
+    final GasEntry block = block("  one* = 1;\n  many* = 2;\n  many* = 3.5;\n  many* = word;\n");
+
+    assertEquals(List.of(1), block.get("one"));
+    assertEquals(List.of(2, 3.5f, "word"), block.get("many"));
+  }
+
+  @Test
+  void valueAndBlockShareAKey() {
+    final GasEntry block = block("  door = 1;\n  [door]\n  {\n    id = 2;\n  }\n  door = 3;\n");
+
+    assertEquals(List.of(1, 3), block.get("door"));
+    final List<GasEntry> doors = block.getArrayChildren("door");
+    assertNotNull(doors);
+    assertEquals(1, doors.size());
+    assertEquals(2, doors.get(0).get("id"));
+  }
+
+  @Test
+  void repeatedRootsBecomeAList() {
+    final GasEntry root = GasLoader.load("[t:a,n:x]\n{\n  one = 1;\n}\n[t:a,n:x]\n{\n  one = 2;\n}\n[t:b,n:y]\n{\n  two = 3;\n}\n");
+
+    assertNull(root.getChild("t:a,n:x"));
+    final List<GasEntry> roots = root.getArrayChildren("t:a,n:x");
+    assertNotNull(roots);
+    assertEquals(2, roots.size());
+    assertEquals(1, roots.get(0).get("one"));
+    assertEquals(2, roots.get(1).get("one"));
+    assertEquals(3, root.getChild("t:b,n:y").get("two"));
+  }
+
+  @Test
+  void typedValues() {
+    final GasEntry block = block("  b yes = true;\n  b no = false;\n  f scale = 1.5;\n  f exp = 2e3;\n  f neg = -0.25;\n  x flags = 0xff00ff00;\n  x small = 0x1f;\n  i count = -42;\n");
+
+    assertEquals(true, block.get("yes"));
+    assertEquals(false, block.get("no"));
+    assertEquals(1.5f, block.get("scale"));
+    assertEquals(2000.0f, block.get("exp"));
+    assertEquals(-0.25f, block.get("neg"));
+    assertEquals(0xff00ff00, block.get("flags"));
+    assertEquals(0x1f, block.get("small"));
+    assertEquals(-42, block.get("count"));
+  }
+
+  @Test
+  void untypedValues() {
+    final GasEntry block = block("  int = 17;\n  neg = -3;\n  hex = 0x10;\n  badhex = 0xzz;\n  float = 2.5;\n  bool = true;\n  none = none;\n  pos = 1.5,0,-2.25,0x00ab;\n  time = 12h30m;\n  word = grs01;\n  spaced =   hello world  ;\n  big = 99999999999;\n  exp = 1e3;\n  nan = NaN;\n");
+
+    assertEquals(17, block.get("int"));
+    assertEquals(-3, block.get("neg"));
+    assertEquals(16, block.get("hex"));
+    assertEquals(0, block.get("badhex"));
+    assertEquals(2.5f, block.get("float"));
+    assertEquals(true, block.get("bool"));
+    assertNull(block.get("none"));
+    assertEquals(LocalTime.of(12, 30), block.get("time"));
+    assertEquals("grs01", block.get("word"));
+    assertEquals("hello world", block.get("spaced"));
+    assertEquals(99999999999.0f, block.get("big"));
+    assertEquals(1000.0f, block.get("exp"));
+    assertEquals(Float.NaN, block.get("nan"));
+
+    final WorldPos pos = assertInstanceOf(WorldPos.class, block.get("pos"));
+    assertEquals(0xab, pos.getNodeId());
+    assertEquals(1.5f, pos.getX());
+    assertEquals(0.0f, pos.getY());
+    assertEquals(-2.25f, pos.getZ());
+  }
+
+  @Test
+  void quotedAndBracketedValues() {
+    final GasEntry block = block("  quoted = \"hello; world\";\n  multi = \"line1\r\nline2\rline3\";\n  bracket = <t_grs01_floor>;\n");
+
+    assertEquals("hello; world", block.get("quoted"));
+    assertEquals("line1\nline2\nline3", block.get("multi"));
+    assertEquals(new GasBracketType("t_grs01_floor"), block.get("bracket"));
+  }
+
+  @Test
+  void emptyValueIsAnEmptyString() {
+    assertEquals("", block("  a = ;\n").get("a"));
+  }
+
+  @Test
+  void comments() {
+    final GasEntry root = GasLoader.load("// leading comment\n[t:a,n:x]\n{\n  one = 1; // trailing\n  /* block\n     comment */ two = 2;\n  /*/ three = 3;\n  four = 4;\n}\n");
+    final GasEntry block = root.getChild("t:a,n:x");
+
+    assertNotNull(block);
+    assertEquals(1, block.get("one"));
+    assertEquals(2, block.get("two"));
+    assertEquals(3, block.get("three"));
+    assertEquals(4, block.get("four"));
+  }
+
+  @Test
+  void windowsLineEndings() {
+    final GasEntry block = GasLoader.load("[t:a,n:x]\r\n{\r\n\tone = 1;\r\n\t[child]\r\n\t{\r\n\t\ttwo = \"x\";\r\n\t}\r\n}\r\n").getChild("t:a,n:x");
+
+    assertNotNull(block);
+    assertEquals(1, block.get("one"));
+    assertEquals("x", block.getChild("child").get("two"));
+  }
+
+  @Test
+  void keysAreShared() {
+    final GasEntry block = block("  [one]\n  {\n    id = 1;\n  }\n  [two]\n  {\n    id = 2;\n  }\n");
+
+    final String first = block.getChild("one").values().iterator().next().getKey();
+    final String second = block.getChild("two").values().iterator().next().getKey();
+    assertSame(first, second);
+  }
+
+  @Test
+  void malformedFilesAreEmpty() {
+    assertEmpty(GasLoader.load("[t:a,n:x]\n{\n  a = \"oops;\n}\n"));
+    assertEmpty(GasLoader.load("[t:a,n:x]\n{\n  a = 1\n}\n"));
+    assertEmpty(GasLoader.load("[t:a,n:x]\n{\n  i plus = +7;\n}\n"));
+  }
+
+  /**
+   * The state machine never returned for these
+   */
+  @Test
+  void unclosedBlocksAreEmpty() {
+    assertEmpty(GasLoader.load("[t:a,n:x]\n{\n  one = 1;\n"));
+    assertEmpty(GasLoader.load("[t:a,n:x]\n{\n  [child]\n  {\n"));
+  }
+
+  @Test
+  void listAndNonListValuesCantShareAKey() {
+    assertEmpty(GasLoader.load("[t:a,n:x]\n{\n  one = 1;\n  one = 2;\n}\n"));
+    assertEmpty(GasLoader.load("[t:a,n:x]\n{\n  one = 1;\n  one* = 2;\n}\n"));
+  }
+
+  private static void assertEmpty(final GasEntry entry) {
+    assertTrue(entry.children().isEmpty());
+    assertTrue(entry.arrayChildren().isEmpty());
+    assertTrue(entry.values().isEmpty());
+  }
+}
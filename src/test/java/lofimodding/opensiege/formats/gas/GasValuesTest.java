@@ -0,0 +1,146 @@
+package lofimodding.opensiege.formats.gas;
+
+import lofimodding.opensiege.world.WorldPos;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Each parser against the JDK call it replaced, over a table of texts. The texts are parsed out of the middle of a
+ * longer string so that the bounds are checked too.
+ */
+class GasValuesTest {
+  private static final String[] INTS = {
+    "0", "7", "-7", "+7", "007", "-0", "123456789",
+    "2147483647", "2147483648", "-2147483648", "-2147483649", "99999999999", "+2147483647", "+2147483648",
+    "", "-", "+", "--1", "+-1", "1-", " 1", "1 ", "1.0", "1e3", "0x10", "ten", "1a", "\u0661\u0662\u0663",
+  };
+
+  private static final String[] HEXES = {
+    "0", "f", "F", "10", "ff00ff00", "FFFFFFFF", "00000000ffffffff", "+1f", "7fffffff", "80000000",
+    "100000000", "", "+", "-1", "g", "0x10", "1f ", " 1f", "dead beef",
+  };
+
+  private static final String[] FLOATS = {
+    "0", "0.0", "-0", "-0.0", "+0", "1", "1.5", "-1.5", "+1.5", ".5", "5.", "-.5", "0.1", "0.3", "3.14159265358979",
+    "1e3", "1E3", "2e-3", "2e+3", "-2.5e-10", "1e38", "3.4028235e38", "3.5e38", "1e39", "1e-45", "1e-46", "1.4e-45",
+    "1e22", "1e23", "1e-22", "1e-23", "123456789012345678901234567890", "0.000000000000000000000000000001",
+    "16777217", "16777219", "1.00000005960464477539062", "NaN", "-NaN", "Infinity", "-Infinity", "+Infinity",
+    "1f", "1.5F", "2d", "1.5D", "1ff", " 1.5 ", "\t2\t", "0x1p3", "0x1.8p1", "-0x1p-2", "0x1.8p1f", "0x1", "0xp1",
+    "", " ", "-", "+", ".", "e3", "1e", "1e+", "1e-", "1.5.5", "1..5", "1,5", "nan", "inf", "Infinit", "NaNa",
+    "true", "one", "1.5x", "--1", "+-1", "1e3.5",
+  };
+
+  @Test
+  void parseInt() {
+    for(final String text : INTS) {
+      long expected;
+      try {
+        expected = Integer.parseInt(text);
+      } catch(final NumberFormatException e) {
+        expected = GasValues.NOT_AN_INT;
+      }
+
+      assertEquals(expected, GasValues.parseInt(pad(text), 1, text.length() + 1), text);
+    }
+  }
+
+  @Test
+  void parseHex() {
+    for(final String text : HEXES) {
+      long expected;
+      try {
+        expected = Integer.toUnsignedLong(Integer.parseUnsignedInt(text, 16));
+      } catch(final NumberFormatException e) {
+        expected = GasValues.NOT_AN_INT;
+      }
+
+      assertEquals(expected, GasValues.parseHex(pad(text), 1, text.length() + 1), text);
+    }
+  }
+
+  @Test
+  void parseFloat() {
+    for(final String text : FLOATS) {
+      Float expected;
+      try {
+        expected = Float.parseFloat(text);
+      } catch(final NumberFormatException e) {
+        expected = null;
+      }
+
+      assertEquals(expected, GasValues.parseFloat(pad(text), 1, text.length() + 1), text);
+    }
+  }
+
+  @Test
+  void classify() throws GasParserException {
+    final Object[][] table = {
+      {"17", 17},
+      {"-3", -3},
+      {"+3", 3},
+      {"2147483648", 2147483648.0f},
+      {"0x10", 16},
+      {"0xffffffff", -1},
+      {"0x100000000", 0},
+      {"0xzz", 0},
+      {"0x", 0},
+      {"2.5", 2.5f},
+      {"-2.5e3", -2500.0f},
+      {"1e3", 1000.0f},
+      {"NaN", Float.NaN},
+      {"-Infinity", Float.NEGATIVE_INFINITY},
+      {"1.5f", 1.5f},
+      {"true", true},
+      {"false", false},
+      {"True", "True"},
+      {"none", null},
+      {"12h30m", LocalTime.of(12, 30)},
+      {"0h0m", LocalTime.of(0, 0)},
+      {"12h", "12h"},
+      {"h30m", "h30m"},
+      {"grs01", "grs01"},
+      {"-", "-"},
+      {"1.5.5", "1.5.5"},
+      {"1,2", "1,2"},
+      {"one\r\ntwo", "one\ntwo"},
+    };
+
+    for(final Object[] row : table) {
+      final String text = (String)row[0];
+      assertEquals(row[1], GasValues.classify(pad(text), 1, text.length() + 1), text);
+    }
+  }
+
+  @Test
+  void classifyWorldPos() throws GasParserException {
+    final WorldPos pos = assertInstanceOf(WorldPos.class, GasValues.classify(pad("1.5 , 0,-2.25,0x00ab"), 1, 21));
+    assertEquals(0xab, pos.getNodeId());
+    assertEquals(1.5f, pos.getX());
+    assertEquals(0.0f, pos.getY());
+    assertEquals(-2.25f, pos.getZ());
+
+    // Not shaped like a position, so left to the other checks
+    assertEquals("1,2,3", GasValues.classify(pad("1,2,3"), 1, 6));
+    assertEquals("1.,2,3,0x1", GasValues.classify(pad("1.,2,3,0x1"), 1, 11));
+    assertNull(GasValues.classify(pad("none"), 1, 5));
+  }
+
+  @Test
+  void classifyWorldPosWithBadNodeId() {
+    final String text = pad("1,2,3,0x1ffffffff");
+    assertThrows(GasParserException.class, () -> GasValues.classify(text, 1, text.length() - 1));
+  }
+
+  /**
+   * Surrounds the text with characters that would change the result if they were read
+   */
+  private static String pad(final String text) {
+    return '9' + text + '9';
+  }
+}
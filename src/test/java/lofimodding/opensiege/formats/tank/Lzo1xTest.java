@@ -0,0 +1,149 @@
+package lofimodding.opensiege.formats.tank;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Lzo1xTest {
+  private static final int[] LENGTHS = {0, 1, 2, 3, 4, 5, 17, 18, 19, 100, 238, 239, 240, 300, 4096, 0x4000, 0x10000, 200000};
+
+  /**
+   * Compressed by liblzo2's LZO1X-1 and LZO1X-999, as ported by org.anarres.lzo:lzo-core 1.0.6
+   */
+  private static final String HELLO = "hello hello hello hello hello, lzo lzo lzo!";
+  private static final String HELLO_1 = "0368656c6c6f202f140000022068656c6c6f2c206c7a6f206c7a6f206c7a6f21110000";
+  private static final String HELLO_999 = "1768656c6c6f20351400022c206c7a6fed0021110000";
+
+  /**
+   * 32 bytes, 20000 zeroes and the first 32 bytes again, compressed by LZO1X-999 with M3 runs over the zeroes and an M4
+   * match back to the start
+   */
+  private static final String FAR_999 =
+    "3201080f161d242b323940474e555c636a71787f868d949ba2a9b0b7bec5ccd3da002000000000000000e600002000000000000000e6000020" +
+    "00000000000000e600002000000000000000e600002000000000000000e600002000000000000000e600002000000000000000e6000020" +
+    "00000000000000e600002000000000000000e600002000000000000004000010170039110000";
+
+  @Test
+  void randomInputs() throws IOException {
+    final Random random = new Random(1);
+
+    for(final int length : LENGTHS) {
+      final byte[] input = new byte[length];
+      random.nextBytes(input);
+      roundTrip(input);
+    }
+  }
+
+  @Test
+  void repetitiveInputs() throws IOException {
+    final Random random = new Random(2);
+
+    for(final int length : LENGTHS) {
+      final byte[] zeroes = new byte[length];
+      final byte[] text = new byte[length];
+      for(int i = 0; i < length; i++) {
+        text[i] = (byte)"abcdefghij".charAt(random.nextInt(3 + i % 7));
+      }
+
+      final byte[] period = new byte[length];
+      for(int i = 0; i < length; i++) {
+        period[i] = (byte)(i % 13);
+      }
+
+      final int zeroesSize = roundTrip(zeroes);
+      roundTrip(text);
+      final int periodSize = roundTrip(period);
+
+      if(length >= 4096) {
+        assertTrue(zeroesSize < length / 64, "Zeroes " + length + " -> " + zeroesSize);
+        assertTrue(periodSize < length / 64, "Period " + length + " -> " + periodSize);
+      }
+    }
+  }
+
+  /**
+   * Random data only grows by the literal run headers, and never past the bound
+   */
+  @Test
+  void incompressibleInputs() throws IOException {
+    final Random random = new Random(3);
+
+    for(final int length : LENGTHS) {
+      final byte[] input = new byte[length];
+      random.nextBytes(input);
+
+      final int size = roundTrip(input);
+      assertTrue(size <= Lzo1x.maxCompressedLength(length), length + " -> " + size);
+      assertTrue(size <= length + length / 255 + 16, length + " -> " + size);
+    }
+  }
+
+  /**
+   * Noise repeated from further back than M3 reaches, up to the furthest M4 can
+   */
+  @Test
+  void longDistanceMatches() throws IOException {
+    final Random random = new Random(4);
+
+    for(final int distance : new int[] {0x4001, 0x4100, 0x8000, 0xbfff}) {
+      final byte[] input = new byte[distance + 0x1000];
+      random.nextBytes(input);
+      System.arraycopy(input, 0, input, distance, 0x1000);
+
+      final int size = roundTrip(input);
+      assertTrue(size < distance + 0x400, distance + " -> " + size);
+    }
+  }
+
+  @Test
+  void knownVectors() throws IOException {
+    final byte[] hello = HELLO.getBytes(StandardCharsets.US_ASCII);
+    assertArrayEquals(hello, decompress(HexFormat.of().parseHex(HELLO_1), hello.length));
+    assertArrayEquals(hello, decompress(HexFormat.of().parseHex(HELLO_999), hello.length));
+
+    final byte[] far = new byte[32 + 20000 + 32];
+    for(int i = 0; i < 32; i++) {
+      far[i] = (byte)(i * 7 + 1);
+      far[32 + 20000 + i] = far[i];
+    }
+
+    assertArrayEquals(far, decompress(HexFormat.of().parseHex(FAR_999), far.length));
+  }
+
+  @Test
+  void truncatedInputFails() {
+    final byte[] compressed = HexFormat.of().parseHex(FAR_999);
+
+    for(int length = 1; length < compressed.length; length++) {
+      final byte[] truncated = Arrays.copyOf(compressed, length);
+      assertThrows(IOException.class, () -> decompress(truncated, 32 + 20000 + 32), "Length " + length);
+    }
+  }
+
+  /**
+   * @return the compressed size
+   */
+  private static int roundTrip(final byte[] input) throws IOException {
+    final byte[] compressed = new byte[Lzo1x.maxCompressedLength(input.length)];
+    final int size = Lzo1x.compress(input, 0, input.length, compressed, 0);
+
+    assertArrayEquals(input, decompress(Arrays.copyOf(compressed, size), input.length), "Length " + input.length);
+    return size;
+  }
+
+  private static byte[] decompress(final byte[] compressed, final int length) throws IOException {
+    final byte[] output = new byte[length];
+    assertEquals(length, Lzo1x.decompress(ByteBuffer.wrap(compressed), output, 0, length));
+    return output;
+  }
+}
@@ -0,0 +1,66 @@
+package lofimodding.opensiege.formats.tank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TankIndexCacheTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  void loadsFromSidecar() throws IOException {
+    final TestTank source = TestTank.sample();
+    final Path tankPath = this.dir.resolve("sample.dsres");
+    final Path cache = this.dir.resolve("cache");
+    source.write(tankPath);
+
+    TankLoader.load(tankPath, cache);
+    assertTrue(Files.isRegularFile(TankIndexCache.sidecarPath(cache, tankPath)));
+
+    final Tank tank = TankLoader.load(tankPath, cache);
+    for(final Map.Entry<String, byte[]> file : source.contents().entrySet()) {
+      assertArrayEquals(file.getValue(), tank.getFileByPath(file.getKey()), file.getKey());
+    }
+  }
+
+  /**
+   * Every int in the sidecar after its key is replaced with counts that are negative, far too large or just past the
+   * end. Each time the tank must still load, from the sidecar or by falling back to parsing it.
+   */
+  @Test
+  void corruptSidecarsFallBack() throws IOException {
+    final TestTank source = TestTank.sample();
+    final Path tankPath = this.dir.resolve("sample.dsres");
+    final Path cache = this.dir.resolve("cache");
+    source.write(tankPath);
+
+    TankLoader.load(tankPath, cache);
+    final Path sidecar = TankIndexCache.sidecarPath(cache, tankPath);
+    final byte[] original = Files.readAllBytes(sidecar);
+    final int keySize = 4 + 4 + 8 + 8 + 4 + ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN).getInt(24);
+
+    for(int offset = keySize; offset + 4 <= original.length; offset++) {
+      for(final int value : new int[] {-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0x4000_0000, original.length}) {
+        final ByteBuffer corrupt = ByteBuffer.wrap(original.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        corrupt.putInt(offset, value);
+        Files.write(sidecar, corrupt.array());
+
+        final Tank tank = TankLoader.load(tankPath, cache);
+        assertNotNull(tank);
+        assertEquals(source.contents().size(), tank.fileEntries().size(), "Offset " + offset + " = " + value);
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package lofimodding.opensiege.formats.tank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class TankTrigramIndexTest {
+  @TempDir
+  Path dir;
+
+  private TankManager install() throws IOException {
+    Files.createDirectories(this.dir.resolve("Resources"));
+    Files.createDirectories(this.dir.resolve("Maps"));
+    TestTank.sample().write(this.dir.resolve("Resources").resolve("sample.dsres"));
+    return new TankManager(this.dir, 1 << 20, null);
+  }
+
+  @Test
+  void searchesSavedIndex() throws IOException {
+    final TankManager tankManager = this.install();
+    final Path cache = this.dir.resolve("cache");
+
+    TankTrigramIndex.open(tankManager, cache);
+    final TankTrigramIndex index = TankTrigramIndex.open(tankManager, cache);
+
+    assertEquals(5, index.fileCount());
+    assertEquals(List.of("/world/world.gas"), index.search("GREECE"));
+    assertEquals(List.of("/big.gas", "/world/world.gas"), index.search("name"));
+  }
+
+  /**
+   * Every int in the saved index after its key is replaced with counts that are negative, far too large or just past
+   * the end. Each time the index must still open, from the file or by being rebuilt.
+   */
+  @Test
+  void corruptIndicesAreRebuilt() throws IOException {
+    final TankManager tankManager = this.install();
+    final Path cache = this.dir.resolve("cache");
+
+    TankTrigramIndex.open(tankManager, cache);
+    final Path file;
+    try(final Stream<Path> files = Files.list(cache)) {
+      file = files.filter(path -> path.getFileName().toString().endsWith(".idx")).findFirst().orElseThrow();
+    }
+
+    final byte[] original = Files.readAllBytes(file);
+    final int keySize = 12 + ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN).getInt(8);
+
+    for(int offset = keySize; offset + 4 <= original.length; offset++) {
+      for(final int value : new int[] {-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0x4000_0000, original.length}) {
+        final ByteBuffer corrupt = ByteBuffer.wrap(original.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        corrupt.putInt(offset, value);
+        Files.write(file, corrupt.array());
+
+        assertNotNull(TankTrigramIndex.open(tankManager, cache), "Offset " + offset + " = " + value);
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package lofimodding.opensiege.formats.tank;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Repacks a tank with files beside subdirectories in every mode, then checks that the repacked tank loads with the
+ * same data, valid CRCs and the same directory children
+ */
+class TankWriterTest {
+  @TempDir
+  Path dir;
+
+  private final TestTank source = TestTank.sample();
+
+  private Tank repack(final TankWriter writer) throws IOException {
+    final Path sourcePath = this.dir.resolve("source.dsres");
+    final Path out = this.dir.resolve("out.dsres");
+    this.source.write(sourcePath);
+
+    final Tank original = TankLoader.load(sourcePath);
+    writer.write(original, out);
+
+    final Tank repacked = TankLoader.load(out);
+    this.assertSameFiles(repacked);
+    assertSameChildren(original, repacked);
+    return repacked;
+  }
+
+  @Test
+  void copy() throws IOException {
+    final Tank tank = this.repack(new TankWriter());
+
+    assertEquals(TankFormat.LZO, tank.filePaths().get("/world/maps/map.sno").format());
+    assertEquals(0x4000, tank.filePaths().get("/world/maps/map.sno").compressionHeader().chunkSize());
+  }
+
+  @Test
+  void storeUncompressed() throws IOException {
+    final Tank tank = this.repack(new TankWriter().storeUncompressed(path -> true));
+
+    for(final TankFileEntry entry : tank.fileEntries().values()) {
+      assertFalse(entry.isCompressed(), entry.name());
+    }
+  }
+
+  @Test
+  void storeSomeUncompressed() throws IOException {
+    final Tank tank = this.repack(new TankWriter().storeUncompressed(path -> path.endsWith(".gas")));
+
+    assertFalse(tank.filePaths().get("/big.gas").isCompressed());
+    assertNotNull(tank.filePaths().get("/world/noise.raw").compressionHeader());
+  }
+
+  @Test
+  void chunkSize() throws IOException {
+    final Tank tank = this.repack(new TankWriter().chunkSize(0x800));
+
+    for(final TankFileEntry entry : tank.fileEntries().values()) {
+      if(entry.isCompressed()) {
+        assertEquals(0x800, entry.compressionHeader().chunkSize(), entry.name());
+      }
+    }
+  }
+
+  @Test
+  void lzo() throws IOException {
+    final Tank tank = this.repack(new TankWriter().format(TankFormat.LZO));
+
+    for(final TankFileEntry entry : tank.fileEntries().values()) {
+      if(entry.isCompressed()) {
+        assertEquals(TankFormat.LZO, entry.format(), entry.name());
+      }
+    }
+  }
+
+  @Test
+  void zlibWithChunkSize() throws IOException {
+    final Tank tank = this.repack(new TankWriter().format(TankFormat.ZLIB).chunkSize(0x1000));
+
+    for(final TankFileEntry entry : tank.fileEntries().values()) {
+      if(entry.isCompressed()) {
+        assertEquals(TankFormat.ZLIB, entry.format(), entry.name());
+        assertEquals(0x1000, entry.compressionHeader().chunkSize(), entry.name());
+      }
+    }
+  }
+
+  @Test
+  void order() throws IOException {
+    final List<String> trace = new ArrayList<>(this.source.contents().keySet());
+    Collections.reverse(trace);
+
+    final Tank tank = this.repack(new TankWriter().order(trace));
+
+    int previous = Integer.MAX_VALUE;
+    for(final String path : this.source.contents().keySet()) {
+      final TankFileEntry entry = tank.filePaths().get(path);
+      if(entry.entrySize() != 0) {
+        assertFalse(entry.dataOffset() > previous, path);
+        previous = entry.dataOffset();
+      }
+    }
+  }
+
+  private void assertSameFiles(final Tank tank) throws IOException {
+    assertEquals(this.source.contents().size(), tank.fileEntries().size());
+
+    for(final Map.Entry<String, byte[]> file : this.source.contents().entrySet()) {
+      final TankFileEntry entry = tank.filePaths().get(file.getKey());
+      assertNotNull(entry, file.getKey());
+
+      final CRC32 crc = new CRC32();
+      crc.update(file.getValue());
+      assertEquals((int)crc.getValue(), entry.crc32(), file.getKey());
+
+      assertArrayEquals(file.getValue(), tank.getFileByPath(file.getKey()), file.getKey());
+
+      if(entry.isCompressed()) {
+        assertArrayEquals(file.getValue(), tank.decompress(entry, true), file.getKey());
+      } else {
+        tank.verify(entry);
+      }
+    }
+  }
+
+  /**
+   * The directory set is copied as it is, so directories keep their keys. Their file children must point at the
+   * files' new entries.
+   */
+  private static void assertSameChildren(final Tank original, final Tank repacked) {
+    assertEquals(original.directoryEntries().keySet(), repacked.directoryEntries().keySet());
+
+    for(final IntIterator it = original.directoryEntries().keySet().iterator(); it.hasNext(); ) {
+      final int dirKey = it.nextInt();
+      assertEquals(childNames(original, dirKey), childNames(repacked, dirKey), original.directoryEntries().get(dirKey).dirName());
+    }
+  }
+
+  private static List<String> childNames(final Tank tank, final int dirKey) {
+    final List<String> names = new ArrayList<>();
+
+    for(final int childOffset : tank.directoryEntries().get(dirKey).childOffsets()) {
+      final int child = childOffset - tank.header().dirSetOffset();
+      final TankFileEntry file = tank.fileEntries().get(child);
+      final TankDirectoryEntry dir = tank.directoryEntries().get(child);
+
+      if(file != null && file.parentOffset() == dirKey) {
+        names.add(file.name());
+      } else {
+        assertNotNull(dir, "Child " + child + " of " + dirKey);
+        assertEquals(dirKey, dir.parentOffset());
+        names.add(dir.dirName() + '/');
+      }
+    }
+
+    return names;
+  }
+}
@@ -0,0 +1,304 @@
+package lofimodding.opensiege.formats.tank;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes small tanks for tests. Directories list both their subdirectories and their files as children, entries can
+ * be stored raw or compressed in chunks, and every entry has its real CRC32.
+ */
+final class TestTank {
+  private static final int DIR_SET_OFFSET = 0x100;
+
+  private final List<Dir> dirs = new ArrayList<>();
+  private final List<Entry> files = new ArrayList<>();
+
+  TestTank() {
+    this.dirs.add(new Dir("", -1));
+  }
+
+  /**
+   * @param parent the parent's index. The root is 0, the rest are numbered in the order they're added.
+   */
+  TestTank dir(final String name, final int parent) {
+    this.dirs.add(new Dir(name, parent));
+    return this;
+  }
+
+  /**
+   * @param chunkSize ignored for raw entries
+   */
+  TestTank file(final int dir, final String name, final byte[] data, final TankFormat format, final int chunkSize) {
+    this.files.add(new Entry(dir, name, data, format, chunkSize));
+    return this;
+  }
+
+  /**
+   * A tree with files beside subdirectories at every level, stored raw, with zlib and with LZO, including entries
+   * that don't compress, entries spanning several chunks and an empty entry
+   */
+  static TestTank sample() {
+    final Random random = new Random(42);
+
+    return new TestTank()
+      .dir("world", 0)
+      .dir("maps", 1)
+      .dir("empty", 1)
+      .file(0, "root.gas", text("[root]\n{\n  value = 1;\n}\n", 4), TankFormat.RAW, 0)
+      .file(0, "big.gas", text("[t:template,n:thing]\n{\n  screen_name = \"Thing\";\n}\n", 800), TankFormat.ZLIB, 0x4000)
+      .file(1, "world.gas", text("[world]\n{\n  name = greece;\n}\n", 40), TankFormat.LZO, 0x1000)
+      .file(1, "noise.raw", bytes(random, 3000), TankFormat.ZLIB, 0x400)
+      .file(1, "empty.gas", new byte[0], TankFormat.ZLIB, 0x4000)
+      .file(2, "map.sno", text("node", 5000), TankFormat.LZO, 0x4000)
+      .file(2, "mixed.raw", mixed(random), TankFormat.LZO, 0x800)
+      .file(2, "plain.txt", text("plain ", 100), TankFormat.RAW, 0);
+  }
+
+  static byte[] text(final String text, final int copies) {
+    return text.repeat(copies).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  static byte[] bytes(final Random random, final int length) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Noise with runs copied from far back in it
+   */
+  private static byte[] mixed(final Random random) {
+    final byte[] bytes = bytes(random, 20000);
+    for(int i = 10000; i < bytes.length; i += 500) {
+      System.arraycopy(bytes, i - 9000, bytes, i, 200);
+    }
+
+    return bytes;
+  }
+
+  /**
+   * @return each file's data by tank path
+   */
+  Map<String, byte[]> contents() {
+    final Map<String, byte[]> contents = new LinkedHashMap<>();
+    for(final Entry file : this.files) {
+      contents.put(this.path(file.dir) + '/' + file.name, file.data);
+    }
+
+    return contents;
+  }
+
+  /**
+   * @return each directory's path
+   */
+  List<String> directories() {
+    final List<String> paths = new ArrayList<>();
+    for(int dirIndex = 1; dirIndex < this.dirs.size(); dirIndex++) {
+      paths.add(this.path(dirIndex));
+    }
+
+    return paths;
+  }
+
+  private String path(final int dirIndex) {
+    final Dir dir = this.dirs.get(dirIndex);
+    return dir.parent < 0 ? "" : this.path(dir.parent) + '/' + dir.name;
+  }
+
+  void write(final Path path) throws IOException {
+    // Compress everything up front so that the file set can be laid out
+    final byte[][] stored = new byte[this.files.size()][];
+    final TankChunkHeader[][] chunks = new TankChunkHeader[this.files.size()][];
+    for(int fileIndex = 0; fileIndex < this.files.size(); fileIndex++) {
+      final Entry file = this.files.get(fileIndex);
+
+      if(file.format.isCompressed() && file.data.length != 0) {
+        chunks[fileIndex] = compress(file, stored, fileIndex);
+      } else {
+        stored[fileIndex] = file.data;
+      }
+    }
+
+    final int[] dirOffsets = new int[this.dirs.size()];
+    int offset = 4 + dirOffsets.length * 4;
+    for(int dirIndex = 0; dirIndex < this.dirs.size(); dirIndex++) {
+      dirOffsets[dirIndex] = offset;
+      offset += 16 + nStringSize(this.dirs.get(dirIndex).name) + this.childCount(dirIndex) * 4;
+    }
+
+    final int fileSetOffset = DIR_SET_OFFSET + offset;
+
+    final int[] fileOffsets = new int[this.files.size()];
+    offset = 4 + fileOffsets.length * 4;
+    for(int fileIndex = 0; fileIndex < this.files.size(); fileIndex++) {
+      fileOffsets[fileIndex] = offset;
+      offset += 28 + nStringSize(this.files.get(fileIndex).name) + (chunks[fileIndex] != null ? 8 + chunks[fileIndex].length * 16 : 0);
+    }
+
+    final int dataSetOffset = align(fileSetOffset + offset, 16);
+
+    final int[] dataOffsets = new int[this.files.size()];
+    int dataSize = 0;
+    for(int fileIndex = 0; fileIndex < this.files.size(); fileIndex++) {
+      dataOffsets[fileIndex] = dataSize;
+      dataSize = align(dataSize + stored[fileIndex].length, 4);
+    }
+
+    final ByteBuffer out = ByteBuffer.allocate(dataSetOffset + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Header
+    out.put("DSig".getBytes(StandardCharsets.US_ASCII)).put("Tank".getBytes(StandardCharsets.US_ASCII));
+    out.putInt(0x10000).putInt(DIR_SET_OFFSET).putInt(fileSetOffset).putInt(dataSetOffset - DIR_SET_OFFSET).putInt(dataSetOffset);
+    out.position(out.position() + 24);
+    out.putShort((short)TankPriority.FACTORY.code);
+
+    // Directories list their subdirectories by directory set offset and their files by file set offset
+    out.position(DIR_SET_OFFSET);
+    out.putInt(dirOffsets.length);
+    for(final int dirOffset : dirOffsets) {
+      out.putInt(dirOffset);
+    }
+
+    for(int dirIndex = 0; dirIndex < this.dirs.size(); dirIndex++) {
+      final Dir dir = this.dirs.get(dirIndex);
+      out.putInt(dir.parent < 0 ? 0 : dirOffsets[dir.parent]);
+      out.putInt(this.childCount(dirIndex));
+      out.putLong(0x01c0000000000000L + dirIndex);
+      putNString(out, dir.name);
+
+      for(int childIndex = 0; childIndex < this.dirs.size(); childIndex++) {
+        if(this.dirs.get(childIndex).parent == dirIndex) {
+          out.putInt(dirOffsets[childIndex]);
+        }
+      }
+
+      for(int fileIndex = 0; fileIndex < this.files.size(); fileIndex++) {
+        if(this.files.get(fileIndex).dir == dirIndex) {
+          out.putInt(fileOffsets[fileIndex]);
+        }
+      }
+    }
+
+    out.putInt(fileOffsets.length);
+    for(final int fileOffset : fileOffsets) {
+      out.putInt(fileOffset);
+    }
+
+    for(int fileIndex = 0; fileIndex < this.files.size(); fileIndex++) {
+      final Entry file = this.files.get(fileIndex);
+      final CRC32 crc = new CRC32();
+      crc.update(file.data);
+
+      out.putInt(dirOffsets[file.dir]);
+      out.putInt(file.data.length);
+      out.putInt(dataOffsets[fileIndex]);
+      out.putInt((int)crc.getValue());
+      out.putLong(0x01d0000000000000L + fileIndex);
+      out.putShort((short)file.format.ordinal());
+      out.putShort((short)TankFlags.NONE.code);
+      putNString(out, file.name);
+
+      if(chunks[fileIndex] != null) {
+        out.putInt(stored[fileIndex].length);
+        out.putInt(file.chunkSize);
+
+        for(final TankChunkHeader chunk : chunks[fileIndex]) {
+          out.putInt(chunk.uncompressedBytes()).putInt(chunk.compressedBytes()).putInt(chunk.extraBytes()).putInt(chunk.offset());
+        }
+      }
+    }
+
+    for(int fileIndex = 0; fileIndex < this.files.size(); fileIndex++) {
+      out.put(dataSetOffset + dataOffsets[fileIndex], stored[fileIndex]);
+    }
+
+    Files.write(path, out.array());
+  }
+
+  private int childCount(final int dirIndex) {
+    int count = 0;
+    for(final Dir dir : this.dirs) {
+      if(dir.parent == dirIndex) {
+        count++;
+      }
+    }
+
+    for(final Entry file : this.files) {
+      if(file.dir == dirIndex) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Chunks that don't get smaller are stored as they are
+   */
+  private static TankChunkHeader[] compress(final Entry file, final byte[][] stored, final int fileIndex) {
+    final TankChunkHeader[] chunks = new TankChunkHeader[(file.data.length + file.chunkSize - 1) / file.chunkSize];
+    final byte[] output = new byte[file.data.length + Lzo1x.maxCompressedLength(file.chunkSize)];
+    final byte[] scratch = new byte[Lzo1x.maxCompressedLength(file.chunkSize)];
+    int outputOffset = 0;
+
+    for(int chunkIndex = 0; chunkIndex < chunks.length; chunkIndex++) {
+      final int offset = chunkIndex * file.chunkSize;
+      final int length = Math.min(file.chunkSize, file.data.length - offset);
+      int compressedBytes;
+
+      if(file.format == TankFormat.ZLIB) {
+        final Deflater deflater = new Deflater();
+        deflater.setInput(file.data, offset, length);
+        deflater.finish();
+        compressedBytes = deflater.deflate(scratch);
+        deflater.end();
+      } else {
+        compressedBytes = Lzo1x.compress(file.data, offset, length, scratch, 0);
+      }
+
+      if(compressedBytes >= length) {
+        System.arraycopy(file.data, offset, output, outputOffset, length);
+        compressedBytes = length;
+      } else {
+        System.arraycopy(scratch, 0, output, outputOffset, compressedBytes);
+      }
+
+      chunks[chunkIndex] = new TankChunkHeader(length, compressedBytes, 0, outputOffset);
+      outputOffset += compressedBytes;
+    }
+
+    stored[fileIndex] = Arrays.copyOf(output, outputOffset);
+    return chunks;
+  }
+
+  private static int nStringSize(final String string) {
+    final int length = string.getBytes(StandardCharsets.US_ASCII).length;
+    return length + 2 + 4 - (length + 2) % 4;
+  }
+
+  private static void putNString(final ByteBuffer out, final String string) {
+    final byte[] bytes = string.getBytes(StandardCharsets.US_ASCII);
+    out.putShort((short)bytes.length).put(bytes);
+    out.position(out.position() + 4 - (bytes.length + 2) % 4);
+  }
+
+  private static int align(final int value, final int alignment) {
+    return (value + alignment - 1) / alignment * alignment;
+  }
+
+  private record Dir(String name, int parent) { }
+
+  private record Entry(int dir, String name, byte[] data, TankFormat format, int chunkSize) { }
+}